@@ -124,6 +124,42 @@ extends FsDriver {
         return false;
     }
 
+    /**
+     * Returns {@code true} if and only if the entries of the given input shop
+     * can get read by multiple threads concurrently.
+     * If the return value is {@code true}, then the file system controller
+     * still synchronizes opening the streams and read only files of the
+     * entries, but not reading them.
+     *
+     * @param  input an input shop which has been returned by
+     *         {@link #newInputShop}.
+     * @return The implementation in the class {@link FsArchiveDriver} returns
+     *         {@code false} for backwards compatibility.
+     */
+    public boolean getConcurrentInputSupport(InputShop<E> input) {
+        return false;
+    }
+
+    /**
+     * Returns {@code true} if and only if an archive file of this driver
+     * which is an entry in a parent archive file shall get read directly
+     * from the parent file system when it gets mounted.
+     * If the return value is {@code true} and the parent file system supports
+     * random access to the entry, e.g. for a STORED entry in a ZIP file, then
+     * this saves copying the entry to a temporary file.
+     * However, the read only file for the entry then stays open in the parent
+     * file system for as long as the archive file is mounted.
+     * Thus, any synchronization of the parent file system which neither
+     * waits for nor forces the closing of entry streams fails with an
+     * {@link FsResourceOpenException} until the archive file gets unmounted.
+     *
+     * @return The implementation in the class {@link FsArchiveDriver} returns
+     *         {@code false} for backwards compatibility.
+     */
+    public boolean getDirectMountSupport() {
+        return false;
+    }
+
     /**
      * Called to prepare reading an archive file artifact of this driver from
      * {@code name} in {@code controller} using {@code options}.
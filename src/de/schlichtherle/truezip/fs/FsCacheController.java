@@ -5,6 +5,7 @@
 package de.schlichtherle.truezip.fs;
 
 import de.schlichtherle.truezip.entry.Entry;
+import static de.schlichtherle.truezip.entry.Entry.Size.DATA;
 import de.schlichtherle.truezip.entry.Entry.Type;
 import static de.schlichtherle.truezip.entry.Entry.Type.FILE;
 import static de.schlichtherle.truezip.fs.FsOutputOption.EXCLUSIVE;
@@ -21,8 +22,8 @@ import de.schlichtherle.truezip.util.BitField;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -50,6 +51,18 @@ import java.util.logging.Logger;
  *     clients, allowing it to create, read, update or delete the entry data
  *     while some clients are still busy on reading or writing the copied
  *     entry data.
+ * <li>The cache is subject to the {@link FsCacheLimits} of the file system
+ *     model: If caching an entry exceeds these limits, then the least
+ *     recently used cached entries get evicted.
+ *     Evicted entries with pending changes get flushed first.
+ * <li>Reading an entry which is not cached and shall not get cached or
+ *     reading an entry which is already cached only requires the read lock
+ *     of the file system model, so concurrent readers of the same archive
+ *     file don't block each other.
+ *     Populating or changing the cache requires the write lock - if the
+ *     current thread holds only the read lock, then an
+ *     {@link FsNeedsWriteLockException} gets thrown so that the operation
+ *     gets retried with the write lock.
  * </ul>
  * <p>
  * <strong>TO THE FUTURE ME:</strong>
@@ -72,9 +85,14 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
     private static final SocketFactory SOCKET_FACTORY = SocketFactory.OIO;
 
     private final IOPool<?> pool;
+    private final FsCacheLimits limits;
 
+    /** The entry caches in the order of their last access. */
     private final Map<FsEntryName, EntryCache>
-            caches = new HashMap<FsEntryName, EntryCache>();
+            caches = new LinkedHashMap<FsEntryName, EntryCache>(16, 0.75f, true);
+
+    /** The total size of the cached entries. */
+    private long bytes;
 
     /**
      * Constructs a new file system cache controller.
@@ -87,6 +105,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             final FsController<? extends FsLockModel> controller) {
         super(controller);
         if (null == (this.pool = pool)) throw new NullPointerException();
+        this.limits = getModel().getCacheLimits();
     }
 
     @Override
@@ -97,12 +116,20 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         class Input extends DelegatingInputSocket<Entry> {
             @Override
             protected InputSocket<?> getDelegate() {
-                assert isWriteLockedByCurrentThread();
-                EntryCache cache = caches.get(name);
+                EntryCache cache;
+                synchronized (caches) { // access order gets updated!
+                    cache = caches.get(name);
+                }
                 if (null == cache) {
                     if (!options.get(FsInputOption.CACHE))
                         return delegate.getInputSocket(name, options);
+                    checkWriteLockedByCurrentThread(); // populate
+                    limits.miss();
                     cache = new EntryCache(name);
+                } else {
+                    if (null == cache.cache.getEntry())
+                        checkWriteLockedByCurrentThread(); // populate
+                    limits.hit();
                 }
                 return cache.getInputSocket(options);
             }
@@ -143,8 +170,10 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         assert isWriteLockedByCurrentThread();
         delegate.mknod(name, type, options, template);
         final EntryCache cache = caches.remove(name);
-        if (null != cache)
+        if (null != cache) {
+            bytes -= cache.size;
             cache.clear();
+        }
     }
 
     @Override
@@ -154,8 +183,10 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         assert isWriteLockedByCurrentThread();
         delegate.unlink(name, options);
         final EntryCache cache = caches.remove(name);
-        if (null != cache)
+        if (null != cache) {
+            bytes -= cache.size;
             cache.clear();
+        }
     }
 
     @Override
@@ -187,6 +218,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             }
             if (clear) {
                 i.remove();
+                bytes -= cache.size;
                 try {
                     cache.clear();
                 } catch (final IOException ex) {
@@ -197,6 +229,43 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         builder.check();
     }
 
+    /**
+     * Evicts the least recently used entry caches until the cache limits are
+     * met again.
+     * Entry caches with pending changes get flushed first.
+     * Entry caches which are currently getting written are skipped.
+     *
+     * @param current the entry cache which is currently getting registered.
+     *        This gets skipped because it may still get populated.
+     */
+    private void evict(final EntryCache current) {
+        assert isWriteLockedByCurrentThread();
+        final int maxEntries = limits.getMaxEntries();
+        final long maxBytes = limits.getMaxBytes();
+        for (   final Iterator<EntryCache> i = caches.values().iterator();
+                i.hasNext()
+                    && (maxEntries < caches.size() || maxBytes < bytes); ) {
+            final EntryCache cache = i.next();
+            if (current == cache || 0 < cache.writers)
+                continue;
+            try {
+                cache.flush();
+            } catch (final IOException ex) {
+                // The next sync() will report this.
+                logger.log(Level.FINE, "Cannot flush the entry cache for eviction:", ex);
+                continue;
+            }
+            i.remove();
+            bytes -= cache.size;
+            limits.evicted();
+            try {
+                cache.clear();
+            } catch (final IOException ex) {
+                logger.log(Level.FINE, "Cannot clear the evicted entry cache:", ex);
+            }
+        }
+    }
+
     private enum SocketFactory {
         OIO() {
             @Override
@@ -219,6 +288,16 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         final FsEntryName name;
         final IOCache cache;
 
+        /**
+         * The size of the cached entry as of its last registration.
+         * While the cache is getting populated, this is the size of the
+         * backing store entry.
+         */
+        long size;
+
+        /** The number of open output streams. */
+        int writers;
+
         EntryCache(final FsEntryName name) {
             this.name = name;
             this.cache = WRITE_BACK.newCache(FsCacheController.this.pool);
@@ -243,7 +322,14 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
 
         void register() {
             assert isWriteLockedByCurrentThread();
-            caches.put(name, this);
+            final EntryCache old = caches.put(name, this);
+            if (null != old)
+                bytes -= old.size;
+            final Entry entry = cache.getEntry();
+            if (null != entry)
+                size = Math.max(0, entry.getSize(DATA));
+            bytes += size;
+            evict(this);
         }
 
         /**
@@ -291,6 +377,9 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                 @Override
                 public void close() throws IOException {
                     delegate.close();
+                    // The cache has not yet been populated, so use the size
+                    // of the backing store entry.
+                    size = Math.max(0, getLocalTarget().getSize(DATA));
                     register();
                 }
             } // Stream
@@ -334,18 +423,28 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             }
 
             final class Stream extends DecoratingOutputStream {
+                boolean closed;
+
                 Stream() throws IOException {
                     // Note that the super class implementation MUST get
                     // bypassed because the socket MUST get kept even upon an
                     // exception!
                     //super(Output.super.newOutputStream());
                     super(getBoundSocket().newOutputStream());
+                    writers++;
                     register();
                 }
 
                 @Override
                 public void close() throws IOException {
-                    delegate.close();
+                    try {
+                        delegate.close();
+                    } finally {
+                        if (!closed) {
+                            closed = true;
+                            writers--;
+                        }
+                    }
                     postOutput();
                 }
             } // Stream
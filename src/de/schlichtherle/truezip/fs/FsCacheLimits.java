@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the size of the selective entry cache of each archive file system
+ * which is managed by a {@link FsManager} and counts the hits, misses and
+ * evictions of these caches.
+ * <p>
+ * If caching an entry makes an archive file system exceed the maximum number
+ * of cached entries or the maximum number of cached bytes, then its least
+ * recently used cached entries get evicted until it complies again.
+ * Entries with pending changes get flushed to the archive file before they
+ * get evicted.
+ * Entries which are currently getting written are never evicted.
+ * Note that the limits apply to each archive file system separately while
+ * the counters accumulate over all archive file systems.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    FsManager#getCacheLimits()
+ * @author Christian Schlichtherle
+ */
+public final class FsCacheLimits {
+
+    /** Imposes no limits. */
+    public static final FsCacheLimits UNLIMITED
+            = new FsCacheLimits(Integer.MAX_VALUE, Long.MAX_VALUE);
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final AtomicLong
+            hits = new AtomicLong(),
+            misses = new AtomicLong(),
+            evictions = new AtomicLong();
+
+    /**
+     * Constructs new cache limits.
+     *
+     * @param maxEntries the maximum number of cached entries per archive file
+     *        system.
+     * @param maxBytes the maximum total size of the cached entries per
+     *        archive file system.
+     */
+    public FsCacheLimits(final int maxEntries, final long maxBytes) {
+        if (0 > maxEntries || 0 > maxBytes)
+            throw new IllegalArgumentException();
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the maximum number of cached entries per archive file system.
+     *
+     * @return The maximum number of cached entries per archive file system.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Returns the maximum total size of the cached entries per archive file
+     * system.
+     *
+     * @return The maximum total size of the cached entries per archive file
+     *         system.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of reads which have been served by a cached entry.
+     *
+     * @return The number of reads which have been served by a cached entry.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of reads which have required to cache an entry.
+     *
+     * @return The number of reads which have required to cache an entry.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of cached entries which have been evicted.
+     *
+     * @return The number of cached entries which have been evicted.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    void hit() {
+        hits.incrementAndGet();
+    }
+
+    void miss() {
+        misses.incrementAndGet();
+    }
+
+    void evicted() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Returns a string representation of this object for debugging and logging
+     * purposes.
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[maxEntries=%d, maxBytes=%d, hits=%d, misses=%d, evictions=%d]",
+                getClass().getName(),
+                getMaxEntries(),
+                getMaxBytes(),
+                getHits(),
+                getMisses(),
+                getEvictions());
+    }
+}
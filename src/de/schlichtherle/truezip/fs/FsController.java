@@ -342,6 +342,20 @@ public abstract class FsController<M extends FsModel> {
     public abstract void sync(BitField<FsSyncOption> options)
     throws FsSyncWarningException, FsSyncException;
 
+    /**
+     * Returns the number of entry streams and read only files of this file
+     * system which are currently open in any thread.
+     * This gets overridden by the controllers which account for these
+     * resources.
+     * Implementations must not acquire any file system lock.
+     *
+     * @return The implementation in the class {@link FsController} returns
+     *         zero.
+     */
+    int getOpenResources() {
+        return 0;
+    }
+
     /**
      * Two file system controllers are considered equal if and only if they
      * are identical.
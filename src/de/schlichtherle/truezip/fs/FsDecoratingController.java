@@ -129,6 +129,11 @@ extends FsAbstractController<M> {
         delegate.sync(options);
     }
 
+    @Override
+    int getOpenResources() {
+        return delegate.getOpenResources();
+    }
+
     @Override
     public String toString() {
         return String.format("%s[delegate=%s]",
@@ -39,11 +39,21 @@ extends FsManager {
         return delegate.getSize();
     }
 
+    @Override
+    public FsCacheLimits getCacheLimits() {
+        return delegate.getCacheLimits();
+    }
+
     @Override
     public Iterator<FsController<?>> iterator() {
         return delegate.iterator();
     }
 
+    @Override
+    public Iterator<FsController<?>> mountedIterator() {
+        return delegate.mountedIterator();
+    }
+
     /**
      * Returns a string representation of this object for debugging and logging
      * purposes.
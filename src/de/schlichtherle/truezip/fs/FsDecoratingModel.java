@@ -35,6 +35,21 @@ public abstract class FsDecoratingModel<M extends FsModel> extends FsModel {
         delegate.setMounted(touched);
     }
 
+    @Override
+    FsCacheLimits getCacheLimits() {
+        return delegate.getCacheLimits();
+    }
+
+    @Override
+    void changed(long written) {
+        delegate.changed(written);
+    }
+
+    @Override
+    public FsLockStatistics getLockStatistics() {
+        return delegate.getLockStatistics();
+    }
+
     /**
      * Returns a string representation of this object for debugging and logging
      * purposes.
@@ -10,13 +10,29 @@ import de.schlichtherle.truezip.util.Link.Type;
 import static de.schlichtherle.truezip.util.Link.Type.STRONG;
 import static de.schlichtherle.truezip.util.Link.Type.WEAK;
 import static de.schlichtherle.truezip.util.Links.getTarget;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.*;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.ReadLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 /**
  * The default implementation of a file system manager.
+ * <p>
+ * Looking up a file system controller doesn't acquire any lock.
+ * If there is no controller for a mount point yet, then a new controller
+ * gets created and published atomically, so that all threads get the same
+ * controller for the same mount point.
+ * Changing the mount status of a file system model only synchronizes on
+ * the model.
+ * <p>
+ * This manager keeps track of the controllers with a mounted file system
+ * model, so that {@link #sync} only visits these controllers instead of all
+ * managed controllers.
+ * <p>
+ * Optionally, a {@link FsSyncScheduler} can get attached to this manager in
+ * order to synchronize changed archive file systems in the background.
  *
  * @author Christian Schlichtherle
  */
@@ -26,25 +42,72 @@ public final class FsDefaultManager extends FsManager {
      * The map of all schedulers for composite file system controllers,
      * keyed by the mount point of their respective file system model.
      */
-    private final Map<FsMountPoint, Link<FsController<?>>> controllers
-            = new WeakHashMap<FsMountPoint, Link<FsController<?>>>();
+    private final ConcurrentMap<FsMountPoint, Link<FsController<?>>> controllers
+            = new ConcurrentHashMap<FsMountPoint, Link<FsController<?>>>();
 
-    private final Type optionalScheduleType;
+    /**
+     * The set of all controllers with a mounted file system model, ordered
+     * so that all file systems appear before any of their parent file
+     * systems.
+     */
+    private final Set<FsController<?>> mounted
+            = new ConcurrentSkipListSet<FsController<?>>(
+                ReverseControllerComparator.INSTANCE);
 
-    private final ReadLock readLock;
-    private final WriteLock writeLock;
+    /** The queue for the weak links which have been cleared. */
+    private final ReferenceQueue<FsController<?>> queue
+            = new ReferenceQueue<FsController<?>>();
+
+    private final Type optionalScheduleType;
+    private final FsCacheLimits cacheLimits;
+    private final FsSyncScheduler scheduler;
 
     public FsDefaultManager() {
-        this(WEAK);
+        this(WEAK, FsCacheLimits.UNLIMITED, null);
+    }
+
+    /**
+     * Constructs a new file system manager which applies the given limits
+     * to the selective entry cache of its archive file systems.
+     *
+     * @param cacheLimits the limits for the selective entry cache.
+     */
+    public FsDefaultManager(final FsCacheLimits cacheLimits) {
+        this(WEAK, cacheLimits, null);
+    }
+
+    /**
+     * Constructs a new file system manager which applies the given limits
+     * to the selective entry cache of its archive file systems and attaches
+     * the given scheduler in order to synchronize them in the background.
+     *
+     * @param  cacheLimits the limits for the selective entry cache.
+     * @param  scheduler the scheduler for background synchronization.
+     * @throws IllegalStateException if the scheduler is already attached to
+     *         another file system manager.
+     */
+    public FsDefaultManager(
+            final FsCacheLimits cacheLimits,
+            final FsSyncScheduler scheduler) {
+        this(WEAK, cacheLimits, scheduler);
+        if (null == scheduler) throw new NullPointerException();
     }
 
     /** Solely provided for unit testing. */
     FsDefaultManager(final Type optionalScheduleType) {
+        this(optionalScheduleType, FsCacheLimits.UNLIMITED, null);
+    }
+
+    private FsDefaultManager(
+            final Type optionalScheduleType,
+            final FsCacheLimits cacheLimits,
+            final FsSyncScheduler scheduler) {
         assert null != optionalScheduleType;
+        if (null == cacheLimits) throw new NullPointerException();
         this.optionalScheduleType = optionalScheduleType;
-        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
-        this.readLock = lock.readLock();
-        this.writeLock = lock.writeLock();
+        this.cacheLimits = cacheLimits;
+        this.scheduler = scheduler;
+        if (null != scheduler) scheduler.attach();
     }
 
     @Override
@@ -63,36 +126,36 @@ public final class FsDefaultManager extends FsManager {
     public FsController<?> getController(
             final FsMountPoint mp,
             final FsCompositeDriver d) {
-        try {
-            readLock.lock();
-            try {
-                return getController0(mp, d);
-            } finally {
-                readLock.unlock();
-            }
-        } catch (final FsNeedsWriteLockException ex) {
-            writeLock.lock();
-            try {
-                return getController0(mp, d);
-            } finally {
-                writeLock.unlock();
-            }
-        }
+        final FsController<?> c = getTarget(controllers.get(mp));
+        return null != c ? c : newController(mp, d);
     }
 
-    private FsController<?> getController0(
+    private FsController<?> newController(
             final FsMountPoint mp,
             final FsCompositeDriver d) {
-        FsController<?> c = getTarget(controllers.get(mp));
-        if (null != c) return c;
-        if (!writeLock.isHeldByCurrentThread())
-            throw FsNeedsWriteLockException.get();
+        expunge();
         final FsMountPoint pmp = mp.getParent();
-        final FsController<?> p = null == pmp ? null : getController0(pmp, d);
+        final FsController<?> p = null == pmp ? null : getController(pmp, d);
         final ManagedModel m = new ManagedModel(mp, null == p ? null : p.getModel());
-        c = d.newController(this, m, p);
+        final FsController<?> c = d.newController(this, m, p);
         m.init(c);
-        return c;
+        final Link<FsController<?>> link = m.newLink(false);
+        while (true) {
+            final Link<FsController<?>> old = controllers.putIfAbsent(mp, link);
+            if (null == old)
+                return c;
+            final FsController<?> oc = old.getTarget();
+            if (null != oc)
+                return oc; // another thread has won the race
+            if (controllers.replace(mp, old, link))
+                return c;
+        }
+    }
+
+    /** Removes the entries with cleared weak links from the map. */
+    private void expunge() {
+        for (WeakLink link; null != (link = (WeakLink) queue.poll()); )
+            controllers.remove(link.mountPoint, link);
     }
 
     /**
@@ -105,6 +168,7 @@ public final class FsDefaultManager extends FsManager {
      */
     private final class ManagedModel extends FsModel {
         FsController<?> controller;
+        FsSyncScheduler.Tracker tracker;
         volatile boolean mounted;
 
         ManagedModel(FsMountPoint mountPoint, FsModel parent) {
@@ -115,7 +179,8 @@ public final class FsDefaultManager extends FsManager {
             assert null != controller;
             assert !mounted;
             this.controller = controller;
-            schedule(false);
+            if (null != scheduler)
+                this.tracker = scheduler.newTracker(controller);
         }
 
         @Override
@@ -123,42 +188,90 @@ public final class FsDefaultManager extends FsManager {
             return mounted;
         }
 
+        @Override
+        FsCacheLimits getCacheLimits() {
+            return cacheLimits;
+        }
+
+        @Override
+        void changed(final long written) {
+            final FsSyncScheduler.Tracker tracker = this.tracker;
+            if (null != tracker)
+                tracker.changed(written);
+        }
+
         /**
          * Schedules the file system controller for synchronization according
          * to the given mount status.
          */
         @Override
-        public void setMounted(final boolean mounted) {
-            writeLock.lock();
-            try {
-                if (this.mounted != mounted) {
-                    if (mounted)
-                        FsSyncShutdownHook.register(FsDefaultManager.this);
-                    schedule(mounted);
-                    this.mounted = mounted;
+        public synchronized void setMounted(final boolean mounted) {
+            if (this.mounted != mounted) {
+                if (mounted) {
+                    FsSyncShutdownHook.register(FsDefaultManager.this);
+                    FsDefaultManager.this.mounted.add(controller);
+                } else {
+                    FsDefaultManager.this.mounted.remove(controller);
+                    if (null != tracker)
+                        tracker.reset();
                 }
-            } finally {
-                writeLock.unlock();
+                schedule(mounted);
+                this.mounted = mounted;
             }
         }
 
-        @SuppressWarnings("unchecked")
+        /**
+         * Replaces the link to the controller in the map.
+         * This is safe without further synchronization because the map entry
+         * for the mount point always refers to the controller of this model
+         * while the controller is reachable.
+         */
         void schedule(boolean mandatory) {
-            assert(writeLock.isHeldByCurrentThread());
+            assert Thread.holdsLock(this);
+            controllers.put(getMountPoint(), newLink(mandatory));
+        }
+
+        @SuppressWarnings("unchecked")
+        Link<FsController<?>> newLink(final boolean mandatory) {
             final Type type = mandatory ? STRONG : optionalScheduleType;
+            if (WEAK == type)
+                return new WeakLink(getMountPoint(), controller, queue);
             final Object link = type.newLink(controller);
-            controllers.put(getMountPoint(), (Link<FsController<?>>) link);
+            return (Link<FsController<?>>) link;
         }
     } // ManagedModel
 
+    /**
+     * A weak link which remembers the mount point of its controller so that
+     * its entry can get removed from the map once it has been cleared.
+     */
+    private static final class WeakLink
+    extends WeakReference<FsController<?>>
+    implements Link<FsController<?>> {
+        final FsMountPoint mountPoint;
+
+        WeakLink(   final FsMountPoint mountPoint,
+                    final FsController<?> controller,
+                    final ReferenceQueue<FsController<?>> queue) {
+            super(controller, queue);
+            this.mountPoint = mountPoint;
+        }
+
+        @Override
+        public FsController<?> getTarget() {
+            return get();
+        }
+    } // WeakLink
+
+    @Override
+    public FsCacheLimits getCacheLimits() {
+        return cacheLimits;
+    }
+
     @Override
     public int getSize() {
-        readLock.lock();
-        try {
-            return controllers.size();
-        } finally {
-            readLock.unlock();
-        }
+        expunge();
+        return controllers.size();
     }
 
     @Override
@@ -166,20 +279,21 @@ public final class FsDefaultManager extends FsManager {
         return sortedControllers().iterator();
     }
 
+    @Override
+    public Iterator<FsController<?>> mountedIterator() {
+        return new ArrayList<FsController<?>>(mounted).iterator();
+    }
+
     private Set<FsController<?>> sortedControllers() {
-        readLock.lock();
-        try {
-            final Set<FsController<?>> snapshot
-                    = new TreeSet<FsController<?>>(ReverseControllerComparator.INSTANCE);
-            for (final Link<FsController<? extends FsModel>> link : controllers.values()) {
-                final FsController<?> controller = getTarget(link);
-                if (null != controller)
-                    snapshot.add(controller);
-            }
-            return snapshot;
-        } finally {
-            readLock.unlock();
+        expunge();
+        final Set<FsController<?>> snapshot
+                = new TreeSet<FsController<?>>(ReverseControllerComparator.INSTANCE);
+        for (final Link<FsController<? extends FsModel>> link : controllers.values()) {
+            final FsController<?> controller = getTarget(link);
+            if (null != controller)
+                snapshot.add(controller);
         }
+        return snapshot;
     }
 
     @Override
@@ -96,7 +96,11 @@ extends FsDecoratingController<FsModel, FsController<?>> {
             return state.call(operation, name);
         } catch (final FsPersistentFalsePositiveArchiveException ex) {
             assert state instanceof TryChild;
-            return (this.state = new UseParent(ex)).call(operation, name);
+            final State useParent = this.state = new UseParent(ex);
+            // The persistent state must not get discarded until the next
+            // sync(), so make sure the file system manager visits us then.
+            getModel().setMounted(true);
+            return useParent.call(operation, name);
         } catch (final FsFalsePositiveArchiveException ex) {
             assert state instanceof TryChild;
             return new UseParent(ex).call(operation, name);
@@ -45,7 +45,12 @@ public final class FsFilteringManager extends FsDecoratingManager<FsManager> {
 
     @Override
     public Iterator<FsController<?>> iterator() {
-        return new FilteredControllerIterator();
+        return new FilteredControllerIterator(delegate.iterator());
+    }
+
+    @Override
+    public Iterator<FsController<?>> mountedIterator() {
+        return new FilteredControllerIterator(delegate.mountedIterator());
     }
 
     private final class FilteredControllerIterator
@@ -55,8 +60,8 @@ public final class FsFilteringManager extends FsDecoratingManager<FsManager> {
         final int ppl = pp.length();
         final boolean pps = SEPARATOR_CHAR == pp.charAt(ppl - 1);
 
-        FilteredControllerIterator() {
-            super(delegate.iterator());
+        FilteredControllerIterator(Iterator<FsController<?>> iterator) {
+            super(iterator);
         }
 
         @Override
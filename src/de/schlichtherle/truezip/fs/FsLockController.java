@@ -21,6 +21,8 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.locks.Lock;
@@ -29,6 +31,10 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
 /**
  * Provides read/write locking for multi-threaded access by its clients.
+ * <p>
+ * Each successful change of an entry gets reported to the file system model
+ * after the lock has been released, including the number of bytes written
+ * to entry output streams.
  *
  * @see    FsLockModel
  * @see    FsNeedsWriteLockException
@@ -132,6 +138,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             }
         } // SetReadOnly
         writeLocked(new SetReadOnly());
+        getModel().changed(0);
     }
 
     @Override
@@ -146,7 +153,9 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                 return delegate.setTime(name, times, options);
             }
         } // SetTime
-        return writeLocked(new SetTime());
+        final boolean ok = writeLocked(new SetTime());
+        getModel().changed(0);
+        return ok;
     }
 
     @Override
@@ -162,7 +171,9 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                 return delegate.setTime(name, types, value, options);
             }
         } // SetTime
-        return writeLocked(new SetTime());
+        final boolean ok = writeLocked(new SetTime());
+        getModel().changed(0);
+        return ok;
     }
 
     @Override
@@ -193,6 +204,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             }
         } // Mknod
         writeLocked(new Mknod());
+        getModel().changed(0);
     }
 
     @Override
@@ -208,6 +220,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             }
         } // Unlink
         writeLocked(new Unlink());
+        getModel().changed(0);
     }
 
     @Override
@@ -267,21 +280,31 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
      * <p>
      * If this is <em>not</em> the first execution of this method on the call
      * stack of the current thread, then the lock gets acquired using
-     * {@link Lock#tryLock()} instead.
-     * If this fails, an {@code FsNeedsLockRetryException} gets created and
-     * passed to the given exception handler for mapping before finally
-     * throwing the resulting exception by executing
-     * {@code throw handler.fail(new FsNeedsLockRetryException())}.
+     * {@link Lock#tryLock()} first.
+     * If this fails and all file systems which the current thread has already
+     * locked are (transitive) child file systems of the file system of this
+     * controller, then the lock gets acquired using {@link Lock#lock()}, so
+     * that the current thread waits in the queue of the lock.
+     * This is safe because all threads acquire their locks in this order,
+     * i.e. from a child file system to its parent file system.
+     * Otherwise, the current thread could dead lock with another thread
+     * which acquires the locks in the opposite order, so an
+     * {@code FsNeedsLockRetryException} gets thrown in order to unwind the
+     * stack and release all locks of the current thread.
      * Once the lock has been acquired the operation gets called.
      * If this fails for some reason then the exception chain gets just passed
      * on to the caller.
      * <p>
      * This algorithm prevents dead locks effectively by temporarily unwinding
-     * the stack and releasing all locks for a small random time interval.
+     * the stack and releasing all locks for a small random time interval
+     * whenever the lock order could get violated.
      * Note that this requires some minimal cooperation by the operation:
      * Whenever it throws an exception, it MUST leave its resources in a
      * consistent state so that it can get retried again!
      * Mind that this is standard requirement for any {@link FsController}.
+     * <p>
+     * The lock acquisitions, their waiting times and the retries get counted
+     * by the {@link FsLockStatistics} of the file system model.
      *
      * @param  <T> The return type of the operation.
      * @param  operation The atomic operation.
@@ -293,26 +316,22 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
     private <T> T locked(final Operation<T> operation, final Lock lock)
     throws IOException {
         final Account account = accounts.get();
-        if (0 < account.lockCount) {
-            if (!lock.tryLock()) throw FsNeedsLockRetryException.get();
-            account.lockCount++;
+        if (0 < account.getLockCount()) {
+            acquire(account, lock, true);
             try {
                 return operation.call();
             } finally {
-                account.lockCount--;
-                lock.unlock();
+                release(account, lock);
             }
         } else {
             try {
                 while (true) {
                     try {
-                        lock.lock();
-                        account.lockCount++;
+                        acquire(account, lock, false);
                         try {
                             return operation.call();
                         } finally {
-                            account.lockCount--;
-                            lock.unlock();
+                            release(account, lock);
                         }
                     } catch (FsNeedsLockRetryException ex) {
                         account.pause();
@@ -324,8 +343,31 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         }
     }
 
+    private void acquire(   final Account account,
+                            final Lock lock,
+                            final boolean nested) {
+        final FsLockModel model = getModel();
+        final FsLockStatistics statistics = model.getLockStatistics();
+        if (!lock.tryLock()) {
+            if (nested && !account.mayWaitFor(model)) {
+                statistics.retried();
+                throw FsNeedsLockRetryException.get();
+            }
+            final long start = System.nanoTime();
+            lock.lock();
+            statistics.waited(System.nanoTime() - start);
+        }
+        statistics.acquired();
+        account.locked.add(model);
+    }
+
+    private static void release(final Account account, final Lock lock) {
+        account.locked.remove(account.locked.size() - 1);
+        lock.unlock();
+    }
+
     static int getLockCount() {
-        return accounts.get().lockCount;
+        return accounts.get().getLockCount();
     }
 
     private enum SocketFactory {
@@ -375,7 +417,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                     return getBoundSocket().getLocalTarget();
                 }
             } // GetLocalTarget
-            return writeLocked(new GetLocalTarget());
+            return readOrWriteLocked(new GetLocalTarget());
         }
 
         @Override
@@ -387,7 +429,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                             getBoundSocket().newReadOnlyFile());
                 }
             } // NewReadOnlyFile
-            return writeLocked(new NewReadOnlyFile());
+            return readOrWriteLocked(new NewReadOnlyFile());
         }
 
         @Override
@@ -399,7 +441,7 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
                             getBoundSocket().newInputStream());
                 }
             } // NewInputStream
-            return writeLocked(new NewInputStream());
+            return readOrWriteLocked(new NewInputStream());
         }
     } // Input
 
@@ -465,6 +507,18 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
             super(out);
         }
 
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            getModel().changed(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            getModel().changed(len);
+        }
+
         @Override
         public void close() throws IOException {
             FsLockController.this.close(delegate);
@@ -483,11 +537,36 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
     }
 
     private static final class Account {
-        int lockCount;
+        /** The models of the locks held by the current thread. */
+        final List<FsLockModel> locked = new ArrayList<FsLockModel>(4);
         final Random rnd;
 
         Account(Random rnd) { this.rnd = rnd; }
 
+        int getLockCount() {
+            return locked.size();
+        }
+
+        /**
+         * Returns {@code true} if and only if the current thread may wait for
+         * the lock of the given model without risking a dead lock.
+         * This is the case if and only if all locks which are held by the
+         * current thread belong to (transitive) child file systems of the
+         * given model.
+         * Note that this excludes upgrading a read lock to a write lock.
+         */
+        boolean mayWaitFor(final FsLockModel model) {
+            final FsMountPoint target = model.getMountPoint();
+            for (final FsLockModel held : locked) {
+                FsMountPoint mp = held.getMountPoint().getParent();
+                while (null != mp && !mp.equals(target))
+                    mp = mp.getParent();
+                if (null == mp)
+                    return false;
+            }
+            return true;
+        }
+
         /**
          * Delays the current thread for a random time interval between one and
          * {@link #WAIT_TIMEOUT_MILLIS} milliseconds inclusively.
@@ -10,13 +10,23 @@ import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
 /**
  * A file system model which supports multiple concurrent reader threads.
+ * <p>
+ * If the system property
+ * {@code de.schlichtherle.truezip.fs.fairLocks} is set to
+ * {@code true}, then the read/write lock uses a fair ordering policy, so that
+ * the thread which has been waiting longest in the queue of the lock acquires
+ * it next.
  *
  * @see    FsLockController
  * @author Christian Schlichtherle
  */
 final class FsLockModel extends FsDecoratingModel<FsModel> {
 
-    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private static final boolean FAIR = Boolean.getBoolean(
+            FsLockModel.class.getPackage().getName() + ".fairLocks");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(FAIR);
+    private final FsLockStatistics statistics = new FsLockStatistics();
 
     FsLockModel(FsModel model) { super(model); }
 
@@ -37,6 +47,11 @@ final class FsLockModel extends FsDecoratingModel<FsModel> {
 
     WriteLock writeLock() { return lock.writeLock(); }
 
+    @Override
+    public FsLockStatistics getLockStatistics() {
+        return statistics;
+    }
+
     /**
      * Returns {@code true} if and only if the write lock is held by the
      * current thread.
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the acquisitions of the read/write lock of an archive file system,
+ * the acquisitions which had to wait in the queue of the lock, the waiting
+ * time of these acquisitions and the retries which were required in order to
+ * resolve a lock ordering conflict with another archive file system.
+ * <p>
+ * The waiting times get recorded in a histogram with
+ * {@link #BUCKETS} buckets of exponentially increasing size:
+ * The bucket with the index zero counts the waits which took less than one
+ * microsecond and the bucket with the index <i>i</i> &gt; 0 counts the waits
+ * which took at least 2<sup><i>i</i>-1</sup> and less than
+ * 2<sup><i>i</i></sup> microseconds.
+ * The last bucket also counts all longer waits.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    FsModel#getLockStatistics()
+ * @author Christian Schlichtherle
+ */
+public final class FsLockStatistics {
+
+    /** The number of buckets in the histogram of the waiting times. */
+    public static final int BUCKETS = 32;
+
+    private final AtomicLong
+            acquisitions = new AtomicLong(),
+            waits = new AtomicLong(),
+            waitNanos = new AtomicLong(),
+            retries = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    FsLockStatistics() { }
+
+    /**
+     * Returns the number of lock acquisitions.
+     *
+     * @return The number of lock acquisitions.
+     */
+    public long getAcquisitions() {
+        return acquisitions.get();
+    }
+
+    /**
+     * Returns the number of lock acquisitions which had to wait in the queue
+     * of the lock.
+     *
+     * @return The number of lock acquisitions which had to wait in the queue
+     *         of the lock.
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * Returns the total time in nanoseconds which lock acquisitions have
+     * spent waiting in the queue of the lock.
+     *
+     * @return The total time in nanoseconds which lock acquisitions have
+     *         spent waiting in the queue of the lock.
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * Returns the number of lock acquisitions which have failed because of a
+     * lock ordering conflict, so that the current thread had to release all
+     * its locks and retry.
+     *
+     * @return The number of lock acquisitions which have failed because of a
+     *         lock ordering conflict.
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * Returns a copy of the histogram of the waiting times.
+     *
+     * @return A new array of length {@link #BUCKETS} with the number of waits
+     *         in each bucket.
+     */
+    public long[] getWaitHistogram() {
+        final long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = histogram.get(i);
+        return copy;
+    }
+
+    void acquired() {
+        acquisitions.incrementAndGet();
+    }
+
+    void waited(final long nanos) {
+        waits.incrementAndGet();
+        waitNanos.addAndGet(nanos);
+        final long micros = nanos / 1000;
+        final int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    void retried() {
+        retries.incrementAndGet();
+    }
+
+    /**
+     * Returns a string representation of this object for debugging and logging
+     * purposes.
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[acquisitions=%d, waits=%d, waitNanos=%d, retries=%d, waitHistogram=%s]",
+                getClass().getName(),
+                getAcquisitions(),
+                getWaits(),
+                getWaitNanos(),
+                getRetries(),
+                Arrays.toString(getWaitHistogram()));
+    }
+}
@@ -5,8 +5,16 @@
 package de.schlichtherle.truezip.fs;
 
 import static de.schlichtherle.truezip.fs.FsSyncOption.ABORT_CHANGES;
+import static de.schlichtherle.truezip.fs.FsSyncOption.PARALLEL;
 import de.schlichtherle.truezip.util.BitField;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * A container which creates {@linkplain FsController} file system controllers
@@ -62,6 +70,20 @@ public abstract class FsManager implements Iterable<FsController<?>> {
     // TODO: Rename this to size().
     public abstract int getSize();
 
+    /**
+     * Returns the limits for the selective entry cache of the archive file
+     * systems managed by this manager.
+     * <p>
+     * The implementation in the class {@link FsManager} returns
+     * {@link FsCacheLimits#UNLIMITED}.
+     *
+     * @return The limits for the selective entry cache of the archive file
+     *         systems managed by this manager.
+     */
+    public FsCacheLimits getCacheLimits() {
+        return FsCacheLimits.UNLIMITED;
+    }
+
     /**
      * Returns an ordered iterator for the managed file system controllers.
      * The iterated file system controllers are ordered so that all file
@@ -74,14 +96,43 @@ public abstract class FsManager implements Iterable<FsController<?>> {
     @Override
     public abstract Iterator<FsController<?>> iterator();
 
+    /**
+     * Returns an ordered iterator for the managed file system controllers
+     * which need to get {@link #sync synchronized}, that is the controllers
+     * with a {@link FsModel#isMounted() mounted} file system model.
+     * The iterated file system controllers are ordered so that all file
+     * systems appear before any of their parent file systems.
+     * The iterator may include controllers which don't need to get
+     * synchronized, but it must not exclude any controller which needs to
+     * get synchronized.
+     * <p>
+     * The implementation in the class {@link FsManager} returns
+     * {@link #iterator()}.
+     *
+     * @return An ordered iterator for the managed file system controllers
+     *         which need to get synchronized.
+     */
+    public Iterator<FsController<?>> mountedIterator() {
+        return iterator();
+    }
+
     /**
      * Calls {@link FsController#sync(BitField)} on all managed file system
-     * controllers.
+     * controllers which need to get synchronized according to
+     * {@link #mountedIterator()}.
      * If sync()ing a file system controller fails with an
      * {@link FsSyncException}, then the exception gets remembered and the loop
      * continues with sync()ing the remaining file system controllers.
      * After the loop, the exception(s) get processed for (re)throwing based
      * on their type and order of appearance.
+     * <p>
+     * If the option {@link FsSyncOption#PARALLEL} is set, then the
+     * controllers get grouped by the independent trees of file systems which
+     * are formed by their {@link FsMountPoint#getParent() parent mount
+     * points} and these groups get synchronized concurrently by a bounded
+     * pool of threads.
+     * Within each group, the controllers get synchronized in order, so that
+     * all file systems get synchronized before their parent file systems.
      *
      * @param  options the options for synchronizing the file system.
      * @throws FsSyncWarningException if <em>only</em> warning conditions
@@ -98,16 +149,142 @@ public abstract class FsManager implements Iterable<FsController<?>> {
     throws FsSyncWarningException, FsSyncException {
         if (options.get(ABORT_CHANGES)) throw new IllegalArgumentException();
         final FsSyncExceptionBuilder builder = new FsSyncExceptionBuilder();
-        for (final FsController<?> controller : this) {
-            try {
-                controller.sync(options);
-            } catch (final FsSyncException ex) {
-                builder.warn(ex);
+        if (options.get(PARALLEL)) {
+            syncParallel(options.clear(PARALLEL), builder);
+        } else {
+            for (   final Iterator<FsController<?>> i = mountedIterator();
+                    i.hasNext(); ) {
+                final FsController<?> controller = i.next();
+                try {
+                    controller.sync(options);
+                } catch (final FsSyncException ex) {
+                    builder.warn(ex);
+                }
             }
         }
         builder.check();
     }
 
+    private void syncParallel(
+            final BitField<FsSyncOption> options,
+            final FsSyncExceptionBuilder builder) {
+        final List<FsController<?>> controllers
+                = new ArrayList<FsController<?>>();
+        for (   final Iterator<FsController<?>> i = mountedIterator();
+                i.hasNext(); )
+            controllers.add(i.next());
+        final int size = controllers.size();
+
+        // Assign each controller to the group of its closest ancestor.
+        // Parents appear after their members, so iterate backwards.
+        final int[] groupOf = new int[size];
+        final Map<FsMountPoint, Integer> groups
+                = new HashMap<FsMountPoint, Integer>();
+        int count = 0;
+        for (int i = size; 0 <= --i; ) {
+            final FsMountPoint mp = controllers.get(i).getModel().getMountPoint();
+            Integer group = null;
+            FsMountPoint pmp = mp.getParent();
+            while (null != pmp && null == (group = groups.get(pmp)))
+                pmp = pmp.getParent();
+            if (null == group)
+                group = count++;
+            groups.put(mp, group);
+            groupOf[i] = group;
+        }
+        final List<List<Integer>> members = new ArrayList<List<Integer>>(count);
+        for (int group = 0; group < count; group++)
+            members.add(new ArrayList<Integer>());
+        for (int i = 0; i < size; i++)
+            members.get(groupOf[i]).add(i);
+
+        final FsSyncException[] exceptions = new FsSyncException[size];
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+        for (final List<Integer> indices : members) {
+            final class Sync implements Callable<Void> {
+                @Override
+                public Void call() {
+                    for (final int i : indices) {
+                        try {
+                            controllers.get(i).sync(options);
+                        } catch (final FsSyncException ex) {
+                            exceptions[i] = ex;
+                        }
+                    }
+                    return null;
+                }
+            } // Sync
+            tasks.add(new Sync());
+        }
+
+        if (1 >= count || 1 >= FsSyncThreads.MAX_THREADS) {
+            for (final Callable<Void> task : tasks)
+                call(task);
+        } else {
+            final List<Future<Void>> results
+                    = new ArrayList<Future<Void>>(count);
+            for (final Callable<Void> task : tasks)
+                results.add(FsSyncThreads.executor().submit(task));
+            // Wait for all tasks before passing on the first unchecked
+            // exception.
+            Throwable unchecked = null;
+            for (final Future<Void> result : results) {
+                try {
+                    get(result);
+                } catch (final RuntimeException ex) {
+                    if (null == unchecked)
+                        unchecked = ex;
+                } catch (final Error ex) {
+                    if (null == unchecked)
+                        unchecked = ex;
+                }
+            }
+            if (unchecked instanceof RuntimeException)
+                throw (RuntimeException) unchecked;
+            if (unchecked instanceof Error)
+                throw (Error) unchecked;
+        }
+
+        for (final FsSyncException ex : exceptions)
+            if (null != ex)
+                builder.warn(ex);
+    }
+
+    private static void call(final Callable<Void> task) {
+        try {
+            task.call();
+        } catch (final RuntimeException ex) {
+            throw ex;
+        } catch (final Exception ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /** Uninterruptibly waits for the given result. */
+    private static void get(final Future<Void> result) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    result.get();
+                    return;
+                } catch (final ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new AssertionError(cause);
+                } catch (final InterruptedException interrupt) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt(); // restore
+        }
+    }
+
     /**
      * Two file system managers are considered equal if and only if they are
      * identical. This can't get overriden.
@@ -105,6 +105,37 @@ public abstract class FsModel {
         return super.hashCode();
     }
 
+    /**
+     * Returns the limits for the selective entry cache of this file system.
+     * This gets overridden by the models of file system managers.
+     */
+    FsCacheLimits getCacheLimits() {
+        return FsCacheLimits.UNLIMITED;
+    }
+
+    /**
+     * Notifies this model that an entry of this file system has been changed.
+     * This gets overridden by the models of file system managers.
+     *
+     * @param written the number of bytes written to an entry output stream
+     *        or zero if the change didn't write any bytes.
+     */
+    void changed(long written) {
+    }
+
+    /**
+     * Returns the statistics for the read/write lock of this file system or
+     * {@code null} if this file system model doesn't provide a lock.
+     * <p>
+     * The implementation in the class {@link FsModel} returns {@code null}.
+     *
+     * @return The statistics for the read/write lock of this file system or
+     *         {@code null}.
+     */
+    public FsLockStatistics getLockStatistics() {
+        return null;
+    }
+
     /**
      * Returns a string representation of this object for debugging and logging
      * purposes.
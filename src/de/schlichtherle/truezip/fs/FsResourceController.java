@@ -102,6 +102,11 @@ extends FsLockModelDecoratingController<FsController<? extends FsLockModel>> {
         builder.check();
     }
 
+    @Override
+    int getOpenResources() {
+        return accountant.resources().total;
+    }
+
     private static boolean waitCloseIo(final BitField<FsSyncOption> options) {
         return options.get(WAIT_CLOSE_INPUT)
                 || options.get(WAIT_CLOSE_OUTPUT);
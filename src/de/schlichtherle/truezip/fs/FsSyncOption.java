@@ -97,4 +97,22 @@ public enum FsSyncOption {
      * @see <a href="http://java.net/jira/browse/TRUEZIP-269">#TRUEZIP-269</a>
      */
     CLEAR_CACHE,
+
+    /**
+     * If this option is set, then a file system manager may synchronize
+     * independent file systems concurrently.
+     * Two file systems are independent if neither of them is a (transitive)
+     * member of the other, e.g. two archive files in different directories.
+     * Member file systems still get synchronized before their parent file
+     * systems and any exceptions get aggregated in the same order as if the
+     * file systems had been synchronized sequentially.
+     * <p>
+     * This option is ignored by file system controllers.
+     * The maximum number of threads is given by the system property
+     * {@code de.schlichtherle.truezip.fs.syncThreads} and defaults to the
+     * number of available processors.
+     *
+     * @see FsManager#sync(BitField)
+     */
+    PARALLEL,
 }
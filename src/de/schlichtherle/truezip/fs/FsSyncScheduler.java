@@ -0,0 +1,455 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs;
+
+import de.schlichtherle.truezip.util.ExceptionHandler;
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Synchronizes the changed archive file systems of a {@link FsDefaultManager}
+ * in the background, so that their changes get written to their parent file
+ * systems without an explicit call to {@link FsManager#sync}.
+ * <p>
+ * An archive file system gets synchronized once any of the following
+ * conditions applies to its changes since its last synchronization:
+ * <ul>
+ * <li>The first change is at least {@link #getMaxDirtyMillis()} milliseconds
+ *     old.
+ * <li>The changes have written at least {@link #getMaxDirtyBytes()} bytes to
+ *     entry output streams.
+ * <li>The last change is at least {@link #getMaxIdleMillis()} milliseconds
+ *     old.
+ * </ul>
+ * Each condition can get disabled by setting its limit to
+ * {@link Long#MAX_VALUE}.
+ * However, in order to limit the rate of synchronizations, an archive file
+ * system never gets synchronized by this scheduler again before
+ * {@link #getMinIntervalMillis()} milliseconds have elapsed since its last
+ * synchronization by this scheduler.
+ * All synchronizations get done one after another by a single daemon thread,
+ * where nested archive file systems get synchronized before their parent file
+ * systems.
+ * <p>
+ * The scheduler does not wait for the I/O of any other thread:
+ * If any entry stream of an archive file system is still open, then its
+ * synchronization gets deferred until a later check without acquiring the
+ * lock of the file system.
+ * Only if an entry stream gets opened after this check, but before the lock
+ * has been acquired, the synchronization may wait briefly for it to get
+ * closed before it gets deferred.
+ * Any other {@link FsSyncException} gets passed to the
+ * {@link ExceptionHandler#warn} method of the exception handler which has
+ * been provided to the constructor and the changes get retried later.
+ * <p>
+ * A scheduler can get used by only one file system manager.
+ * This class is thread-safe.
+ *
+ * @see    FsDefaultManager#FsDefaultManager(FsCacheLimits, FsSyncScheduler)
+ * @author Christian Schlichtherle
+ */
+public final class FsSyncScheduler {
+
+    private static final Logger logger
+            = Logger.getLogger(FsSyncScheduler.class.getName());
+
+    private static final long MIN_PERIOD_MILLIS = 10;
+    private static final long MAX_PERIOD_MILLIS = 1000;
+
+    private final long maxDirtyMillis, maxDirtyBytes, maxIdleMillis,
+            minIntervalMillis;
+    private final ExceptionHandler<? super FsSyncException, ? extends RuntimeException>
+            handler;
+
+    private final Set<Tracker> dirty = Collections.newSetFromMap(
+            new ConcurrentHashMap<Tracker, Boolean>());
+    private final AtomicBoolean attached = new AtomicBoolean();
+    private final AtomicBoolean pending = new AtomicBoolean();
+    private final AtomicLong
+            syncs = new AtomicLong(),
+            deferrals = new AtomicLong(),
+            failures = new AtomicLong();
+    private volatile ScheduledExecutorService executor;
+
+    /**
+     * Constructs a new sync scheduler which logs any failed synchronization.
+     *
+     * @param maxDirtyMillis the maximum age of the first change in
+     *        milliseconds.
+     * @param maxDirtyBytes the maximum number of bytes written by the changes.
+     * @param maxIdleMillis the maximum age of the last change in milliseconds.
+     * @param minIntervalMillis the minimum time between two synchronizations
+     *        of the same archive file system in milliseconds.
+     */
+    public FsSyncScheduler(
+            long maxDirtyMillis,
+            long maxDirtyBytes,
+            long maxIdleMillis,
+            long minIntervalMillis) {
+        this(   maxDirtyMillis, maxDirtyBytes, maxIdleMillis, minIntervalMillis,
+                LoggingHandler.INSTANCE);
+    }
+
+    /**
+     * Constructs a new sync scheduler.
+     *
+     * @param maxDirtyMillis the maximum age of the first change in
+     *        milliseconds.
+     * @param maxDirtyBytes the maximum number of bytes written by the changes.
+     * @param maxIdleMillis the maximum age of the last change in milliseconds.
+     * @param minIntervalMillis the minimum time between two synchronizations
+     *        of the same archive file system in milliseconds.
+     * @param handler the exception handler for any failed synchronization.
+     *        Its {@link ExceptionHandler#warn} method gets called from the
+     *        thread of this scheduler.
+     */
+    public FsSyncScheduler(
+            final long maxDirtyMillis,
+            final long maxDirtyBytes,
+            final long maxIdleMillis,
+            final long minIntervalMillis,
+            final ExceptionHandler<? super FsSyncException, ? extends RuntimeException> handler) {
+        if (0 > maxDirtyMillis || 0 > maxDirtyBytes || 0 > maxIdleMillis
+                || 0 > minIntervalMillis)
+            throw new IllegalArgumentException();
+        if (null == handler)
+            throw new NullPointerException();
+        this.maxDirtyMillis = maxDirtyMillis;
+        this.maxDirtyBytes = maxDirtyBytes;
+        this.maxIdleMillis = maxIdleMillis;
+        this.minIntervalMillis = minIntervalMillis;
+        this.handler = handler;
+    }
+
+    /**
+     * Returns the maximum age of the first change in milliseconds.
+     *
+     * @return The maximum age of the first change in milliseconds.
+     */
+    public long getMaxDirtyMillis() {
+        return maxDirtyMillis;
+    }
+
+    /**
+     * Returns the maximum number of bytes written by the changes.
+     *
+     * @return The maximum number of bytes written by the changes.
+     */
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    /**
+     * Returns the maximum age of the last change in milliseconds.
+     *
+     * @return The maximum age of the last change in milliseconds.
+     */
+    public long getMaxIdleMillis() {
+        return maxIdleMillis;
+    }
+
+    /**
+     * Returns the minimum time between two synchronizations of the same
+     * archive file system in milliseconds.
+     *
+     * @return The minimum time between two synchronizations of the same
+     *         archive file system in milliseconds.
+     */
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * Returns the number of synchronizations which have succeeded, possibly
+     * with warnings.
+     *
+     * @return The number of synchronizations which have succeeded.
+     */
+    public long getSyncs() {
+        return syncs.get();
+    }
+
+    /**
+     * Returns the number of synchronizations which have been deferred because
+     * an entry stream was still open.
+     *
+     * @return The number of synchronizations which have been deferred.
+     */
+    public long getDeferrals() {
+        return deferrals.get();
+    }
+
+    /**
+     * Returns the number of synchronizations which have failed.
+     *
+     * @return The number of synchronizations which have failed.
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * Starts the thread of this scheduler.
+     *
+     * @throws IllegalStateException if this scheduler is already used by
+     *         another file system manager.
+     */
+    void attach() {
+        if (!attached.compareAndSet(false, true))
+            throw new IllegalStateException("This scheduler is already used by another file system manager.");
+        final long millis = Math.min(maxDirtyMillis,
+                Math.min(maxIdleMillis, minIntervalMillis)) / 2;
+        final long period = Math.max(MIN_PERIOD_MILLIS,
+                Math.min(MAX_PERIOD_MILLIS, millis));
+        final ScheduledExecutorService executor
+                = new ScheduledThreadPoolExecutor(1, new SchedulerThreadFactory());
+        executor.scheduleWithFixedDelay(new Check(false),
+                period, period, TimeUnit.MILLISECONDS);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a new tracker for the changes of the file system of the given
+     * controller.
+     */
+    Tracker newTracker(FsController<?> controller) {
+        return new Tracker(controller);
+    }
+
+    private void wakeUp() {
+        if (pending.compareAndSet(false, true))
+            executor.execute(new Check(true));
+    }
+
+    /**
+     * Synchronizes all archive file systems which are due, nested archive
+     * file systems first.
+     */
+    private void check() {
+        final long now = System.nanoTime();
+        final List<Tracker> due = new ArrayList<Tracker>();
+        for (final Tracker tracker : dirty)
+            if (tracker.isDue(now))
+                due.add(tracker);
+        Collections.sort(due, ReverseTrackerComparator.INSTANCE);
+        for (final Tracker tracker : due)
+            tracker.sync();
+    }
+
+    /**
+     * Returns a string representation of this object for debugging and logging
+     * purposes.
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%s[maxDirtyMillis=%d, maxDirtyBytes=%d, maxIdleMillis=%d, minIntervalMillis=%d, syncs=%d, deferrals=%d, failures=%d]",
+                getClass().getName(),
+                getMaxDirtyMillis(),
+                getMaxDirtyBytes(),
+                getMaxIdleMillis(),
+                getMinIntervalMillis(),
+                getSyncs(),
+                getDeferrals(),
+                getFailures());
+    }
+
+    /**
+     * Tracks the changes of an archive file system since its last
+     * synchronization.
+     */
+    final class Tracker {
+        final FsController<?> controller;
+        final AtomicLong bytes = new AtomicLong();
+        volatile boolean changed, synced;
+        volatile long first, last, lastSync;
+
+        Tracker(final FsController<?> controller) {
+            assert null != controller;
+            this.controller = controller;
+        }
+
+        /**
+         * Records a change of the file system.
+         *
+         * @param written the number of bytes written to an entry output
+         *        stream or zero if the change didn't write any bytes.
+         */
+        void changed(final long written) {
+            final long now = System.nanoTime();
+            if (!changed) {
+                synchronized (this) {
+                    if (!changed) {
+                        first = now;
+                        changed = true;
+                        dirty.add(this);
+                    }
+                }
+            }
+            last = now;
+            if (0 < written) {
+                final long total = bytes.addAndGet(written);
+                if (total >= maxDirtyBytes && total - written < maxDirtyBytes)
+                    wakeUp();
+            }
+        }
+
+        /**
+         * Forgets all changes because the file system has been synchronized
+         * by some other thread.
+         */
+        synchronized void reset() {
+            changed = false;
+            bytes.set(0);
+            dirty.remove(this);
+        }
+
+        boolean isDue(final long now) {
+            return changed
+                    && (!synced
+                        || now - lastSync >= millisToNanos(minIntervalMillis))
+                    && (now - first >= millisToNanos(maxDirtyMillis)
+                        || bytes.get() >= maxDirtyBytes
+                        || now - last >= millisToNanos(maxIdleMillis));
+        }
+
+        void sync() {
+            final long first, written;
+            synchronized (this) {
+                if (!changed)
+                    return;
+                first = this.first;
+                written = bytes.getAndSet(0);
+                changed = false;
+                dirty.remove(this);
+            }
+            if (0 != controller.getOpenResources()) {
+                deferrals.incrementAndGet();
+                restore(first, written);
+                return;
+            }
+            boolean ok = false;
+            try {
+                try {
+                    controller.sync(FsSyncOptions.NONE);
+                    ok = true;
+                } catch (final FsSyncWarningException ex) {
+                    ok = true;
+                    handler.warn(ex);
+                }
+            } catch (final FsSyncException ex) {
+                if (ex.getCause() instanceof FsResourceOpenException) {
+                    deferrals.incrementAndGet();
+                } else {
+                    failures.incrementAndGet();
+                    handler.warn(ex);
+                }
+            } finally {
+                lastSync = System.nanoTime();
+                synced = true;
+                if (ok)
+                    syncs.incrementAndGet();
+                else
+                    restore(first, written);
+            }
+        }
+
+        /** Restores the changes which have failed to get synchronized. */
+        private void restore(final long first, final long written) {
+            synchronized (this) {
+                if (!changed || first - this.first < 0)
+                    this.first = first;
+                changed = true;
+                dirty.add(this);
+            }
+            bytes.addAndGet(written);
+        }
+    } // Tracker
+
+    private static long millisToNanos(final long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private final class Check implements Runnable {
+        final boolean wakeUp;
+
+        Check(final boolean wakeUp) {
+            this.wakeUp = wakeUp;
+        }
+
+        @Override
+        public void run() {
+            if (wakeUp)
+                pending.set(false);
+            try {
+                check();
+            } catch (final RuntimeException ex) {
+                // Don't let the periodic task get cancelled.
+                logger.log(Level.SEVERE, "Failed to synchronize archive file systems in the background:", ex);
+            }
+        }
+    } // Check
+
+    /**
+     * Orders trackers so that all file systems appear before any of their
+     * parent file systems.
+     */
+    private static final class ReverseTrackerComparator
+    implements Comparator<Tracker> {
+        static final ReverseTrackerComparator INSTANCE
+                = new ReverseTrackerComparator();
+
+        @Override
+        public int compare(Tracker o1, Tracker o2) {
+            return o2.controller.getModel().getMountPoint().toHierarchicalUri()
+                    .compareTo(o1.controller.getModel().getMountPoint().toHierarchicalUri());
+        }
+    } // ReverseTrackerComparator
+
+    /** Logs any failed synchronization. */
+    private static final class LoggingHandler
+    implements ExceptionHandler<FsSyncException, RuntimeException> {
+        static final LoggingHandler INSTANCE = new LoggingHandler();
+
+        @Override
+        public RuntimeException fail(FsSyncException ex) {
+            throw new AssertionError(ex);
+        }
+
+        @Override
+        public void warn(FsSyncException ex) {
+            logger.log(Level.WARNING, "Failed to synchronize an archive file system in the background:", ex);
+        }
+    } // LoggingHandler
+
+    private static final class SchedulerThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new SchedulerThread(r);
+        }
+    } // SchedulerThreadFactory
+
+    /** The daemon thread which synchronizes file systems in the background. */
+    private static final class SchedulerThread extends Thread {
+        SchedulerThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    SchedulerThread.class.getName());
+            setDaemon(true);
+        }
+    } // SchedulerThread
+}
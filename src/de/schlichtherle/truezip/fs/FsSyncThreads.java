@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs;
+
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides a shared and bounded pool of daemon threads for synchronizing
+ * independent file systems concurrently.
+ * <p>
+ * The maximum number of threads is given by the system property
+ * {@code de.schlichtherle.truezip.fs.syncThreads} and defaults to the number
+ * of available processors.
+ * Idle threads get terminated after some seconds.
+ *
+ * @see    FsSyncOption#PARALLEL
+ * @author Christian Schlichtherle
+ */
+final class FsSyncThreads {
+
+    /** The maximum number of pooled threads. */
+    static final int MAX_THREADS = Math.max(1, Integer.getInteger(
+            FsSyncThreads.class.getPackage().getName() + ".syncThreads",
+            Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService executor;
+    static {
+        final ThreadPoolExecutor tpe = new ThreadPoolExecutor(
+                MAX_THREADS, MAX_THREADS,
+                5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new SyncThreadFactory());
+        tpe.allowCoreThreadTimeOut(true);
+        executor = tpe;
+    }
+
+    /* Can't touch this - hammer time! */
+    private FsSyncThreads() { }
+
+    /** Returns the executor service for the pooled threads. */
+    static ExecutorService executor() {
+        return executor;
+    }
+
+    private static final class SyncThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new SyncThread(r);
+        }
+    } // SyncThreadFactory
+
+    /** A pooled daemon thread which synchronizes file systems. */
+    private static final class SyncThread extends Thread {
+        SyncThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    SyncThread.class.getName());
+            setDaemon(true);
+        }
+    } // SyncThread
+}
@@ -34,6 +34,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Manages I/O to the entry which represents the target archive file in its
@@ -186,10 +188,9 @@ implements FsArchiveFileSystem.TouchListener {
                 // could be a FileController and on Windows this property changes
                 // to TRUE once a file is opened for reading!
                 final boolean ro = !parent.isWritable(name);
-                final InputSocket<?> is = driver.getInputSocket(
-                        parent, name, MOUNT_INPUT_OPTIONS);
+                final InputShop<E> is = newInputShop();
                 final InputArchive<E> ia = new InputArchive<E>(
-                        driver.newInputShop(getModel(), is));
+                        is, driver.getConcurrentInputSupport(is));
                 // TODO: Remove try-catch
                 try {
                     fs = newPopulatedFileSystem(driver, ia.getArchive(), pe, ro);
@@ -222,6 +223,30 @@ implements FsArchiveFileSystem.TouchListener {
         setFileSystem(fs);
     }
 
+    /**
+     * Returns a new input shop for reading the target archive file.
+     * The target archive file gets read with {@link FsInputOption#CACHE}
+     * unless the driver
+     * {@link FsArchiveDriver#getDirectMountSupport() supports direct mounting}.
+     * In this case, the target archive file gets read directly from the
+     * parent file system first.
+     * If the parent file system throws an
+     * {@link UnsupportedOperationException} then, the target archive file
+     * gets read with {@link FsInputOption#CACHE}, too.
+     */
+    private InputShop<E> newInputShop() throws IOException {
+        if (!driver.getDirectMountSupport())
+            return driver.newInputShop(getModel(),
+                    driver.getInputSocket(parent, name, MOUNT_INPUT_OPTIONS));
+        try {
+            return driver.newInputShop(getModel(),
+                    driver.getInputSocket(parent, name, FsInputOptions.NONE));
+        } catch (final UnsupportedOperationException noRandomAccess) {
+            return driver.newInputShop(getModel(),
+                    driver.getInputSocket(parent, name, MOUNT_INPUT_OPTIONS));
+        }
+    }
+
     /**
      * Ensures that {@link #getOutputArchive} does not return {@code null}.
      * This method will use
@@ -560,13 +585,76 @@ implements FsArchiveFileSystem.TouchListener {
         }
     } // DummyInputService
 
+    /**
+     * Synchronizes the access to the input shop of the archive driver.
+     * If the input shop supports concurrent input, then only opening the
+     * streams and read only files of its entries gets synchronized, but not
+     * reading them.
+     *
+     * @see FsArchiveDriver#getConcurrentInputSupport
+     */
     private static final class InputArchive<E extends FsArchiveEntry>
     extends LockInputShop<E> {
         final InputShop<E> archive;
+        final Lock lock;
+        final boolean concurrent;
+
+        InputArchive(final InputShop<E> input, final boolean concurrent) {
+            this(input, new ReentrantLock(), concurrent);
+        }
 
-        InputArchive(final InputShop<E> input) {
-            super(new DisconnectingInputShop<E>(input));
+        private InputArchive(
+                final InputShop<E> input,
+                final Lock lock,
+                final boolean concurrent) {
+            super(new DisconnectingInputShop<E>(input), lock);
             this.archive = input;
+            this.lock = lock;
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public InputSocket<? extends E> getInputSocket(final String name) {
+            if (!concurrent)
+                return super.getInputSocket(name);
+
+            class Input extends DecoratingInputSocket<E> {
+                Input() {
+                    super(delegate.getInputSocket(name));
+                }
+
+                @Override
+                public E getLocalTarget() throws IOException {
+                    lock.lock();
+                    try {
+                        return getBoundSocket().getLocalTarget();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public ReadOnlyFile newReadOnlyFile() throws IOException {
+                    lock.lock();
+                    try {
+                        return getBoundSocket().newReadOnlyFile();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+
+                @Override
+                public InputStream newInputStream() throws IOException {
+                    lock.lock();
+                    try {
+                        return getBoundSocket().newInputStream();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            } // Input
+
+            return new Input();
         }
 
         boolean isClosed() {
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs.archive.zip;
+
+import de.schlichtherle.truezip.zip.ZipDecompressionParameters;
+import de.schlichtherle.truezip.zip.ZipFileParameters;
+import de.schlichtherle.truezip.zip.ZipIndexParameters;
+import de.schlichtherle.truezip.zip.ZipInflateIndexParameters;
+import java.io.File;
+import java.nio.charset.Charset;
+
+/**
+ * An adapter which provides {@link ZipIndexParameters} for persisting the
+ * index of the central directory of a ZIP file and forwards all other calls
+ * to the ZIP driver.
+ *
+ * @see    ZipDriver#indexFile
+ * @author Christian Schlichtherle
+ */
+final class IndexedZipFileParameters
+implements  ZipFileParameters<ZipDriverEntry>,
+            ZipIndexParameters,
+            ZipInflateIndexParameters,
+            ZipDecompressionParameters {
+
+    private final ZipDriver driver;
+    private final File file;
+    private final String key;
+
+    /**
+     * Constructs new indexed ZIP file parameters.
+     *
+     * @param driver the ZIP driver.
+     * @param file the sidecar file for persisting the index.
+     * @param key the key which identifies the ZIP file.
+     */
+    IndexedZipFileParameters(
+            final ZipDriver driver,
+            final File file,
+            final String key) {
+        if (null == driver || null == file || null == key)
+            throw new NullPointerException();
+        this.driver = driver;
+        this.file = file;
+        this.key = key;
+    }
+
+    @Override
+    public Charset getCharset() {
+        return driver.getCharset();
+    }
+
+    @Override
+    public boolean getPreambled() {
+        return driver.getPreambled();
+    }
+
+    @Override
+    public boolean getPostambled() {
+        return driver.getPostambled();
+    }
+
+    @Override
+    public ZipDriverEntry newEntry(String name) {
+        return driver.newEntry(name);
+    }
+
+    @Override
+    public int getInflateIndexSpan() {
+        return driver.getInflateIndexSpan();
+    }
+
+    @Override
+    public int getDecompressionThreads() {
+        return driver.getDecompressionThreads();
+    }
+
+    @Override
+    public boolean getPackedIndex() {
+        return false;
+    }
+
+    @Override
+    public File getIndexFile() {
+        return file;
+    }
+
+    @Override
+    public String getIndexKey() {
+        return key;
+    }
+}
@@ -22,6 +22,7 @@ import de.schlichtherle.truezip.util.HashMaps;
 import de.schlichtherle.truezip.zip.*;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import java.io.CharConversionException;
+import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
@@ -56,7 +57,11 @@ import java.util.zip.Deflater;
  */
 public class ZipDriver
 extends FsCharsetArchiveDriver<ZipDriverEntry>
-implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
+implements  ZipOutputStreamParameters,
+            ZipCompressionParameters,
+            ZipFileParameters<ZipDriverEntry>,
+            ZipDecompressionParameters,
+            ZipInflateIndexParameters {
 
     private static final Logger logger = Logger.getLogger(ZipDriver.class.getName());
 
@@ -120,6 +125,51 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return KeyManagerLocator.SINGLETON;
     }
 
+    final ZipFileParameters<ZipDriverEntry> zipFileParameters(
+            final FsModel model) {
+        if (null == model)
+            return this;
+        final File index = indexFile(model);
+        if (null == index)
+            return this;
+        // Only ZIP files in the platform file system have a last modification
+        // time which can get obtained without mounting the parent file system.
+        final URI uri = model.getMountPoint().getPath().toUri();
+        if (!"file".equals(uri.getScheme()))
+            return this;
+        final File file = new File(uri);
+        return new IndexedZipFileParameters(this, index,
+                file.getPath() + '@' + file.lastModified());
+    }
+
+    /**
+     * Returns the sidecar file for persisting the index of the central
+     * directory of the ZIP file for the given file system model or
+     * {@code null} if the index should not get persisted.
+     * If a sidecar file is returned and valid, then remounting a ZIP file
+     * with a huge number of entries does not need to read and parse its
+     * central directory again.
+     * The sidecar file is identified by the path and the last modification
+     * time of the ZIP file, the length of the ZIP file and the CRC-32 value
+     * of its End Of Central Directory Record, so that it's automatically
+     * invalidated when the ZIP file changes.
+     * <p>
+     * The implementation in the class {@link ZipDriver} returns {@code null}.
+     * An alternative implementation in a sub-class could return a file in a
+     * cache directory which is named after a hash of
+     * {@code mountPointUri(model)}.
+     * Note that this method is only used for ZIP files in the platform file
+     * system.
+     *
+     * @param  model the file system model.
+     * @return The sidecar file for persisting the index of the central
+     *         directory or {@code null}.
+     * @see    ZipIndexParameters#getIndexFile()
+     */
+    protected File indexFile(FsModel model) {
+        return null;
+    }
+
     final ZipCryptoParameters zipCryptoParameters(ZipInputShop input) {
         return zipCryptoParameters(input.getModel(), input.getRawCharset());
     }
@@ -220,6 +270,27 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return true;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @return The implementation in the class {@link ZipDriver} returns
+     *         {@code true} if and only if the given input shop is a
+     *         {@link ZipInputShop} which gives each entry its own file
+     *         pointer.
+     *         This is the case if the ZIP file has been opened as a
+     *         {@link de.schlichtherle.truezip.rof.ChannelReadOnlyFile} or a
+     *         {@link de.schlichtherle.truezip.rof.MappedReadOnlyFile}, e.g.
+     *         when it's a file in the platform file system and the
+     *         {@link de.schlichtherle.truezip.fs.file.FileDriver} has been
+     *         configured accordingly.
+     */
+    @Override
+    public boolean getConcurrentInputSupport(
+            final InputShop<ZipDriverEntry> input) {
+        return input instanceof ZipInputShop
+                && ((ZipInputShop) input).isConcurrent();
+    }
+
     /**
      * Whether or not the content of the given entry shall get
      * checked/authenticated when reading it.
@@ -307,6 +378,50 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return false;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code 0}, so random access to DEFLATED entries is not
+     * supported.
+     * Note that if this is supported, then a ZIP file in a DEFLATED entry
+     * gets mounted without caching it in a temporary file first.
+     *
+     * @return {@code 0}
+     */
+    @Override
+    public int getInflateIndexSpan() {
+        return 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code 1}, so all entries get compressed by the thread which
+     * writes them.
+     *
+     * @return {@code 1}
+     */
+    @Override
+    public int getCompressionThreads() {
+        return 1;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code 1}, so all entries get decompressed by the thread which
+     * reads them.
+     *
+     * @return {@code 1}
+     */
+    @Override
+    public int getDecompressionThreads() {
+        return 1;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -350,6 +465,51 @@ implements ZipOutputStreamParameters, ZipFileParameters<ZipDriverEntry> {
         return Deflater.BEST_COMPRESSION;
     }
 
+    /**
+     * Returns the minimum percentage by which the first 64 KiB of a new
+     * DEFLATED entry must shrink when getting deflated or zero if all
+     * DEFLATED entries should get deflated.
+     * <p>
+     * If this method returns a positive value, then the first bytes of each
+     * new DEFLATED entry get buffered and deflated on trial.
+     * If they do not shrink by at least the returned percentage, e.g. because
+     * they are JPEG images, videos or nested archives, then the entry gets
+     * STORED instead and the CPU time for deflating it gets saved.
+     * Like any STORED entry with an unknown size, the entry then gets
+     * buffered in a temporary file in order to compute its CRC-32 value and
+     * size before it gets written.
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code 0}, so all DEFLATED entries get deflated.
+     *
+     * @return {@code 0}
+     */
+    public int getStoreThreshold() {
+        return 0;
+    }
+
+    /**
+     * Returns the target throughput for deflating entries in bytes per
+     * second or zero if the compression level should not get adjusted.
+     * <p>
+     * If this method and {@link #getStoreThreshold()} return positive values,
+     * then the time for deflating the first bytes of each new DEFLATED entry
+     * on trial gets measured.
+     * If the throughput falls short of the returned value, then the
+     * compression level for the subsequent entries gets decreased.
+     * If the throughput exceeds twice the returned value, then the
+     * compression level gets increased again, but not beyond
+     * {@link #getLevel()}.
+     * <p>
+     * The implementation in the class {@link ZipDriver}
+     * returns {@code 0}, so the compression level never gets adjusted.
+     *
+     * @return {@code 0}
+     */
+    public long getTargetThroughput() {
+        return 0;
+    }
+
     /**
      * {@inheritDoc}
      * <p>
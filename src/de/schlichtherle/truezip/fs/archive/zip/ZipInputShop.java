@@ -35,7 +35,7 @@ implements InputShop<ZipDriverEntry> {
             final FsModel model,
             final ReadOnlyFile rof)
     throws IOException {
-        super(rof, driver);
+        super(rof, driver.zipFileParameters(model));
         this.driver = driver;
         if (null == (this.model = model)) {
             final NullPointerException ex = new NullPointerException();
@@ -90,6 +90,14 @@ implements InputShop<ZipDriverEntry> {
         this.appendee = appendee;
     }
 
+    /**
+     * Returns {@code true} if and only if the entries of this input shop can
+     * get read concurrently.
+     */
+    final boolean isConcurrent() {
+        return isPositional();
+    }
+
     @Override
     public int getSize() {
         return super.size();
@@ -113,7 +121,11 @@ implements InputShop<ZipDriverEntry> {
 
             @Override
             public ReadOnlyFile newReadOnlyFile() throws IOException {
-                throw new UnsupportedOperationException(); // TODO: Support this feature for STORED entries.
+                final ZipDriverEntry local = getLocalTarget();
+                if (!isRandomAccessible(local))
+                    throw new UnsupportedOperationException(
+                            local.getName() + " (random access is not supported for this entry)");
+                return getReadOnlyFile(local.getName());
             }
 
             @Override
@@ -10,17 +10,21 @@ import de.schlichtherle.truezip.fs.FsModel;
 import de.schlichtherle.truezip.io.*;
 import de.schlichtherle.truezip.socket.*;
 import de.schlichtherle.truezip.util.JointIterator;
+import de.schlichtherle.truezip.zip.FlaterPool;
 import de.schlichtherle.truezip.zip.RawZipOutputStream;
 import de.schlichtherle.truezip.zip.ZipCryptoParameters;
+import static de.schlichtherle.truezip.zip.ZipEntry.DEFLATED;
 import static de.schlichtherle.truezip.zip.ZipEntry.STORED;
 import static de.schlichtherle.truezip.zip.ZipEntry.UNKNOWN;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
 
 /**
  * An output shop for writing ZIP files.
@@ -35,6 +39,14 @@ public class ZipOutputShop
 extends RawZipOutputStream<ZipDriverEntry>
 implements OutputShop<ZipDriverEntry> {
 
+    /**
+     * The number of bytes at the start of a DEFLATED entry which get
+     * deflated on trial.
+     *
+     * @see ZipDriver#getStoreThreshold()
+     */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
     private final ZipDriver driver;
     private final FsModel model;
     private IOPool.Entry<?> postamble;
@@ -142,6 +154,12 @@ implements OutputShop<ZipDriverEntry> {
                     return new EntryOutputStream(local, false);
                 }
                 final boolean process = updateProperties(local, getPeerTarget());
+                if (process
+                        && DEFLATED == local.getMethod()
+                        && !local.isEncrypted()
+                        && UNKNOWN == local.getCrc()
+                        && 0 < driver.getStoreThreshold())
+                    return new SamplingEntryOutputStream(local);
                 if (STORED == local.getMethod()) {
                     if (UNKNOWN == local.getCrc()
                             || UNKNOWN == local.getSize()
@@ -394,4 +412,178 @@ implements OutputShop<ZipDriverEntry> {
             builder.check();
         }
     } // BufferedEntryOutputStream
+
+    /**
+     * This entry output stream buffers the first {@link #SAMPLE_SIZE} bytes
+     * of a DEFLATED entry and deflates them on trial in order to decide if
+     * the entry should get DEFLATED or STORED.
+     * If the entry gets STORED and exceeds the sample, then the remaining
+     * contents get written to a {@link BufferedEntryOutputStream}.
+     * If the entry does not exceed the sample, then it gets written directly
+     * and the deflated sample gets reused if the entry gets DEFLATED.
+     *
+     * @see ZipDriver#getStoreThreshold()
+     * @see ZipDriver#getTargetThroughput()
+     */
+    private final class SamplingEntryOutputStream
+    extends DecoratingOutputStream {
+        final ZipDriverEntry local;
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int count;
+        byte[] deflated;
+        int deflatedCount;
+        int sampleLevel;
+        long sampleNanos;
+        boolean closed;
+        final byte[] single = new byte[1];
+
+        SamplingEntryOutputStream(final ZipDriverEntry local) {
+            super(null);
+            assert DEFLATED == local.getMethod();
+            this.local = local;
+            bufferedEntry = local;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len)
+        throws IOException {
+            if (null != delegate) {
+                delegate.write(b, off, len);
+                return;
+            }
+            if (closed)
+                throw new OutputClosedException();
+            final int n = Math.min(len, SAMPLE_SIZE - count);
+            System.arraycopy(b, off, sample, count, n);
+            count += n;
+            if (n < len) {
+                start();
+                delegate.write(b, off + n, len - n);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != delegate)
+                delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (null != delegate) {
+                delegate.close();
+                return;
+            }
+            bufferedEntry = null;
+            final ZipDriverEntry local = this.local;
+            final boolean store = sample();
+            final CRC32 crc = new CRC32();
+            crc.update(sample, 0, count);
+            local.setCrc(crc.getValue());
+            local.setSize(count);
+            final OutputStream out;
+            if (store) {
+                local.setMethod(STORED);
+                local.setCompressedSize(count);
+                out = new EntryOutputStream(local, true);
+                try {
+                    out.write(sample, 0, count);
+                } finally {
+                    out.close();
+                }
+            } else {
+                // Raw Data Copying of the deflated sample.
+                local.setCompressedSize(deflatedCount);
+                out = new EntryOutputStream(local, false);
+                try {
+                    out.write(deflated, 0, deflatedCount);
+                } finally {
+                    out.close();
+                }
+            }
+            sample = deflated = null;
+            adjustLevel();
+        }
+
+        /**
+         * Decides how to write the entry when the sample is full and
+         * writes the sample to the resulting delegate.
+         */
+        void start() throws IOException {
+            bufferedEntry = null;
+            final ZipDriverEntry local = this.local;
+            if (sample()) {
+                local.setMethod(STORED);
+                delegate = new BufferedEntryOutputStream(local);
+            } else {
+                delegate = new EntryOutputStream(local, true);
+            }
+            adjustLevel();
+            delegate.write(sample, 0, count);
+            sample = deflated = null;
+        }
+
+        /**
+         * Deflates the sample on trial at the current level, records the time
+         * for {@link #adjustLevel()} and returns {@code true} if and only if
+         * the entry should get STORED.
+         */
+        boolean sample() {
+            final int level = getLevel();
+            final Deflater def = FlaterPool.DEFLATERS.allocate(level, true);
+            final long start = System.nanoTime();
+            try {
+                def.setInput(sample, 0, count);
+                def.finish();
+                byte[] out = new byte[count + (count >> 3) + 64];
+                int off = 0;
+                while (!def.finished()) {
+                    if (off == out.length)
+                        out = Arrays.copyOf(out, out.length << 1);
+                    off += def.deflate(out, off, out.length - off);
+                }
+                deflated = out;
+                deflatedCount = off;
+            } finally {
+                FlaterPool.DEFLATERS.release(def, level, true);
+            }
+            sampleLevel = level;
+            sampleNanos = System.nanoTime() - start;
+            return (long) deflatedCount * 100
+                    > (long) count * (100 - driver.getStoreThreshold());
+        }
+
+        /**
+         * Adjusts the level for subsequent entries if the throughput of
+         * deflating a full sample misses the target throughput.
+         * This must get called after the output method for the current entry
+         * has been started, so that the current entry still gets deflated at
+         * the level of the sample.
+         */
+        void adjustLevel() {
+            final long target = driver.getTargetThroughput();
+            final long nanos = sampleNanos;
+            if (0 >= target || 0 >= nanos || SAMPLE_SIZE != count)
+                return;
+            int level = sampleLevel;
+            final double throughput = SAMPLE_SIZE * 1e9 / nanos;
+            if (Deflater.DEFAULT_COMPRESSION == level)
+                level = 6;
+            int max = driver.getLevel();
+            if (Deflater.DEFAULT_COMPRESSION == max)
+                max = 6;
+            if (throughput < target && Deflater.BEST_SPEED < level)
+                setLevel(level - 1);
+            else if (throughput > 2.0 * target && level < max)
+                setLevel(level + 1);
+        }
+    } // SamplingEntryOutputStream
 }
@@ -35,9 +35,16 @@ final class FileController extends FsAbstractController<FsModel>  {
     private static final String TWO_SEPARATORS = SEPARATOR + SEPARATOR;
 
     private final File target;
+    private final boolean mapped;
+    private final boolean channel;
 
-    FileController(final FsModel model) {
+    FileController(
+            final FsModel model,
+            final boolean mapped,
+            final boolean channel) {
         super(model);
+        this.mapped = mapped;
+        this.channel = channel;
         if (null != model.getParent()) throw new IllegalArgumentException();
         URI uri = model.getMountPoint().toUri();
         if ('\\' == separatorChar && null != uri.getRawAuthority()) {
@@ -136,7 +143,8 @@ final class FileController extends FsAbstractController<FsModel>  {
     public InputSocket<?> getInputSocket(
             FsEntryName name,
             BitField<FsInputOption> options) {
-        return new FileEntry(target, name).getInputSocket();
+        return new FileInputSocket(
+                new FileEntry(target, name), mapped, channel);
     }
 
     @Override
@@ -7,6 +7,10 @@ package de.schlichtherle.truezip.fs.file;
 import de.schlichtherle.truezip.fs.FsController;
 import de.schlichtherle.truezip.fs.FsDriver;
 import de.schlichtherle.truezip.fs.FsModel;
+import de.schlichtherle.truezip.rof.ChannelReadOnlyFile;
+import de.schlichtherle.truezip.rof.DefaultReadOnlyFile;
+import de.schlichtherle.truezip.rof.MappedReadOnlyFile;
+import java.nio.channels.FileChannel;
 
 /**
  * A file system driver for the FILE scheme.
@@ -15,11 +19,56 @@ import de.schlichtherle.truezip.fs.FsModel;
  */
 public final class FileDriver extends FsDriver {
 
+    private final boolean mapped;
+    private final boolean channel;
+
+    /** Equivalent to {@link #FileDriver(boolean) FileDriver(false)}. */
+    public FileDriver() {
+        this(false);
+    }
+
+    /**
+     * Equivalent to
+     * {@link #FileDriver(boolean, boolean) FileDriver(mapped, false)}.
+     */
+    public FileDriver(boolean mapped) {
+        this(mapped, false);
+    }
+
+    /**
+     * Constructs a new file driver.
+     * <p>
+     * If {@code mapped} or {@code channel} is {@code true}, then the entries
+     * of an archive file can get read concurrently.
+     * However, both read only files read from a {@link FileChannel} which
+     * gets closed if a thread gets interrupted while it's using the channel.
+     * Because the file channel is shared by all readers of an archive file,
+     * all of them will then fail until the archive file gets remounted.
+     * So don't use these options if you interrupt threads which read archive
+     * entries, e.g. by cancelling a {@link java.util.concurrent.Future}.
+     *
+     * @param mapped whether or not the read only files returned by the input
+     *        sockets of this driver shall map the files into memory.
+     *        If this is {@code true}, then each input socket returns a
+     *        {@link MappedReadOnlyFile}.
+     * @param channel whether or not the read only files returned by the
+     *        input sockets of this driver shall use positional reads on a
+     *        file channel.
+     *        If this is {@code true} and {@code mapped} is {@code false},
+     *        then each input socket returns a {@link ChannelReadOnlyFile}.
+     *        If both parameters are {@code false}, then each input socket
+     *        returns a {@link DefaultReadOnlyFile}.
+     */
+    public FileDriver(boolean mapped, boolean channel) {
+        this.mapped = mapped;
+        this.channel = channel;
+    }
+
     @Override
     public FsController<?> newController(
             final FsModel model,
             final FsController<?> parent) {
         assert null == parent;
-        return new FileController(model);
+        return new FileController(model, mapped, channel);
     }
 }
@@ -4,7 +4,9 @@
  */
 package de.schlichtherle.truezip.fs.file;
 
+import de.schlichtherle.truezip.rof.ChannelReadOnlyFile;
 import de.schlichtherle.truezip.rof.DefaultReadOnlyFile;
+import de.schlichtherle.truezip.rof.MappedReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFile;
 import de.schlichtherle.truezip.socket.InputSocket;
 import java.io.FileInputStream;
@@ -20,10 +22,21 @@ import java.io.InputStream;
 final class FileInputSocket extends InputSocket<FileEntry> {
 
     private final FileEntry entry;
+    private final boolean mapped;
+    private final boolean channel;
 
-    FileInputSocket(final FileEntry entry) {
+    FileInputSocket(FileEntry entry) {
+        this(entry, false, false);
+    }
+
+    FileInputSocket(
+            final FileEntry entry,
+            final boolean mapped,
+            final boolean channel) {
         assert null != entry;
         this.entry = entry;
+        this.mapped = mapped;
+        this.channel = channel;
     }
 
     @Override
@@ -33,6 +46,10 @@ final class FileInputSocket extends InputSocket<FileEntry> {
 
     @Override
     public ReadOnlyFile newReadOnlyFile() throws IOException {
+        if (mapped)
+            return new MappedReadOnlyFile(entry.getFile());
+        if (channel)
+            return new ChannelReadOnlyFile(entry.getFile());
         return new DefaultReadOnlyFile(entry.getFile());
     }
 
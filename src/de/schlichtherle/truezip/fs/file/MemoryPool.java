@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs.file;
+
+import static de.schlichtherle.truezip.entry.Entry.Access.WRITE;
+import de.schlichtherle.truezip.rof.ByteBufferReadOnlyFile;
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import de.schlichtherle.truezip.socket.IOPool;
+import de.schlichtherle.truezip.socket.InputSocket;
+import de.schlichtherle.truezip.socket.OutputSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This I/O pool keeps the contents of its buffers in heap or direct
+ * {@link ByteBuffer}s and spills them to temporary files from
+ * {@link TempFilePool#INSTANCE} once they get bigger than the
+ * {@link #getThreshold() threshold} or once the
+ * {@link #getBudget() memory budget} of this pool is exhausted.
+ * This saves the system calls for creating, writing, reading and deleting a
+ * temporary file for small buffers.
+ * <p>
+ * The memory budget applies to the total capacity of all byte buffers which
+ * are currently allocated by the buffers of this pool.
+ * A byte buffer gets returned to the budget when its buffer gets released,
+ * truncated or spilled to a temporary file.
+ *
+ * @author Christian Schlichtherle
+ */
+final class MemoryPool implements IOPool<MemoryPool.Buffer> {
+
+    /** The initial capacity of the byte buffers. */
+    private static final int MIN_CAPACITY = 4 * 1024;
+
+    private final int threshold;
+    private final long budget;
+    private final boolean direct;
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * Constructs a new memory pool.
+     *
+     * @param threshold the maximum size of the contents of a buffer which
+     *        gets kept in memory.
+     * @param budget the maximum total capacity of all byte buffers.
+     * @param direct whether or not direct byte buffers should get used.
+     */
+    MemoryPool(final int threshold, final long budget, final boolean direct) {
+        if (0 > threshold || 0 > budget)
+            throw new IllegalArgumentException();
+        this.threshold = threshold;
+        this.budget = budget;
+        this.direct = direct;
+    }
+
+    /**
+     * Returns the maximum size of the contents of a buffer which gets kept in
+     * memory.
+     */
+    int getThreshold() {
+        return threshold;
+    }
+
+    /** Returns the maximum total capacity of all byte buffers. */
+    long getBudget() {
+        return budget;
+    }
+
+    /** Returns the total capacity of all currently allocated byte buffers. */
+    long getUsed() {
+        return used.get();
+    }
+
+    @Override
+    public Buffer allocate() {
+        return new Buffer(this);
+    }
+
+    @Override
+    public void release(Entry<Buffer> resource) throws IOException {
+        resource.release();
+    }
+
+    /**
+     * Returns a new byte buffer with the given capacity or {@code null} if
+     * this would exceed the memory budget.
+     */
+    private ByteBuffer reserve(final int capacity) {
+        long u;
+        do {
+            u = used.get();
+            if (budget - u < capacity)
+                return null;
+        } while (!used.compareAndSet(u, u + capacity));
+        try {
+            return direct
+                    ? ByteBuffer.allocateDirect(capacity)
+                    : ByteBuffer.allocate(capacity);
+        } catch (final OutOfMemoryError ex) {
+            used.addAndGet(-capacity);
+            return null;
+        }
+    }
+
+    /** Returns the given byte buffer to the memory budget. */
+    private void free(final ByteBuffer data) {
+        used.addAndGet(-data.capacity());
+    }
+
+    /** A memory pool entry. */
+    static final class Buffer implements Entry<Buffer> {
+
+        private MemoryPool pool;
+
+        /**
+         * The byte buffer with the contents of this buffer or {@code null} if
+         * this buffer is empty or has been spilled to a temporary file.
+         */
+        private volatile ByteBuffer data;
+
+        /** The size of the contents of the byte buffer. */
+        private volatile int size;
+
+        /** The temporary file with the contents of this buffer or null. */
+        private volatile Entry<FileEntry> file;
+
+        private volatile long time = UNKNOWN;
+
+        Buffer(final MemoryPool pool) {
+            assert null != pool;
+            this.pool = pool;
+        }
+
+        /** Returns {@code true} if and only if this buffer has been spilled. */
+        boolean isSpilled() {
+            return null != file;
+        }
+
+        @Override
+        public String getName() {
+            final Entry<FileEntry> file = this.file;
+            return null != file ? file.getName() : "(memory)";
+        }
+
+        @Override
+        public long getSize(final Size type) {
+            final Entry<FileEntry> file = this.file;
+            return null != file ? file.getSize(type) : size;
+        }
+
+        @Override
+        public long getTime(final Access type) {
+            final Entry<FileEntry> file = this.file;
+            if (null != file)
+                return file.getTime(type);
+            return WRITE == type ? time : UNKNOWN;
+        }
+
+        @Override
+        public InputSocket<Buffer> getInputSocket() {
+            return new Input();
+        }
+
+        @Override
+        public OutputSocket<Buffer> getOutputSocket() {
+            return new Output();
+        }
+
+        /**
+         * Discards the contents of this buffer and returns its byte buffer to
+         * the memory budget.
+         */
+        private synchronized void truncate() throws IOException {
+            final ByteBuffer data = this.data;
+            if (null != data) {
+                this.data = null;
+                pool.free(data);
+            }
+            this.size = 0;
+            this.time = UNKNOWN;
+            final Entry<FileEntry> file = this.file;
+            if (null != file) {
+                this.file = null;
+                file.release();
+            }
+        }
+
+        @Override
+        public void release() throws IOException {
+            synchronized (this) {
+                if (null == pool)
+                    return;
+                truncate();
+                pool = null;
+            }
+        }
+
+        private final class Input extends InputSocket<Buffer> {
+            @Override
+            public Buffer getLocalTarget() {
+                return Buffer.this;
+            }
+
+            @Override
+            public ReadOnlyFile newReadOnlyFile() throws IOException {
+                final Entry<FileEntry> file = Buffer.this.file;
+                if (null != file)
+                    return file.getInputSocket().newReadOnlyFile();
+                final ByteBuffer data = Buffer.this.data;
+                if (null == data)
+                    return new ByteBufferReadOnlyFile(ByteBuffer.allocate(0));
+                final ByteBuffer view = data.duplicate();
+                view.position(0);
+                view.limit(size);
+                return new ByteBufferReadOnlyFile(view);
+            }
+
+            @Override
+            public InputStream newInputStream() throws IOException {
+                final Entry<FileEntry> file = Buffer.this.file;
+                return null != file
+                        ? file.getInputSocket().newInputStream()
+                        : super.newInputStream();
+            }
+        } // Input
+
+        private final class Output extends OutputSocket<Buffer> {
+            @Override
+            public Buffer getLocalTarget() {
+                return Buffer.this;
+            }
+
+            @Override
+            public OutputStream newOutputStream() throws IOException {
+                truncate();
+                return new Stream();
+            }
+        } // Output
+
+        /**
+         * Writes to the byte buffer until the threshold or the memory budget
+         * is exceeded and spills the contents to a temporary file then.
+         * All operations are synchronized on the buffer, so that they cannot
+         * interfere with a concurrent truncation or release.
+         */
+        private final class Stream extends OutputStream {
+            private final byte[] single = new byte[1];
+            OutputStream out;
+            boolean closed;
+
+            @Override
+            public void write(int b) throws IOException {
+                synchronized (Buffer.this) {
+                    single[0] = (byte) b;
+                    write(single, 0, 1);
+                }
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+                synchronized (Buffer.this) {
+                    check();
+                    if (null == out) {
+                        final long need = (long) size + len;
+                        if (need <= pool.getThreshold()
+                                && ensureCapacity((int) need)) {
+                            data.put(b, off, len);
+                            size = (int) need;
+                            return;
+                        }
+                        spill();
+                    }
+                    out.write(b, off, len);
+                }
+            }
+
+            /** Throws an {@link IOException} if this stream is unusable. */
+            private void check() throws IOException {
+                assert Thread.holdsLock(Buffer.this);
+                if (closed)
+                    throw new IOException("Output stream has been closed!");
+                if (null == pool)
+                    throw new IOException("Buffer has been released!");
+            }
+
+            /**
+             * Ensures that the byte buffer has the given capacity.
+             * Returns {@code false} if this would exceed the memory budget.
+             */
+            private boolean ensureCapacity(final int need) {
+                assert Thread.holdsLock(Buffer.this);
+                final ByteBuffer data = Buffer.this.data;
+                final int capacity = null != data ? data.capacity() : 0;
+                if (need <= capacity)
+                    return true;
+                final MemoryPool pool = Buffer.this.pool;
+                final ByteBuffer bigger = pool.reserve(Math.min(
+                        pool.getThreshold(),
+                        Math.max(need, Math.max(MIN_CAPACITY, capacity << 1))));
+                if (null == bigger)
+                    return false;
+                if (null != data) {
+                    data.flip();
+                    bigger.put(data);
+                    pool.free(data);
+                }
+                Buffer.this.data = bigger;
+                return true;
+            }
+
+            /** Moves the contents of the byte buffer to a temporary file. */
+            private void spill() throws IOException {
+                assert Thread.holdsLock(Buffer.this);
+                final Entry<FileEntry> file = TempFilePool.INSTANCE.allocate();
+                final OutputStream out;
+                try {
+                    out = file.getOutputSocket().newOutputStream();
+                    try {
+                        final ByteBuffer data = Buffer.this.data;
+                        if (null != data) {
+                            if (data.hasArray()) {
+                                out.write(data.array(), data.arrayOffset(), size);
+                            } else {
+                                final byte[] array = new byte[size];
+                                final ByteBuffer view = data.duplicate();
+                                view.flip();
+                                view.get(array);
+                                out.write(array);
+                            }
+                        }
+                    } catch (final IOException ex) {
+                        out.close();
+                        throw ex;
+                    }
+                } catch (final IOException ex) {
+                    file.release();
+                    throw ex;
+                }
+                final ByteBuffer data = Buffer.this.data;
+                if (null != data) {
+                    Buffer.this.data = null;
+                    pool.free(data);
+                }
+                size = 0;
+                Buffer.this.file = file;
+                this.out = out;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                synchronized (Buffer.this) {
+                    if (null != out)
+                        out.flush();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                synchronized (Buffer.this) {
+                    if (closed)
+                        return;
+                    closed = true;
+                    if (null != out)
+                        out.close();
+                    else
+                        time = System.currentTimeMillis();
+                }
+            }
+        } // Stream
+    } // Buffer
+}
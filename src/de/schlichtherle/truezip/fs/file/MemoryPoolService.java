@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.fs.file;
+
+import de.schlichtherle.truezip.socket.IOPool;
+import de.schlichtherle.truezip.socket.spi.IOPoolService;
+
+/**
+ * Contains a {@link MemoryPool} which keeps small buffers in memory and spills
+ * big buffers to temporary files.
+ * The pool can get configured by the following system properties:
+ * <ul>
+ * <li>{@code de.schlichtherle.truezip.fs.file.memoryPoolThreshold}:
+ *     The maximum size of a buffer which gets kept in memory.
+ *     Defaults to {@value #DEFAULT_THRESHOLD} bytes.
+ * <li>{@code de.schlichtherle.truezip.fs.file.memoryPoolBudget}:
+ *     The maximum amount of memory for all buffers.
+ *     Defaults to a sixteenth of the maximum heap size, but not more than
+ *     {@value #MAX_DEFAULT_BUDGET} bytes.
+ * <li>{@code de.schlichtherle.truezip.fs.file.memoryPoolDirect}:
+ *     If {@code true}, then direct byte buffers get used.
+ *     Defaults to {@code false}.
+ * </ul>
+ *
+ * @author Christian Schlichtherle
+ */
+public final class MemoryPoolService extends IOPoolService {
+
+    /** The default maximum size of a buffer which gets kept in memory. */
+    public static final int DEFAULT_THRESHOLD = 64 * 1024;
+
+    /** The upper bound for the default memory budget. */
+    public static final long MAX_DEFAULT_BUDGET = 32 * 1024 * 1024;
+
+    private static final String PREFIX
+            = MemoryPoolService.class.getPackage().getName() + ".memoryPool";
+
+    private static final MemoryPool INSTANCE = new MemoryPool(
+            Integer.getInteger(PREFIX + "Threshold", DEFAULT_THRESHOLD),
+            Long.getLong(PREFIX + "Budget", Math.min(
+                Runtime.getRuntime().maxMemory() / 16,
+                MAX_DEFAULT_BUDGET)),
+            Boolean.getBoolean(PREFIX + "Direct"));
+
+    @Override
+    public IOPool<?> get() {
+        return INSTANCE;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @return {@code 100}, so this service takes precedence over the
+     *         {@link TempFilePoolService}.
+     */
+    @Override
+    public int getPriority() {
+        return 100;
+    }
+}
@@ -5,31 +5,224 @@
 package de.schlichtherle.truezip.fs.file;
 
 import de.schlichtherle.truezip.socket.IOPool;
+import de.schlichtherle.truezip.util.ThreadGroups;
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.regex.Pattern;
 
 /**
  * This I/O pool creates and deletes temporary files as {@link FileEntry}s.
+ * <p>
+ * If the pool has been constructed with a positive maximum number of idle
+ * files, then released temporary files get truncated and kept on a free list
+ * for reuse instead of getting deleted.
+ * This saves creating and deleting a file for each allocation under write
+ * heavy load.
+ * Idle files get deleted when they have not been reused for
+ * {@link #IDLE_TIMEOUT} milliseconds or when the JVM shuts down.
+ * While there are idle files, a daemon thread deletes them when they expire,
+ * so that they don't stay on disk after the last use of the pool.
+ * If the shutdown hook for this cannot get registered, e.g. because the pool
+ * gets constructed while the JVM is shutting down, then released files always
+ * get deleted.
+ * <p>
+ * The temporary files may get striped across several directories, e.g. on
+ * different disks.
+ * Each new temporary file gets placed according to the {@link Placement}
+ * policy of the pool.
+ * Both policies account for the bytes in flight per directory, which get
+ * estimated as the number of allocated and not yet released files in the
+ * directory times the mean size of the released files.
+ * <p>
+ * The default instance gets configured by the following system properties:
+ * <ul>
+ * <li>{@code de.schlichtherle.truezip.fs.file.tempDirs}:
+ *     A list of directories for temporary files, separated by
+ *     {@link File#pathSeparatorChar}.
+ *     Defaults to the directory of {@link File#createTempFile(String, String)}.
+ * <li>{@code de.schlichtherle.truezip.fs.file.tempDirPlacement}:
+ *     The name of the {@link Placement} policy.
+ *     Defaults to {@link Placement#FREE_SPACE}, which is also used if the
+ *     name is unknown.
+ * </ul>
  *
  * @author Christian Schlichtherle
  */
 final class TempFilePool implements IOPool<FileEntry> {
 
+    /** The maximum number of idle files of the default instance. */
+    static final int MAX_IDLE = 32;
+
+    /** The time in milliseconds before an idle file gets deleted. */
+    static final long IDLE_TIMEOUT = 30 * 1000;
+
+    /** The interval in milliseconds for measuring the allocation rate. */
+    private static final long RATE_INTERVAL = 1000;
+
+    /**
+     * The interval in milliseconds for querying the usable space of a
+     * directory.
+     */
+    private static final long SPACE_INTERVAL = 1000;
+
+    private static final String PREFIX
+            = TempFilePool.class.getPackage().getName();
+
     /**
      * A default instance of this pool.
      * Use this if you don't have special requirements regarding the temp file
      * prefix, suffix or directory.
      */
-    static final TempFilePool INSTANCE = new TempFilePool(null, null);
+    static final TempFilePool INSTANCE = new TempFilePool(
+            dirs(System.getProperty(PREFIX + ".tempDirs")),
+            null,
+            MAX_IDLE,
+            placement(System.getProperty(PREFIX + ".tempDirPlacement")));
+
+    /** The policies for placing a new temporary file in a directory. */
+    enum Placement {
+        /**
+         * Places a new temporary file in the directory with the least bytes
+         * in flight.
+         * Ties get broken in round-robin order.
+         */
+        ROUND_ROBIN,
 
-    private final File dir;
+        /**
+         * Places a new temporary file in the directory with the most usable
+         * space minus bytes in flight.
+         * Ties get broken in round-robin order.
+         */
+        FREE_SPACE,
+    }
+
+    private final Stripe[] stripes;
     private final String prefix;
+    private final int maxIdle;
+    private final Placement placement;
+    private int next;
+    private long releasedFiles, releasedBytes;
+
+    /** The idle files, most recently released first. */
+    private final Deque<Idle> idle = new ArrayDeque<Idle>();
+
+    /** The allocated buffers - used for computing the live bytes only. */
+    private final Set<Buffer> live
+            = Collections.newSetFromMap(new WeakHashMap<Buffer, Boolean>());
+
+    private long allocations, reuses;
+    private long rateStart = System.currentTimeMillis();
+    private long rateCount;
+    private double rate;
+
+    /**
+     * Whether or not a shutdown hook for deleting the idle files has been
+     * registered.
+     * If not, then released files get deleted instead of kept for reuse.
+     */
+    private final boolean hooked;
+
+    /** Whether or not the shutdown hook has been run. */
+    private boolean closed;
+
+    /** Whether or not a {@link Sweeper} thread is running. */
+    private boolean sweeping;
 
     TempFilePool(
             final File dir,
             final String prefix) {
-        this.dir = dir;
+        this(new File[] { dir }, prefix, 0, Placement.ROUND_ROBIN);
+    }
+
+    /**
+     * Constructs a new temp file pool.
+     *
+     * @param dirs the directories for the temporary files.
+     *        A {@code null} element denotes the default directory for
+     *        temporary files.
+     * @param prefix the nullable prefix for the names of the temporary files.
+     * @param maxIdle the maximum number of released files to keep for reuse.
+     * @param placement the policy for placing new temporary files.
+     */
+    TempFilePool(
+            final File[] dirs,
+            final String prefix,
+            final int maxIdle,
+            final Placement placement) {
+        if (0 >= dirs.length || 0 > maxIdle)
+            throw new IllegalArgumentException();
+        if (null == placement)
+            throw new NullPointerException();
+        final Stripe[] stripes = new Stripe[dirs.length];
+        for (int i = 0; i < dirs.length; i++)
+            stripes[i] = new Stripe(dirs[i]);
+        this.stripes = stripes;
         this.prefix = null != prefix ? prefixPlusDot(prefix) : "tzp";
+        this.maxIdle = maxIdle;
+        this.placement = placement;
+        this.hooked = 0 < maxIdle && hook();
+    }
+
+    /**
+     * Registers a shutdown hook which deletes all idle files.
+     * Returns {@code false} if the JVM is already shutting down or the hook
+     * cannot get registered for any other reason.
+     */
+    private boolean hook() {
+        try {
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    synchronized (TempFilePool.this) {
+                        closed = true;
+                    }
+                    expire(Long.MAX_VALUE);
+                }
+            });
+            return true;
+        } catch (final IllegalStateException shutdownInProgress) {
+            return false;
+        } catch (final SecurityException ex) {
+            return false;
+        }
+    }
+
+    /** Parses the given list of directories. */
+    private static File[] dirs(final String list) {
+        if (null == list)
+            return new File[] { null };
+        final List<File> dirs = new ArrayList<File>();
+        for (final String path : list.split(Pattern.quote(File.pathSeparator)))
+            if (0 < path.length())
+                dirs.add(new File(path));
+        return dirs.isEmpty()
+                ? new File[] { null }
+                : dirs.toArray(new File[dirs.size()]);
+    }
+
+    /**
+     * Parses the given name of a placement policy.
+     * Returns {@link Placement#FREE_SPACE} if the name is {@code null} or
+     * unknown.
+     */
+    private static Placement placement(final String name) {
+        if (null != name) {
+            try {
+                return Placement.valueOf(name.toUpperCase(Locale.ENGLISH));
+            } catch (final IllegalArgumentException unknown) {
+            }
+        }
+        return Placement.FREE_SPACE;
     }
 
     private static String prefixPlusDot(String prefix) {
@@ -38,20 +231,90 @@ final class TempFilePool implements IOPool<FileEntry> {
 
     @Override
     public Buffer allocate() throws IOException {
-        return new Buffer(createTempFile(), this);
+        final long now = System.currentTimeMillis();
+        final Stripe stripe;
+        File file = null;
+        synchronized (this) {
+            count(now);
+            stripe = select(now);
+            stripe.live++;
+            for (final Iterator<Idle> i = idle.iterator(); i.hasNext(); ) {
+                final Idle item = i.next();
+                if (item.stripe == stripe) {
+                    i.remove();
+                    file = item.file;
+                    reuses++;
+                    break;
+                }
+            }
+        }
+        expire(now);
+        try {
+            if (null == file)
+                file = createTempFile(stripe.dir);
+        } catch (final IOException ex) {
+            synchronized (this) {
+                stripe.live--;
+            }
+            throw ex;
+        }
+        final Buffer buffer = new Buffer(file, this, stripe);
+        synchronized (this) {
+            live.add(buffer);
+        }
+        return buffer;
     }
 
-    private File createTempFile() throws IOException {
+    /** Selects the directory for the next allocation. */
+    private Stripe select(final long now) {
+        assert Thread.holdsLock(this);
+        final Stripe[] stripes = this.stripes;
+        final int length = stripes.length;
+        if (1 == length)
+            return stripes[0];
+        final long mean = 0 == releasedFiles ? 0 : releasedBytes / releasedFiles;
+        final int start = next;
+        Stripe best = null;
+        long bestScore = Long.MIN_VALUE;
+        for (int i = 0; i < length; i++) {
+            final Stripe stripe = stripes[(start + i) % length];
+            final long inFlight = stripe.live * mean;
+            final long score = Placement.FREE_SPACE == placement
+                    ? stripe.usableSpace(now) - inFlight
+                    : 0 < mean ? -inFlight : -stripe.live;
+            if (null == best || bestScore < score) {
+                best = stripe;
+                bestScore = score;
+            }
+        }
+        next = (start + 1) % length;
+        return best;
+    }
+
+    /** Counts an allocation for the allocation rate. */
+    private void count(final long now) {
+        assert Thread.holdsLock(this);
+        allocations++;
+        rateCount++;
+        final long elapsed = now - rateStart;
+        if (RATE_INTERVAL <= elapsed) {
+            rate = rateCount * 1000.0 / elapsed;
+            rateCount = 0;
+            rateStart = now;
+        }
+    }
+
+    private File createTempFile(final File dir) throws IOException {
         try {
             return File.createTempFile(prefix, null, dir);
         } catch (final IOException ex) {
-            if (dir.exists()) throw ex;
-            createTempDir();
-            return createTempFile();
+            if (null == dir || dir.exists()) throw ex;
+            createTempDir(dir);
+            return createTempFile(dir);
         }
     }
 
-    private void createTempDir() {
+    private static void createTempDir(final File dir) {
         assert !dir.exists();
         if (!dir.mkdirs() && !dir.exists()) {
             // Must NOT map to IOException - see
@@ -66,35 +329,270 @@ final class TempFilePool implements IOPool<FileEntry> {
         resource.release();
     }
 
+    /**
+     * Truncates the given released file and keeps it for reuse or deletes it
+     * if there are too many idle files already.
+     */
+    private void recycle(final Buffer buffer, final File file)
+    throws IOException {
+        final long length = file.length();
+        boolean keep;
+        synchronized (this) {
+            released(buffer, length);
+            keep = keep();
+        }
+        if (keep && truncate(file, length)) {
+            final long now = System.currentTimeMillis();
+            synchronized (this) {
+                keep = keep();
+                if (keep) {
+                    idle.push(new Idle(file, buffer.stripe, now));
+                    sweep();
+                }
+            }
+            if (keep) {
+                expire(now);
+                return;
+            }
+        }
+        delete(file);
+    }
+
+    /**
+     * Returns {@code true} if a released file may get kept for reuse.
+     * This requires the shutdown hook to be in place and not yet run.
+     */
+    private boolean keep() {
+        assert Thread.holdsLock(this);
+        return hooked && !closed && idle.size() < maxIdle;
+    }
+
+    /** Starts a {@link Sweeper} thread unless one is running already. */
+    private void sweep() {
+        assert Thread.holdsLock(this);
+        if (sweeping)
+            return;
+        new Sweeper().start();
+        sweeping = true;
+    }
+
+    /** Discards the given released file. */
+    private void discard(final Buffer buffer, final File file)
+    throws IOException {
+        final long length = file.length();
+        synchronized (this) {
+            released(buffer, length);
+        }
+        delete(file);
+    }
+
+    /** Accounts for the given released buffer. */
+    private void released(final Buffer buffer, final long length) {
+        assert Thread.holdsLock(this);
+        live.remove(buffer);
+        buffer.stripe.live--;
+        releasedFiles++;
+        releasedBytes += length;
+    }
+
+    /**
+     * Truncates the given file with the given length.
+     * Returns {@code false} if the file does not exist anymore or cannot get
+     * truncated.
+     */
+    private static boolean truncate(final File file, final long length) {
+        if (0 == length)
+            return file.isFile();
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(0);
+            } finally {
+                raf.close();
+            }
+            return true;
+        } catch (final IOException ex) {
+            return false;
+        }
+    }
+
+    private static void delete(final File file) throws IOException {
+        if (!file.delete() && file.exists())
+            throw new IOException(file + " (cannot delete temporary file)");
+    }
+
+    /**
+     * Deletes the idle files which have been released before the given time
+     * minus {@link #IDLE_TIMEOUT}.
+     */
+    private void expire(final long now) {
+        List<File> expired = null;
+        synchronized (this) {
+            for (Idle i; null != (i = idle.peekLast())
+                    && IDLE_TIMEOUT <= now - i.time; ) {
+                idle.pollLast();
+                if (null == expired)
+                    expired = new ArrayList<File>();
+                expired.add(i.file);
+            }
+        }
+        if (null != expired)
+            for (final File file : expired)
+                file.delete();
+    }
+
+    /** Returns the number of allocated and not yet released buffers. */
+    synchronized int getLiveEntries() {
+        return live.size();
+    }
+
+    /** Returns the total size of the allocated and not yet released buffers. */
+    long getLiveBytes() {
+        final Buffer[] buffers;
+        synchronized (this) {
+            buffers = live.toArray(new Buffer[live.size()]);
+        }
+        long bytes = 0;
+        for (final Buffer buffer : buffers)
+            if (null != buffer)
+                bytes += buffer.getFile().length();
+        return bytes;
+    }
+
+    /** Returns the number of idle files which are kept for reuse. */
+    synchronized int getIdleEntries() {
+        return idle.size();
+    }
+
+    /** Returns the total number of allocations. */
+    synchronized long getAllocations() {
+        return allocations;
+    }
+
+    /** Returns the number of allocations which have reused an idle file. */
+    synchronized long getReuses() {
+        return reuses;
+    }
+
+    /**
+     * Returns the number of allocations per second, measured over the last
+     * completed interval of at least one second.
+     */
+    synchronized double getAllocationRate() {
+        return rate;
+    }
+
+    /**
+     * A daemon thread which deletes the idle files when they expire.
+     * It terminates when there are no more idle files.
+     */
+    private final class Sweeper extends Thread {
+        Sweeper() {
+            super(ThreadGroups.getServerThreadGroup(),
+                    Sweeper.class.getName());
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final long now = System.currentTimeMillis();
+                    final long wait;
+                    synchronized (TempFilePool.this) {
+                        final Idle oldest = idle.peekLast();
+                        if (null == oldest || closed) {
+                            sweeping = false;
+                            return;
+                        }
+                        wait = oldest.time + IDLE_TIMEOUT - now;
+                    }
+                    if (0 < wait)
+                        Thread.sleep(wait);
+                    else
+                        expire(now);
+                }
+            } catch (final InterruptedException ex) {
+                synchronized (TempFilePool.this) {
+                    sweeping = false;
+                }
+            }
+        }
+    } // Sweeper
+
+    /** A directory for temporary files. */
+    private static final class Stripe {
+        /** The directory or {@code null} for the default directory. */
+        final File dir;
+
+        /** The number of allocated and not yet released files. */
+        int live;
+
+        private long usableSpace, usableTime;
+
+        Stripe(final File dir) {
+            this.dir = dir;
+        }
+
+        /** Returns the usable space of the directory. */
+        long usableSpace(final long now) {
+            if (SPACE_INTERVAL <= now - usableTime) {
+                final File dir = null != this.dir
+                        ? this.dir
+                        : new File(System.getProperty("java.io.tmpdir"));
+                usableSpace = dir.getUsableSpace();
+                usableTime = now;
+            }
+            return usableSpace;
+        }
+    } // Stripe
+
+    /** An idle temp file. */
+    private static final class Idle {
+        final File file;
+        final Stripe stripe;
+        final long time;
+
+        Idle(final File file, final Stripe stripe, final long time) {
+            this.file = file;
+            this.stripe = stripe;
+            this.time = time;
+        }
+    } // Idle
+
     /** A temp file pool entry. */
     private static final class Buffer
     extends FileEntry
     implements Entry<FileEntry> {
 
-        Buffer(File file, final TempFilePool pool) {
+        final Stripe stripe;
+
+        Buffer(File file, final TempFilePool pool, final Stripe stripe) {
             super(file);
             assert null != file;
             assert null != pool;
+            assert null != stripe;
             this.pool = pool;
+            this.stripe = stripe;
         }
 
-        @Override public void release() throws IOException { pool(null); }
-
-        private void pool(final TempFilePool newPool)
-        throws IOException {
-            final TempFilePool oldPool = this.pool;
-            this.pool = newPool;
-            if (oldPool != newPool) {
-                final File file = getFile();
-                if (!file.delete() && file.exists())
-                    throw new IOException(file + " (cannot delete temporary file)");
-            }
+        @Override public void release() throws IOException {
+            final TempFilePool pool = this.pool;
+            this.pool = null;
+            if (null != pool)
+                pool.recycle(this, getFile());
         }
 
         @Override
         protected void finalize() throws Throwable {
-            try { pool(null); }
-            finally { super.finalize(); }
+            try {
+                final TempFilePool pool = this.pool;
+                this.pool = null;
+                if (null != pool)
+                    pool.discard(this, getFile());
+            } finally {
+                super.finalize();
+            }
         }
     } // Buffer
 }
@@ -4,18 +4,118 @@
  */
 package de.schlichtherle.truezip.fs.file;
 
+import de.schlichtherle.truezip.fs.file.TempFilePool.Placement;
 import de.schlichtherle.truezip.socket.IOPool;
 import de.schlichtherle.truezip.socket.spi.IOPoolService;
+import java.io.File;
 
 /**
- * Contains {@link TempFilePool#INSTANCE}.
+ * Contains {@link TempFilePool#INSTANCE} or a temp file pool which stripes
+ * its temporary files across the given directories.
+ * These pools keep up to {@value TempFilePool#MAX_IDLE} released temporary
+ * files for reuse.
+ * Their usage can get monitored by the methods of this class.
  *
  * @author Christian Schlichtherle
  */
 public final class TempFilePoolService extends IOPoolService {
 
+    private final TempFilePool pool;
+
+    /**
+     * Constructs a new temp file pool service which provides the default
+     * instance.
+     * The directories for its temporary files can get configured by the
+     * system property {@code de.schlichtherle.truezip.fs.file.tempDirs}.
+     */
+    public TempFilePoolService() {
+        this.pool = TempFilePool.INSTANCE;
+    }
+
+    /**
+     * Constructs a new temp file pool service which provides a new pool.
+     * This pool stripes its temporary files across the given directories.
+     *
+     * @param freeSpace if {@code true}, then a new temporary file gets placed
+     *        in the directory with the most usable space minus bytes in
+     *        flight.
+     *        Otherwise, it gets placed in the directory with the least bytes
+     *        in flight.
+     *        In both cases, ties get broken in round-robin order.
+     * @param dirs the directories for the temporary files.
+     */
+    public TempFilePoolService(final boolean freeSpace, final File... dirs) {
+        this.pool = new TempFilePool(
+                dirs.clone(),
+                null,
+                TempFilePool.MAX_IDLE,
+                freeSpace ? Placement.FREE_SPACE : Placement.ROUND_ROBIN);
+    }
+
     @Override
     public IOPool<?> get() {
-        return TempFilePool.INSTANCE;
+        return pool;
+    }
+
+    /**
+     * Returns the number of allocated and not yet released temporary files.
+     *
+     * @return The number of allocated and not yet released temporary files.
+     */
+    public int getLiveEntries() {
+        return pool.getLiveEntries();
+    }
+
+    /**
+     * Returns the total size of the allocated and not yet released temporary
+     * files.
+     * This method needs to query the size of each of these files.
+     *
+     * @return The total size of the allocated and not yet released temporary
+     *         files.
+     */
+    public long getLiveBytes() {
+        return pool.getLiveBytes();
+    }
+
+    /**
+     * Returns the number of released temporary files which are kept for
+     * reuse.
+     *
+     * @return The number of released temporary files which are kept for
+     *         reuse.
+     */
+    public int getIdleEntries() {
+        return pool.getIdleEntries();
+    }
+
+    /**
+     * Returns the total number of allocations.
+     *
+     * @return The total number of allocations.
+     */
+    public long getAllocations() {
+        return pool.getAllocations();
+    }
+
+    /**
+     * Returns the number of allocations which have reused a released
+     * temporary file instead of creating a new one.
+     *
+     * @return The number of allocations which have reused a released
+     *         temporary file.
+     */
+    public long getReuses() {
+        return pool.getReuses();
+    }
+
+    /**
+     * Returns the number of allocations per second, measured over the last
+     * completed interval of at least one second.
+     *
+     * @return The number of allocations per second.
+     */
+    public double getAllocationRate() {
+        return pool.getAllocationRate();
     }
 }
@@ -4,15 +4,34 @@
  */
 package de.schlichtherle.truezip.fs.sl;
 
+import de.schlichtherle.truezip.fs.FsCacheLimits;
 import de.schlichtherle.truezip.fs.FsDefaultManager;
 import de.schlichtherle.truezip.fs.FsManager;
 import de.schlichtherle.truezip.fs.FsManagerProvider;
+import de.schlichtherle.truezip.fs.FsSyncScheduler;
 import de.schlichtherle.truezip.fs.spi.FsManagerService;
 
 /**
  * Locates a file system manager service.
+ * <p>
+ * The limits for the selective entry cache of the default file system
+ * manager can get configured by the system properties
+ * {@code de.schlichtherle.truezip.fs.cacheMaxEntries} and
+ * {@code de.schlichtherle.truezip.fs.cacheMaxBytes}.
+ * By default, the cache is unlimited.
+ * <p>
+ * Background synchronization of changed archive file systems can get enabled
+ * by setting any of the system properties
+ * {@code de.schlichtherle.truezip.fs.syncMaxDirtyMillis},
+ * {@code de.schlichtherle.truezip.fs.syncMaxDirtyBytes} or
+ * {@code de.schlichtherle.truezip.fs.syncMaxIdleMillis}.
+ * The system property
+ * {@code de.schlichtherle.truezip.fs.syncMinIntervalMillis} limits the rate
+ * of these synchronizations and defaults to one second.
+ * By default, there is no background synchronization.
  *
  * @see    FsDefaultManager
+ * @see    FsSyncScheduler
  * @see    FsManagerService
  * @author Christian Schlichtherle
  */
@@ -45,7 +64,24 @@ public final class FsManagerLocator implements FsManagerProvider {
     private static final class DefaultManagerService extends FsManagerService {
         @Override
         public FsManager get() {
-            return new FsDefaultManager();
+            final String prefix = FsManager.class.getPackage().getName();
+            final FsCacheLimits cacheLimits = new FsCacheLimits(
+                    Integer.getInteger(prefix + ".cacheMaxEntries",
+                        Integer.MAX_VALUE),
+                    Long.getLong(prefix + ".cacheMaxBytes", Long.MAX_VALUE));
+            final long maxDirtyMillis = Long.getLong(
+                    prefix + ".syncMaxDirtyMillis", Long.MAX_VALUE);
+            final long maxDirtyBytes = Long.getLong(
+                    prefix + ".syncMaxDirtyBytes", Long.MAX_VALUE);
+            final long maxIdleMillis = Long.getLong(
+                    prefix + ".syncMaxIdleMillis", Long.MAX_VALUE);
+            if (Long.MAX_VALUE == maxDirtyMillis
+                    && Long.MAX_VALUE == maxDirtyBytes
+                    && Long.MAX_VALUE == maxIdleMillis)
+                return new FsDefaultManager(cacheLimits);
+            return new FsDefaultManager(cacheLimits, new FsSyncScheduler(
+                    maxDirtyMillis, maxDirtyBytes, maxIdleMillis,
+                    Long.getLong(prefix + ".syncMinIntervalMillis", 1000)));
         }
     } // DefaultManagerService
 }
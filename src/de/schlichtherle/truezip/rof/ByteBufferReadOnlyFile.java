@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ReadOnlyFile} implementation which reads the remaining content of
+ * a {@link ByteBuffer}, e.g. a view of a {@link MappedReadOnlyFile}.
+ * <p>
+ * Reading from this read only file copies the content of the byte buffer
+ * only once into the client's byte array.
+ * Clients which can process a byte buffer may use
+ * {@link #getByteBuffer()} in order to avoid even this copy.
+ *
+ * @author Christian Schlichtherle
+ */
+public class ByteBufferReadOnlyFile extends AbstractReadOnlyFile {
+
+    /**
+     * The byte buffer with the content of this read only file or
+     * {@code null} if this read only file has been closed.
+     * Its position is the file pointer.
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Constructs a new byte buffer read only file.
+     * The content of this read only file is the content between the position
+     * and the limit of the given buffer.
+     * The given buffer is not modified.
+     *
+     * @param buffer the byte buffer to read.
+     */
+    public ByteBufferReadOnlyFile(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * Asserts that this file is open.
+     *
+     * @throws IOException If the preconditions do not hold.
+     */
+    protected final void assertOpen() throws IOException {
+        if (null == buffer)
+            throw new IOException("File is closed!");
+    }
+
+    /**
+     * Returns a new read only view of the entire content of this read only
+     * file.
+     * The position of the returned buffer is zero and its limit is the
+     * length of this read only file.
+     *
+     * @return A new read only view of the entire content of this read only
+     *         file.
+     * @throws IOException If this read only file has been closed.
+     */
+    public ByteBuffer getByteBuffer() throws IOException {
+        assertOpen();
+        final ByteBuffer bb = buffer.asReadOnlyBuffer();
+        bb.rewind();
+        return bb;
+    }
+
+    @Override
+    public long length() throws IOException {
+        assertOpen();
+        return buffer.limit();
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        assertOpen();
+        return buffer.position();
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        assertOpen();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        final int length = buffer.limit();
+        if (pos > length)
+            throw new IOException("File pointer (" + pos
+                    + ") is larger than file length (" + length + ")!");
+        buffer.position((int) pos);
+    }
+
+    @Override
+    public int read() throws IOException {
+        assertOpen();
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, int len)
+    throws IOException {
+        // Check no-op first for compatibility with RandomAccessFile.
+        if (0 >= len)
+            return 0;
+        assertOpen();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        final int remaining = buffer.remaining();
+        if (0 >= remaining)
+            return -1;
+        if (len > remaining)
+            len = remaining;
+        buffer.get(buf, off, len);
+        return len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = null;
+    }
+}
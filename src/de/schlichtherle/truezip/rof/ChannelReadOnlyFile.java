@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link ReadOnlyFile} implementation which uses positional reads on a
+ * {@link FileChannel}.
+ * <p>
+ * Unlike with {@link DefaultReadOnlyFile}, the file pointer of this class is
+ * a virtual file pointer which is not shared with the underlying file
+ * channel.
+ * Thus, any number of {@link #duplicate() duplicates} of this read only file
+ * may concurrently read the same file channel without the need to
+ * synchronize on a shared file pointer.
+ * Each duplicate must still be confined to a single thread, however.
+ *
+ * @author Christian Schlichtherle
+ */
+public class ChannelReadOnlyFile extends AbstractReadOnlyFile {
+
+    private final FileChannel channel;
+
+    /** The resource to close or {@code null} if this is a duplicate. */
+    private final Closeable resource;
+
+    /** The virtual file pointer. */
+    private long pos;
+
+    private boolean closed;
+
+    /** The buffer for {@link #read()}. */
+    private final byte[] single = new byte[1];
+
+    /**
+     * Constructs a new channel read only file.
+     *
+     * @param  file the file to read.
+     * @throws FileNotFoundException if the file cannot get opened for reading.
+     */
+    public ChannelReadOnlyFile(final File file) throws FileNotFoundException {
+        this(new FileInputStream(file));
+    }
+
+    private ChannelReadOnlyFile(final FileInputStream in) {
+        this(in.getChannel(), in);
+    }
+
+    /**
+     * Constructs a new channel read only file.
+     * Closing this read only file closes the given channel.
+     *
+     * @param channel the file channel to read.
+     */
+    public ChannelReadOnlyFile(FileChannel channel) {
+        this(channel, channel);
+    }
+
+    private ChannelReadOnlyFile(
+            final FileChannel channel,
+            final Closeable resource) {
+        if (null == channel)
+            throw new NullPointerException();
+        this.channel = channel;
+        this.resource = resource;
+    }
+
+    /**
+     * Returns a new read only file which shares the file channel with this
+     * read only file, but has its own file pointer.
+     * The file pointer of the duplicate is initially zero.
+     * Closing the duplicate does not close the file channel, but closing
+     * the read only file which has been constructed with the file channel
+     * invalidates all of its duplicates.
+     *
+     * @return A new read only file which shares the file channel with this
+     *         read only file.
+     * @throws IOException If this read only file has been closed.
+     */
+    public ChannelReadOnlyFile duplicate() throws IOException {
+        assertOpen();
+        return new ChannelReadOnlyFile(channel, null);
+    }
+
+    /**
+     * Asserts that this file is open.
+     *
+     * @throws IOException If the preconditions do not hold.
+     */
+    private void assertOpen() throws IOException {
+        if (closed)
+            throw new IOException("File is closed!");
+    }
+
+    @Override
+    public long length() throws IOException {
+        assertOpen();
+        return channel.size();
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        assertOpen();
+        return pos;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        assertOpen();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        this.pos = pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return 1 == read(single, 0, 1) ? single[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, final int len)
+    throws IOException {
+        // Check no-op first for compatibility with RandomAccessFile.
+        if (0 >= len)
+            return 0;
+        assertOpen();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        final ByteBuffer bb = ByteBuffer.wrap(buf, off, len);
+        int read;
+        do {
+            read = channel.read(bb, pos);
+        } while (0 == read);
+        if (0 < read)
+            pos += read;
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (null != resource)
+            resource.close();
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.rof;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * A {@link ReadOnlyFile} implementation which maps the file into memory.
+ * <p>
+ * The file gets mapped lazily in chunks of up to {@link #CHUNK_LEN} bytes,
+ * so that files which are larger than a single mapping are supported, too.
+ * If mapping a chunk fails, e.g. because the virtual address space is
+ * exhausted, then this read only file falls back to positional reads on the
+ * underlying file channel.
+ * <p>
+ * Like with {@link ChannelReadOnlyFile}, any number of
+ * {@link #duplicate() duplicates} of this read only file may concurrently
+ * read the same file.
+ * The duplicates share the mapped chunks of the file, but each duplicate
+ * has its own file pointer and must still be confined to a single thread.
+ * <p>
+ * Note that the length of the file gets determined once when it's opened.
+ * Concurrent changes to the length of the file are not reflected.
+ *
+ * @author Christian Schlichtherle
+ */
+public class MappedReadOnlyFile extends AbstractReadOnlyFile {
+
+    /** The default maximum length of a mapped chunk of the file. */
+    public static final int CHUNK_LEN = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final long length;
+    private final int chunkLen;
+
+    /**
+     * The lazily mapped chunks of the file.
+     * This is shared with all duplicates.
+     * The position and limit of the chunks never change, so that they can
+     * get read concurrently.
+     */
+    private final AtomicReferenceArray<ByteBuffer> chunks;
+
+    /** The read only file which has been constructed with the file channel. */
+    private final MappedReadOnlyFile origin;
+
+    /** Whether or not the file can get mapped. */
+    private volatile boolean mappable = true;
+
+    /** The virtual file pointer. */
+    private long pos;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructs a new mapped read only file.
+     *
+     * @param  file the file to read.
+     * @throws FileNotFoundException if the file cannot get opened for reading.
+     * @throws IOException on any other I/O error.
+     */
+    public MappedReadOnlyFile(File file) throws IOException {
+        this(file, CHUNK_LEN);
+    }
+
+    /**
+     * Constructs a new mapped read only file.
+     *
+     * @param  file the file to read.
+     * @param  chunkLen the maximum length of a mapped chunk of the file.
+     * @throws FileNotFoundException if the file cannot get opened for reading.
+     * @throws IOException on any other I/O error.
+     */
+    public MappedReadOnlyFile(
+            final File file,
+            final int chunkLen)
+    throws IOException {
+        if (0 >= chunkLen)
+            throw new IllegalArgumentException();
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            this.channel = in.getChannel();
+            this.length = channel.size();
+            this.chunkLen = chunkLen;
+            this.chunks = new AtomicReferenceArray<ByteBuffer>(
+                    (int) ((length + chunkLen - 1) / chunkLen));
+            this.origin = this;
+        } catch (final IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    private MappedReadOnlyFile(final MappedReadOnlyFile origin) {
+        this.channel = origin.channel;
+        this.length = origin.length;
+        this.chunkLen = origin.chunkLen;
+        this.chunks = origin.chunks;
+        this.mappable = origin.mappable;
+        this.origin = origin;
+    }
+
+    /**
+     * Returns a new read only file which shares the file channel and the
+     * mapped chunks with this read only file, but has its own file pointer.
+     * The file pointer of the duplicate is initially zero.
+     * Closing the duplicate does not close the file channel, but closing
+     * the read only file which has been constructed with the file invalidates
+     * all of its duplicates.
+     *
+     * @return A new read only file which shares the file channel and the
+     *         mapped chunks with this read only file.
+     * @throws IOException If this read only file has been closed.
+     */
+    public MappedReadOnlyFile duplicate() throws IOException {
+        assertOpen();
+        return new MappedReadOnlyFile(origin);
+    }
+
+    /**
+     * Asserts that this file is open.
+     *
+     * @throws IOException If the preconditions do not hold.
+     */
+    protected final void assertOpen() throws IOException {
+        if (closed || origin.closed)
+            throw new IOException("File is closed!");
+    }
+
+    @Override
+    public long length() throws IOException {
+        assertOpen();
+        return length;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        assertOpen();
+        return pos;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        assertOpen();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        final long length = this.length;
+        if (pos > length)
+            throw new IOException("File pointer (" + pos
+                    + ") is larger than file length (" + length + ")!");
+        this.pos = pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        // Check state.
+        assertOpen();
+        final long pos = this.pos;
+        if (pos >= length)
+            return -1;
+
+        // Operate.
+        final ByteBuffer chunk = chunk((int) (pos / chunkLen));
+        final int read;
+        if (null != chunk) {
+            read = chunk.get((int) (pos % chunkLen)) & 0xff;
+        } else {
+            final ByteBuffer bb = ByteBuffer.allocate(1);
+            if (1 != channel.read(bb, pos))
+                return -1;
+            read = bb.get(0) & 0xff;
+        }
+
+        // Update state.
+        this.pos = pos + 1;
+        return read;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, int len)
+    throws IOException {
+        // Check no-op first for compatibility with RandomAccessFile.
+        if (0 >= len)
+            return 0;
+
+        // Check state.
+        assertOpen();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        final long pos = this.pos;
+        final long available = length - pos;
+        if (0 >= available)
+            return -1;
+        if (len > available)
+            len = (int) available;
+
+        // Operate.
+        // Like RandomAccessFile, fill the buffer across chunk boundaries
+        // because some clients treat a short read like the end of the file.
+        int total = 0;
+        do {
+            final long fp = pos + total;
+            final int read;
+            final ByteBuffer chunk = chunk((int) (fp / chunkLen));
+            if (null != chunk) {
+                final int chunkPos = (int) (fp % chunkLen);
+                read = Math.min(len - total, chunk.limit() - chunkPos);
+                final ByteBuffer bb = chunk.duplicate();
+                bb.position(chunkPos);
+                bb.get(buf, off + total, read);
+            } else {
+                read = channel.read(
+                        ByteBuffer.wrap(buf, off + total, len - total), fp);
+                if (0 > read)
+                    break;
+            }
+            total += read;
+        } while (total < len);
+        if (0 >= total)
+            return -1;
+
+        // Update state.
+        this.pos = pos + total;
+        return total;
+    }
+
+    /**
+     * Returns a read only view of the given region of the file.
+     * If the region is contained in a single mapped chunk, then the view is
+     * a slice of this chunk.
+     * Otherwise, the region gets mapped separately.
+     *
+     * @param  position the position of the region in the file.
+     * @param  size the size of the region.
+     * @return A read only view of the given region of the file.
+     * @throws IllegalArgumentException if the region is not contained in the
+     *         file.
+     * @throws IOException if the region cannot get mapped.
+     */
+    public ByteBuffer map(final long position, final int size)
+    throws IOException {
+        assertOpen();
+        if (0 > position || 0 > size || length - size < position)
+            throw new IllegalArgumentException();
+        if (0 == size)
+            return ByteBuffer.allocate(0).asReadOnlyBuffer();
+        final int chunkPos = (int) (position % chunkLen);
+        final ByteBuffer chunk = chunk((int) (position / chunkLen));
+        if (null != chunk && chunk.limit() - size >= chunkPos) {
+            final ByteBuffer bb = chunk.asReadOnlyBuffer();
+            bb.limit(chunkPos + size);
+            bb.position(chunkPos);
+            return bb.slice();
+        }
+        return channel.map(READ_ONLY, position, size);
+    }
+
+    /**
+     * Returns the mapped chunk with the given index or {@code null} if the
+     * file cannot get mapped.
+     */
+    private ByteBuffer chunk(final int i) {
+        final ByteBuffer chunk = chunks.get(i);
+        if (null != chunk || !mappable)
+            return chunk;
+        final long start = (long) i * chunkLen;
+        try {
+            chunks.compareAndSet(i, null, channel.map(READ_ONLY, start,
+                    Math.min(chunkLen, length - start)));
+        } catch (final IOException ex) {
+            // Most likely out of virtual address space.
+            mappable = false;
+            return null;
+        }
+        return chunks.get(i);
+    }
+
+    /**
+     * Closes this read only file.
+     * If this read only file has been constructed with the file, then this
+     * closes the file channel and invalidates all duplicates.
+     * Note that the mapped chunks of the file only get unmapped when they
+     * get garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (this != origin)
+            return;
+        for (int i = chunks.length(); 0 <= --i; )
+            chunks.set(i, null);
+        channel.close();
+    }
+}
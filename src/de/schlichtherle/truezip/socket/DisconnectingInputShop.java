@@ -30,7 +30,7 @@ extends DecoratingInputShop<E, InputShop<E>> {
 
     private static final SocketFactory SOCKET_FACTORY = SocketFactory.OIO;
 
-    private boolean closed;
+    private volatile boolean closed;
 
     /**
      * Constructs a disconnecting input shop.
@@ -36,6 +36,12 @@ import java.io.*;
  * <p>
  * Note that you need to call `configure` before you can do any input or
  * output.
+ * <p>
+ * This class is thread-safe, so concurrent read operations may get served
+ * from the same cache.
+ * However, populating, flushing or clearing the cache requires I/O on the
+ * backing store, so the caller should still serialize these operations with
+ * respect to the backing store.
  *
  * @author Christian Schlichtherle
  */
@@ -45,8 +51,8 @@ public final class IOCache implements Flushable, Closeable {
 
     private final Strategy strategy;
     private final IOPool<?> pool;
-    private InputSocket<?> input;
-    private OutputSocket<?> output;
+    private volatile InputSocket<?> input;
+    private volatile OutputSocket<?> output;
     private InputBufferPool inputBufferPool;
     private OutputBufferPool outputBufferPool;
     private Buffer buffer;
@@ -81,7 +87,7 @@ public final class IOCache implements Flushable, Closeable {
      *         backing store.
      * @return {@code this}
      */
-    public IOCache configure(final InputSocket<?> input) {
+    public synchronized IOCache configure(final InputSocket<?> input) {
         if (null == input) throw new NullPointerException();
         this.input = input;
         return this;
@@ -100,7 +106,7 @@ public final class IOCache implements Flushable, Closeable {
      *         backing store.
      * @return {@code this}
      */
-    public IOCache configure(final OutputSocket<?> output) {
+    public synchronized IOCache configure(final OutputSocket<?> output) {
         if (null == output) throw new NullPointerException();
         this.output = output;
         return this;
@@ -114,7 +120,7 @@ public final class IOCache implements Flushable, Closeable {
      * changed entry data immediately, so calling this method has no effect.
      */
     @Override
-    public void flush() throws IOException {
+    public synchronized void flush() throws IOException {
         final Buffer buffer = getBuffer();
         if (null != buffer) getOutputBufferPool().release(buffer);
     }
@@ -124,7 +130,7 @@ public final class IOCache implements Flushable, Closeable {
      *
      * @throws IOException on any I/O failure.
      */
-    public void clear() throws IOException {
+    public synchronized void clear() throws IOException {
         setBuffer(null);
     }
 
@@ -138,7 +144,7 @@ public final class IOCache implements Flushable, Closeable {
         clear();
     }
 
-    public Entry getEntry() {
+    public synchronized Entry getEntry() {
         Buffer buffer = getBuffer();
         return null == buffer ? null : buffer.data;
     }
@@ -157,23 +163,23 @@ public final class IOCache implements Flushable, Closeable {
      */
     public OutputSocket<?> getOutputSocket() { return new Output(); }
 
-    private InputBufferPool getInputBufferPool() {
+    private synchronized InputBufferPool getInputBufferPool() {
         final InputBufferPool ibp = inputBufferPool;
         return null != ibp
                 ? ibp
                 : (inputBufferPool = strategy.newInputBufferPool(this));
     }
 
-    private OutputBufferPool getOutputBufferPool() {
+    private synchronized OutputBufferPool getOutputBufferPool() {
         final OutputBufferPool obp = outputBufferPool;
         return null != obp
                 ? obp
                 : (outputBufferPool = strategy.newOutputBufferPool(this));
     }
 
-    private Buffer getBuffer() { return buffer; }
+    private synchronized Buffer getBuffer() { return buffer; }
 
-    private void setBuffer(final Buffer newBuffer)
+    private synchronized void setBuffer(final Buffer newBuffer)
     throws IOException {
         final Buffer oldBuffer = this.buffer;
         if (oldBuffer != newBuffer) {
@@ -277,44 +283,68 @@ public final class IOCache implements Flushable, Closeable {
 
     private final class InputBufferPool implements Pool<Buffer, IOException> {
         @Override public Buffer allocate() throws IOException {
-            Buffer buffer = getBuffer();
-            if (null == buffer) {
-                buffer = new Buffer();
-                try {
-                    IOSocket.copy(input, buffer.data.getOutputSocket());
-                } catch (IOException ex) {
-                    buffer.release();
-                    throw ex;
-                }
-                setBuffer(buffer);
+            synchronized (IOCache.this) {
+                final Buffer buffer = getBuffer();
+                if (null != buffer)
+                    return read(buffer);
+            }
+            // Populate a new buffer without holding the monitor, so that
+            // this doesn't block any concurrent readers.
+            final Buffer newBuffer = new Buffer();
+            try {
+                IOSocket.copy(input, newBuffer.data.getOutputSocket());
+            } catch (IOException ex) {
+                newBuffer.release();
+                throw ex;
+            }
+            final Buffer buffer;
+            synchronized (IOCache.this) {
+                final Buffer oldBuffer = getBuffer();
+                if (null == oldBuffer)
+                    setBuffer(newBuffer);
+                buffer = read(null != oldBuffer ? oldBuffer : newBuffer);
             }
+            if (buffer != newBuffer)
+                newBuffer.release();
+            return buffer;
+        }
+
+        /** Registers a reader of the given buffer. */
+        private Buffer read(final Buffer buffer) {
+            assert Thread.holdsLock(IOCache.this);
             assert Strategy.WRITE_BACK == strategy || 0 == buffer.writers;
             buffer.readers++;
             return buffer;
         }
 
         @Override public void release(final Buffer buffer) throws IOException {
-            assert Strategy.WRITE_BACK == strategy || 0 == buffer.writers;
-            if (0 < buffer.readers) {
-                buffer.readers--;
-                if (0 == buffer.readers && 0 == buffer.writers &&
-                        getBuffer() != buffer)
-                    buffer.release();
+            synchronized (IOCache.this) {
+                assert Strategy.WRITE_BACK == strategy || 0 == buffer.writers;
+                if (0 < buffer.readers) {
+                    buffer.readers--;
+                    if (0 == buffer.readers && 0 == buffer.writers &&
+                            getBuffer() != buffer)
+                        buffer.release();
+                }
             }
         }
     } // InputBufferPool
 
     private final class WriteThroughOutputBufferPool extends OutputBufferPool {
         @Override public void release(Buffer buffer) throws IOException {
-            if (0 != buffer.writers) super.release(buffer);
+            synchronized (IOCache.this) {
+                if (0 != buffer.writers) super.release(buffer);
+            }
         }
     } // WriteThroughOutputBufferPool
 
     private final class WriteBackOutputBufferPool extends OutputBufferPool {
         @Override public void release(final Buffer buffer) throws IOException {
-            if (0 != buffer.writers) {
-                if (getBuffer() != buffer)  setBuffer(buffer);
-                else                        super.release(buffer);
+            synchronized (IOCache.this) {
+                if (0 != buffer.writers) {
+                    if (getBuffer() != buffer)  setBuffer(buffer);
+                    else                        super.release(buffer);
+                }
             }
         }
     } // WriteBackOutputBufferPool
@@ -323,16 +353,20 @@ public final class IOCache implements Flushable, Closeable {
     implements Pool<Buffer, IOException> {
         @Override public Buffer allocate() throws IOException {
             final Buffer buffer = new Buffer();
-            assert 0 == buffer.readers;
-            buffer.writers = 1;
+            synchronized (IOCache.this) {
+                assert 0 == buffer.readers;
+                buffer.writers = 1;
+            }
             return buffer;
         }
 
         @Override public void release(final Buffer buffer) throws IOException {
-            assert Strategy.WRITE_BACK == strategy || 0 == buffer.readers;
-            buffer.writers = 0;
-            try { IOSocket.copy(buffer.data.getInputSocket(), output); }
-            finally { setBuffer(buffer); }
+            synchronized (IOCache.this) {
+                assert Strategy.WRITE_BACK == strategy || 0 == buffer.readers;
+                buffer.writers = 0;
+                try { IOSocket.copy(buffer.data.getInputSocket(), output); }
+                finally { setBuffer(buffer); }
+            }
         }
     } // OutputBufferPool
 
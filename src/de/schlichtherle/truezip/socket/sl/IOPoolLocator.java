@@ -4,7 +4,7 @@
  */
 package de.schlichtherle.truezip.socket.sl;
 
-import de.schlichtherle.truezip.fs.file.TempFilePoolService;
+import de.schlichtherle.truezip.fs.file.MemoryPoolService;
 import de.schlichtherle.truezip.socket.IOPool;
 import de.schlichtherle.truezip.socket.IOPoolProvider;
 import de.schlichtherle.truezip.socket.spi.IOPoolService;
@@ -37,7 +37,7 @@ public final class IOPoolLocator implements IOPoolProvider {
         }
 
         private static IOPool<?> create() {
-            IOPoolService service = new TempFilePoolService();
+            IOPoolService service = new MemoryPoolService();
             final IOPool<?> pool = service.get();
             return pool;
         }
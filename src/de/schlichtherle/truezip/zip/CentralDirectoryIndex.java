@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import static de.schlichtherle.truezip.zip.Constants.CFH_MIN_LEN;
+import static de.schlichtherle.truezip.zip.Constants.CFH_SIG;
+import static de.schlichtherle.truezip.zip.LittleEndian.readUInt;
+import static de.schlichtherle.truezip.zip.LittleEndian.readUShort;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.zip.ZipException;
+
+/**
+ * A map from entry names to ZIP entries which stores the records of the
+ * central directory of a ZIP file in a packed form and creates the ZIP
+ * entries on demand.
+ * <p>
+ * Each Central File Header record gets appended verbatim to a shared byte
+ * pool.
+ * The records get indexed by the hash code of their entry name in an open
+ * addressing hash table of primitive integers.
+ * This requires only a fraction of the heap which is required by a
+ * {@link LinkedHashMap} with a {@link ZipEntry} per record.
+ * In exchange, each call to {@link #get} or each iteration step creates a
+ * new ZIP entry, so clients must not rely on the identity of the entries.
+ * <p>
+ * Entries which get {@link #put} into this map, e.g. when recovering lost
+ * entries, are kept in a conventional map.
+ * Iterations return the packed entries in the order of the central directory,
+ * followed by the entries which have been {@link #put} into this map.
+ * <p>
+ * This class is <em>not</em> thread-safe.
+ *
+ * @param  <E> the type of the ZIP entries.
+ * @see    ZipIndexParameters
+ * @author Christian Schlichtherle
+ */
+abstract class CentralDirectoryIndex<E extends ZipEntry>
+extends AbstractMap<String, E> {
+
+    private static final int REMOVED = -1;
+
+    /** The pool of Central File Header records. */
+    private byte[] pool;
+
+    /** The number of bytes used in the pool. */
+    private int poolLen;
+
+    /**
+     * The offsets of the records in the pool in the order of the central
+     * directory or {@link #REMOVED}.
+     */
+    private int[] offsets;
+
+    /** The hash codes of the entry names of the records. */
+    private int[] hashes;
+
+    /** The records which have been decoded using UTF-8. */
+    private final BitSet utf8 = new BitSet();
+
+    /** The number of used slots in {@link #offsets} and {@link #hashes}. */
+    private int slots;
+
+    /** The number of removed slots. */
+    private int removed;
+
+    /** The hash table with slot indexes plus one or zero if empty. */
+    private int[] table;
+
+    /** The entries which have been {@link #put} into this map. */
+    private final Map<String, E> overflow = new LinkedHashMap<String, E>();
+
+    /**
+     * Constructs a new central directory index.
+     *
+     * @param expected the expected number of records.
+     */
+    CentralDirectoryIndex(int expected) {
+        // Don't trust the expected number of records - it's read from the
+        // ZIP file.
+        expected = Math.min(Math.max(expected, 16), 1 << 20);
+        this.pool = new byte[expected * 64];
+        this.offsets = new int[expected];
+        this.hashes = new int[expected];
+        int capacity = 16;
+        while (capacity < expected * 2)
+            capacity <<= 1;
+        this.table = new int[capacity];
+    }
+
+    /**
+     * Returns a new ZIP entry for the Central File Header record at the given
+     * offset in the given pool.
+     *
+     * @param  pool the pool of Central File Header records.
+     * @param  off the offset of the record in the pool.
+     * @param  utf8 whether or not the record needs to get decoded using
+     *         UTF-8 rather than the character set of the ZIP file.
+     * @return A new ZIP entry.
+     */
+    abstract E newEntry(byte[] pool, int off, boolean utf8);
+
+    /**
+     * Adds the given Central File Header record which has been parsed into
+     * the given entry.
+     * If a record with the same entry name has been added before, then it
+     * gets replaced in its position.
+     *
+     * @param cfh the buffer which holds the record.
+     * @param len the length of the record.
+     * @param entry the entry which has been parsed from the record.
+     * @param utf8 whether or not the record has been decoded using UTF-8.
+     */
+    final void add(
+            final byte[] cfh,
+            final int len,
+            final E entry,
+            final boolean utf8) {
+        final String name = entry.getName();
+        final int hash = name.hashCode();
+        int slot = slot(name, hash);
+        if (0 > slot) {
+            if (slots == offsets.length) {
+                final int capacity = slots * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                hashes = Arrays.copyOf(hashes, capacity);
+            }
+            slot = slots++;
+            hashes[slot] = hash;
+            if (slots * 2 > table.length)
+                rehash(table.length * 2);
+            else
+                insert(slot);
+        }
+        offsets[slot] = append(cfh, len);
+        this.utf8.set(slot, utf8);
+    }
+
+    private int append(final byte[] cfh, final int len) {
+        final int off = poolLen;
+        if (pool.length - off < len)
+            pool = Arrays.copyOf(pool,
+                    (int) Math.min(Integer.MAX_VALUE,
+                        Math.max(2L * pool.length, (long) off + len)));
+        System.arraycopy(cfh, 0, pool, off, len);
+        poolLen = off + len;
+        return off;
+    }
+
+    /**
+     * Trims the internal arrays to their minimum size.
+     * This should get called after all records have been added.
+     */
+    final void trim() {
+        pool = Arrays.copyOf(pool, poolLen);
+        offsets = Arrays.copyOf(offsets, slots);
+        hashes = Arrays.copyOf(hashes, slots);
+    }
+
+    /**
+     * Writes the packed records of this index to the given output.
+     * This index must not contain any entries which have been {@link #put}
+     * into it.
+     *
+     * @param  out the output to write to.
+     * @throws IOException on any I/O error.
+     * @see    #read
+     */
+    final void write(final DataOutput out) throws IOException {
+        assert 0 == removed && overflow.isEmpty();
+        final int slots = this.slots;
+        out.writeInt(slots);
+        out.writeInt(poolLen);
+        out.write(pool, 0, poolLen);
+        final ByteBuffer bb = ByteBuffer.allocate(slots * 4);
+        bb.asIntBuffer().put(offsets, 0, slots);
+        out.write(bb.array());
+        bb.clear();
+        bb.asIntBuffer().put(hashes, 0, slots);
+        out.write(bb.array());
+        out.writeInt(utf8.cardinality());
+        for (int i = utf8.nextSetBit(0); 0 <= i; i = utf8.nextSetBit(i + 1))
+            out.writeInt(i);
+    }
+
+    /**
+     * Reads the packed records which have been {@link #write written} before
+     * from the given input into this empty index.
+     * Note that this does not need to parse any records.
+     * However, the structure of the index gets checked against the given
+     * limits, so that a corrupted index gets rejected with an exception
+     * rather than causing any runtime exception later on.
+     *
+     * @param  in the input to read from.
+     * @param  maxLen the maximum number of bytes which may get read from the
+     *         input, e.g. the length of the file.
+     * @param  numEntries the number of entries in the central directory
+     *         according to its End Of Central Directory Record.
+     * @throws ZipException if the index is corrupted.
+     * @throws IOException on any other I/O error.
+     */
+    final void read(final DataInput in, final long maxLen, final int numEntries)
+    throws IOException {
+        assert 0 == slots;
+        final int slots = in.readInt();
+        final int poolLen = in.readInt();
+        // The number of entries is only a 16 bit value unless the ZIP file
+        // has a ZIP64 End Of Central Directory Record, so it may have wrapped.
+        if (0 > slots || 0 > poolLen
+                || (0x10000 <= numEntries && slots > numEntries)
+                || poolLen > maxLen
+                || (long) slots * CFH_MIN_LEN > poolLen
+                || (long) slots * 8 > maxLen - poolLen)
+            throw new ZipException("Corrupted index!");
+        final byte[] pool = new byte[poolLen];
+        in.readFully(pool);
+        final byte[] buf = new byte[slots * 4];
+        final int[] offsets = new int[slots];
+        in.readFully(buf);
+        ByteBuffer.wrap(buf).asIntBuffer().get(offsets);
+        for (final int off : offsets)
+            checkRecord(pool, off);
+        final int[] hashes = new int[slots];
+        in.readFully(buf);
+        ByteBuffer.wrap(buf).asIntBuffer().get(hashes);
+        final int utf8Count = in.readInt();
+        if (0 > utf8Count || utf8Count > slots)
+            throw new ZipException("Corrupted index!");
+        for (int i = utf8Count; 0 < i; i--) {
+            final int slot = in.readInt();
+            if (0 > slot || slot >= slots)
+                throw new ZipException("Corrupted index!");
+            utf8.set(slot);
+        }
+        this.pool = pool;
+        this.poolLen = poolLen;
+        this.offsets = offsets;
+        this.hashes = hashes;
+        this.slots = slots;
+        int capacity = 16;
+        while (capacity < slots * 2)
+            capacity <<= 1;
+        rehash(capacity);
+    }
+
+    /**
+     * Checks that the given offset refers to a complete Central File Header
+     * record in the given pool.
+     */
+    private static void checkRecord(final byte[] pool, final int off)
+    throws ZipException {
+        if (0 > off || pool.length - CFH_MIN_LEN < off
+                || CFH_SIG != readUInt(pool, off)
+                || pool.length - off - CFH_MIN_LEN
+                    < readUShort(pool, off + 28)
+                    + readUShort(pool, off + 30)
+                    + readUShort(pool, off + 32))
+            throw new ZipException("Corrupted index!");
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        return hash ^ hash >>> 13;
+    }
+
+    private void insert(final int slot) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        int i = mix(hashes[slot]) & mask;
+        while (0 != table[i])
+            i = (i + 1) & mask;
+        table[i] = slot + 1;
+    }
+
+    private void rehash(final int capacity) {
+        this.table = new int[capacity];
+        for (int slot = 0; slot < slots; slot++)
+            if (REMOVED != offsets[slot])
+                insert(slot);
+    }
+
+    /**
+     * Returns the slot of the packed record with the given entry name or
+     * {@code -1} if no such record exists.
+     */
+    private int slot(final String name, final int hash) {
+        final int[] table = this.table;
+        final int mask = table.length - 1;
+        for (int i = mix(hash) & mask; ; i = (i + 1) & mask) {
+            final int slot = table[i] - 1;
+            if (0 > slot)
+                return -1;
+            if (hash == hashes[slot]
+                    && REMOVED != offsets[slot]
+                    && name.equals(entry(slot).getName()))
+                return slot;
+        }
+    }
+
+    private E entry(int slot) {
+        return newEntry(pool, offsets[slot], utf8.get(slot));
+    }
+
+    @Override
+    public int size() {
+        return slots - removed + overflow.size();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return null != get(key);
+    }
+
+    @Override
+    public E get(final Object key) {
+        final E entry = overflow.get(key);
+        if (null != entry || !(key instanceof String))
+            return entry;
+        final String name = (String) key;
+        final int slot = slot(name, name.hashCode());
+        return 0 > slot ? null : entry(slot);
+    }
+
+    @Override
+    public E put(final String name, final E entry) {
+        final int slot = slot(name, name.hashCode());
+        if (0 > slot)
+            return overflow.put(name, entry);
+        final E old = entry(slot);
+        offsets[slot] = REMOVED;
+        removed++;
+        overflow.put(name, entry);
+        return old;
+    }
+
+    @Override
+    public Set<Map.Entry<String, E>> entrySet() {
+        return new EntrySet();
+    }
+
+    private final class EntrySet extends AbstractSet<Map.Entry<String, E>> {
+        @Override
+        public Iterator<Map.Entry<String, E>> iterator() {
+            return new EntryIterator();
+        }
+
+        @Override
+        public int size() {
+            return CentralDirectoryIndex.this.size();
+        }
+    } // EntrySet
+
+    private final class EntryIterator
+    implements Iterator<Map.Entry<String, E>> {
+        final Iterator<Map.Entry<String, E>>
+                i = overflow.entrySet().iterator();
+        int slot = next(0);
+
+        int next(int slot) {
+            while (slot < slots && REMOVED == offsets[slot])
+                slot++;
+            return slot;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return slot < slots || i.hasNext();
+        }
+
+        @Override
+        public Map.Entry<String, E> next() {
+            if (slot < slots) {
+                final E entry = entry(slot);
+                slot = next(slot + 1);
+                return new SimpleImmutableEntry<String, E>(
+                        entry.getName(), entry);
+            }
+            if (!i.hasNext())
+                throw new NoSuchElementException();
+            return i.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    } // EntryIterator
+}
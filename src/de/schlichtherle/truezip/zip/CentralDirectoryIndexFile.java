@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * A sidecar file which persists a {@link CentralDirectoryIndex} so that a
+ * ZIP file can get remounted without reading and parsing its central
+ * directory again.
+ * <p>
+ * The sidecar file is only valid for the ZIP file it has been written for:
+ * Its header records the index key which has been provided by the
+ * {@link ZipIndexParameters}, e.g. the path and the last modification time of
+ * the ZIP file, the length of the ZIP file and the CRC-32 value of its
+ * (ZIP64) End Of Central Directory Record.
+ * If any of these doesn't match, then the sidecar file is considered stale
+ * and gets ignored, so that it gets overwritten when the central directory
+ * has been parsed again.
+ * Its trailer records the CRC-32 value of its contents, so that a corrupted
+ * sidecar file gets rejected rather than yielding invalid entries.
+ *
+ * @see    ZipIndexParameters#getIndexFile()
+ * @author Christian Schlichtherle
+ */
+final class CentralDirectoryIndexFile {
+
+    /** The magic number and format version of a sidecar file. */
+    private static final long MAGIC = 0x545a434449445832L; // "TZCDIDX2"
+
+    private final File file;
+    private final String key;
+    private final long length;
+    private final long checksum;
+
+    /**
+     * Constructs a new central directory index file.
+     *
+     * @param file the sidecar file.
+     * @param key the index key of the ZIP file.
+     * @param length the length of the ZIP file.
+     * @param checksum the CRC-32 value of the (ZIP64) End Of Central
+     *        Directory Record of the ZIP file.
+     */
+    CentralDirectoryIndexFile(
+            final File file,
+            final String key,
+            final long length,
+            final long checksum) {
+        if (null == file || null == key)
+            throw new NullPointerException();
+        this.file = file;
+        this.key = key;
+        this.length = length;
+        this.checksum = checksum;
+    }
+
+    /**
+     * Reads the sidecar file into the given empty index if it's valid for
+     * the ZIP file.
+     *
+     * @param  index the empty index to read.
+     * @param  numEntries the number of entries in the central directory
+     *         according to its End Of Central Directory Record.
+     * @return The header of the sidecar file or {@code null} if the sidecar
+     *         file does not exist or is stale.
+     * @throws IOException on any I/O error, including a corrupted sidecar
+     *         file.
+     */
+    Header read(final CentralDirectoryIndex<?> index, final int numEntries)
+    throws IOException {
+        final CheckedInputStream cin;
+        try {
+            cin = new CheckedInputStream(new BufferedInputStream(
+                    new FileInputStream(file), 64 * 1024), new CRC32());
+        } catch (final FileNotFoundException ex) {
+            return null;
+        }
+        final DataInputStream in = new DataInputStream(cin);
+        try {
+            if (MAGIC != in.readLong()
+                    || !key.equals(in.readUTF())
+                    || length != in.readLong()
+                    || checksum != in.readLong())
+                return null;
+            final Header header = new Header(in.readLong(), in.readBoolean());
+            index.read(in, file.length(), numEntries);
+            if (cin.getChecksum().getValue() != in.readLong())
+                throw new ZipException(file + " (corrupted index file)");
+            return header;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the given index to the sidecar file.
+     * The sidecar file gets written to a unique temporary file in the same
+     * directory first which then gets renamed, so that concurrent readers
+     * never see a partial sidecar file and concurrent writers never overwrite
+     * each other's temporary file.
+     *
+     * @param  index the index to write.
+     * @param  header the header of the sidecar file.
+     * @throws IOException on any I/O error.
+     */
+    void write(final CentralDirectoryIndex<?> index, final Header header)
+    throws IOException {
+        final File temp = File.createTempFile(
+                prefix(file.getName()), ".tmp",
+                file.getAbsoluteFile().getParentFile());
+        boolean ok = false;
+        try {
+            final CheckedOutputStream cout = new CheckedOutputStream(
+                    new BufferedOutputStream(
+                        new FileOutputStream(temp), 64 * 1024),
+                    new CRC32());
+            final DataOutputStream out = new DataOutputStream(cout);
+            try {
+                out.writeLong(MAGIC);
+                out.writeUTF(key);
+                out.writeLong(length);
+                out.writeLong(checksum);
+                out.writeLong(header.preamble);
+                out.writeBoolean(header.utf8);
+                index.write(out);
+                out.writeLong(cout.getChecksum().getValue());
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file)))
+                throw new IOException(file + " (cannot replace index file)");
+            ok = true;
+        } finally {
+            if (!ok)
+                temp.delete();
+        }
+    }
+
+    /**
+     * Returns a prefix for the name of a temporary file which has the given
+     * name with at least three characters as required by
+     * {@link File#createTempFile(String, String, File)}.
+     */
+    private static String prefix(final String name) {
+        return name.length() < 3 ? name + "___" : name + ".";
+    }
+
+    /** The state of a ZIP file which is not kept in the index. */
+    static final class Header {
+        /** The number of bytes in the preamble of the ZIP file. */
+        final long preamble;
+
+        /** Whether or not the ZIP file has switched to UTF-8. */
+        final boolean utf8;
+
+        Header(final long preamble, final boolean utf8) {
+            this.preamble = preamble;
+            this.utf8 = utf8;
+        }
+    } // Header
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.util.ThreadGroups;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides a shared and bounded pool of daemon threads for compressing and
+ * decompressing data concurrently.
+ * <p>
+ * The maximum number of threads is given by the system property
+ * {@code de.schlichtherle.truezip.zip.compressionThreads} and defaults to the
+ * number of available processors.
+ * If more tasks get submitted, then they get queued until a thread is
+ * available, so the number of threads doesn't grow with the number of
+ * concurrent writers or readers.
+ * Idle threads get terminated after some seconds.
+ * <p>
+ * Note that tasks must not wait for other tasks which have been submitted to
+ * this pool, because this could dead lock.
+ *
+ * @see    ZipCompressionParameters#getCompressionThreads()
+ * @see    ZipDecompressionParameters#getDecompressionThreads()
+ * @author Christian Schlichtherle
+ */
+final class CompressionThreads {
+
+    /** The maximum number of pooled threads. */
+    static final int MAX_THREADS = Math.max(1, Integer.getInteger(
+            CompressionThreads.class.getPackage().getName()
+                + ".compressionThreads",
+            Runtime.getRuntime().availableProcessors()));
+
+    private static final ExecutorService executor;
+    static {
+        final ThreadPoolExecutor tpe = new ThreadPoolExecutor(
+                MAX_THREADS, MAX_THREADS,
+                5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new CompressionThreadFactory());
+        tpe.allowCoreThreadTimeOut(true);
+        executor = tpe;
+    }
+
+    /* Can't touch this - hammer time! */
+    private CompressionThreads() { }
+
+    /** Returns the executor service for the pooled threads. */
+    static ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * Submits the given task for execution by a pooled thread.
+     *
+     * @param  task the task to execute.
+     * @return The future result of the task.
+     */
+    static <T> Future<T> submit(Callable<T> task) {
+        return executor.submit(task);
+    }
+
+    /**
+     * Uninterruptibly waits for the given result and returns it.
+     *
+     * @param  result the future result of a task.
+     * @return The result of the task.
+     * @throws IOException if the task has thrown an {@code IOException}.
+     */
+    static <T> T get(final Future<T> result) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (final ExecutionException ex) {
+                    final Throwable cause = ex.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw new AssertionError(cause);
+                } catch (final InterruptedException interrupt) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt(); // restore
+        }
+    }
+
+    private static final class CompressionThreadFactory
+    implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable r) {
+            return new CompressionThread(r);
+        }
+    } // CompressionThreadFactory
+
+    /** A pooled daemon thread which runs compression tasks. */
+    private static final class CompressionThread extends Thread {
+        CompressionThread(Runnable r) {
+            super(ThreadGroups.getServerThreadGroup(), r,
+                    CompressionThread.class.getName());
+            setDaemon(true);
+        }
+    } // CompressionThread
+}
@@ -4,6 +4,7 @@
  */
 package de.schlichtherle.truezip.zip;
 
+import java.io.File;
 import java.nio.charset.Charset;
 
 /**
@@ -14,17 +15,26 @@ import java.nio.charset.Charset;
  */
 final class DefaultZipFileParameters
 extends DefaultZipCharsetParameters
-implements ZipFileParameters<ZipEntry> {
+implements ZipFileParameters<ZipEntry>, ZipIndexParameters {
 
-    private final boolean preambled, postambled;
+    private final boolean preambled, postambled, packed;
 
     DefaultZipFileParameters(
             final Charset charset,
             final boolean preambled,
             final boolean postambled) {
+        this(charset, preambled, postambled, false);
+    }
+
+    DefaultZipFileParameters(
+            final Charset charset,
+            final boolean preambled,
+            final boolean postambled,
+            final boolean packed) {
         super(charset);
         this.preambled = preambled;
         this.postambled = postambled;
+        this.packed = packed;
     }
 
     @Override
@@ -37,6 +47,21 @@ implements ZipFileParameters<ZipEntry> {
         return postambled;
     }
 
+    @Override
+    public boolean getPackedIndex() {
+        return packed;
+    }
+
+    @Override
+    public File getIndexFile() {
+        return null;
+    }
+
+    @Override
+    public String getIndexKey() {
+        return null;
+    }
+
     @Override
     public ZipEntry newEntry(String name) {
         return new ZipEntry(name);
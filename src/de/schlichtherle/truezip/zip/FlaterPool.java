@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A bounded pool of reusable {@link Inflater}s or {@link Deflater}s, keyed by
+ * their compression level and {@code nowrap} property.
+ * Each flater allocates native memory for its zlib state, so reusing them
+ * saves a lot of time and native memory churn when reading or writing
+ * archives with many small entries.
+ * <p>
+ * Flaters get reset when they get released to this pool.
+ * If more than {@link #MAX_IDLE} flaters with the same key are idle, then any
+ * further flater with this key gets ended when it gets released.
+ * Flaters which never get released are simply left to the garbage collector.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @param  <F> the type of the flaters.
+ * @author Christian Schlichtherle
+ */
+public abstract class FlaterPool<F> {
+
+    /** The maximum number of idle flaters per key. */
+    static final int MAX_IDLE
+            = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    /** The pool of inflaters for reading DEFLATED entries. */
+    public static final FlaterPool<Inflater> INFLATERS = new InflaterPool();
+
+    /** The pool of deflaters for writing DEFLATED entries. */
+    public static final FlaterPool<Deflater> DEFLATERS = new DeflaterPool();
+
+    private final Map<Integer, Deque<F>> idle
+            = new HashMap<Integer, Deque<F>>();
+
+    private long hits, misses;
+
+    FlaterPool() { }
+
+    private static Integer key(int level, boolean nowrap) {
+        return (level + 1) << 1 | (nowrap ? 1 : 0);
+    }
+
+    /**
+     * Allocates a flater with the given properties from this pool.
+     *
+     * @param  level the compression level.
+     *         This gets ignored by inflaters.
+     * @param  nowrap whether or not the flater processes raw DEFLATE data.
+     * @return A reset flater with the given properties.
+     */
+    public final F allocate(final int level, final boolean nowrap) {
+        final Integer key = key(level, nowrap);
+        synchronized (this) {
+            final Deque<F> flaters = idle.get(key);
+            if (null != flaters) {
+                final F flater = flaters.poll();
+                if (null != flater) {
+                    hits++;
+                    return flater;
+                }
+            }
+            misses++;
+        }
+        return newFlater(level, nowrap);
+    }
+
+    /**
+     * Releases the given flater with the given properties to this pool.
+     * The flater must not get used by the caller anymore.
+     *
+     * @param flater the flater to release.
+     * @param level the compression level which has been used to allocate the
+     *        flater.
+     * @param nowrap the {@code nowrap} property which has been used to
+     *        allocate the flater.
+     */
+    public final void release(final F flater, final int level, final boolean nowrap) {
+        reset(flater);
+        final Integer key = key(level, nowrap);
+        synchronized (this) {
+            Deque<F> flaters = idle.get(key);
+            if (null == flaters)
+                idle.put(key, flaters = new ArrayDeque<F>(MAX_IDLE));
+            if (flaters.size() < MAX_IDLE) {
+                flaters.push(flater);
+                return;
+            }
+        }
+        end(flater);
+    }
+
+    /**
+     * Returns the number of allocations which have been served by an idle
+     * flater.
+     *
+     * @return The number of allocations which have been served by an idle
+     *         flater.
+     */
+    public final synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of allocations which have required a new flater.
+     *
+     * @return The number of allocations which have required a new flater.
+     */
+    public final synchronized long getMisses() {
+        return misses;
+    }
+
+    abstract F newFlater(int level, boolean nowrap);
+
+    abstract void reset(F flater);
+
+    abstract void end(F flater);
+
+    /** A pool for {@link Jdk6Inflater} objects. */
+    private static final class InflaterPool extends FlaterPool<Inflater> {
+        @Override
+        Inflater newFlater(int level, boolean nowrap) {
+            return new Jdk6Inflater(nowrap);
+        }
+
+        @Override
+        void reset(Inflater inf) {
+            inf.reset();
+        }
+
+        @Override
+        void end(Inflater inf) {
+            inf.end();
+        }
+    }
+
+    /** A pool for {@link Jdk6Deflater} objects. */
+    private static final class DeflaterPool extends FlaterPool<Deflater> {
+        @Override
+        Deflater newFlater(int level, boolean nowrap) {
+            return new Jdk6Deflater(level, nowrap);
+        }
+
+        @Override
+        void reset(Deflater def) {
+            def.reset();
+        }
+
+        @Override
+        void end(Deflater def) {
+            def.end();
+        }
+    }
+}
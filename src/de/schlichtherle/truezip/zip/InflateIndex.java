@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * An index of checkpoints in the DEFLATE data of a ZIP entry in the style of
+ * zlib's <i>zran.c</i>.
+ * Each checkpoint records the offset in the uncompressed data, the bit
+ * position of a block boundary in the compressed data and the last 32 KiB of
+ * uncompressed data before the block boundary.
+ * This is sufficient to resume inflating from any checkpoint, so that
+ * random access to the uncompressed data requires inflating at most
+ * the span of the index plus the size of a DEFLATE block.
+ * <p>
+ * The index gets built lazily by an {@link InflateScanner} whenever a client
+ * needs to access uncompressed data beyond the current end of the index.
+ * The windows get stored compressed in order to reduce the heap footprint.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @see    InflaterReadOnlyFile
+ * @author Christian Schlichtherle
+ */
+final class InflateIndex {
+
+    /** The approximate heap footprint of a checkpoint without its window. */
+    private static final int POINT_OVERHEAD = 64;
+
+    /** The minimum distance between checkpoints in the uncompressed data. */
+    private final int span;
+
+    /** The offsets of the checkpoints in the uncompressed data. */
+    private long[] outs = new long[16];
+
+    /** The bit positions of the checkpoints in the compressed data. */
+    private long[] bits = new long[16];
+
+    /** The compressed windows of the checkpoints. */
+    private byte[][] windows = new byte[16][];
+
+    /** The number of checkpoints. */
+    private int points = 1; // the implicit checkpoint at zero
+
+    /** The heap footprint of the checkpoints. */
+    private long footprint = POINT_OVERHEAD;
+
+    /** The scanner or {@code null} if the index is complete. */
+    private InflateScanner scanner = new InflateScanner();
+
+    /**
+     * Constructs a new inflate index.
+     *
+     * @param span the minimum distance between checkpoints in the
+     *        uncompressed data.
+     */
+    InflateIndex(final int span) {
+        if (0 >= span)
+            throw new IllegalArgumentException();
+        this.span = span;
+    }
+
+    /**
+     * Returns the approximate heap footprint of this index.
+     */
+    synchronized long footprint() {
+        return null != scanner
+                ? footprint + InflateScanner.WINDOW_LEN + 8 * 1024
+                : footprint;
+    }
+
+    /**
+     * Extends this index until it covers the given offset in the uncompressed
+     * data.
+     *
+     * @param  rof the read only file with the compressed data.
+     * @param  pos the offset in the uncompressed data.
+     * @return {@code true} if and only if this index has been extended.
+     * @throws ZipException if the compressed data is invalid.
+     * @throws IOException on any other I/O error.
+     */
+    synchronized boolean extend(final ReadOnlyFile rof, final long pos)
+    throws IOException {
+        final InflateScanner scanner = this.scanner;
+        if (null == scanner || pos < scanner.out())
+            return false;
+        try {
+            do {
+                scanner.block(rof);
+                if (scanner.done()) {
+                    this.scanner = null;
+                    break;
+                }
+                if (span <= scanner.out() - outs[points - 1])
+                    add(scanner.out(), scanner.bits(), scanner.window());
+            } while (scanner.out() <= pos);
+        } catch (final IOException ex) {
+            // Don't resume from a broken state.
+            this.scanner = null;
+            throw ex;
+        }
+        return true;
+    }
+
+    private void add(final long out, final long bit, final byte[] window) {
+        if (points == outs.length) {
+            final int capacity = points * 2;
+            outs = Arrays.copyOf(outs, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+            windows = Arrays.copyOf(windows, capacity);
+        }
+        final byte[] packed = pack(window);
+        outs[points] = out;
+        bits[points] = bit;
+        windows[points] = packed;
+        points++;
+        footprint += POINT_OVERHEAD + packed.length;
+    }
+
+    /**
+     * Returns the index of the last checkpoint at or before the given offset
+     * in the uncompressed data.
+     */
+    synchronized int point(final long pos) {
+        int lo = 0, hi = points - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (outs[mid] <= pos)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** Returns the offset of the given checkpoint in the uncompressed data. */
+    synchronized long out(int point) {
+        return outs[point];
+    }
+
+    /** Returns the bit position of the given checkpoint in the compressed data. */
+    synchronized long bits(int point) {
+        return bits[point];
+    }
+
+    /**
+     * Returns the window of the given checkpoint or {@code null} for the
+     * checkpoint at zero.
+     */
+    byte[] window(final int point) throws ZipException {
+        final byte[] packed;
+        synchronized (this) {
+            packed = windows[point];
+        }
+        return null == packed ? null : unpack(packed);
+    }
+
+    /**
+     * Returns the given window with a four byte header which holds its
+     * length and compresses it unless it's incompressible.
+     * The most significant bit of the header is set if the window is stored
+     * uncompressed.
+     */
+    private static byte[] pack(final byte[] window) {
+        final byte[] buf = new byte[4 + window.length];
+        final Deflater def = FlaterPool.DEFLATERS.allocate(
+                Deflater.BEST_SPEED, true);
+        try {
+            def.setInput(window);
+            def.finish();
+            int len = 4;
+            while (!def.finished() && len < buf.length)
+                len += def.deflate(buf, len, buf.length - len);
+            if (def.finished()) {
+                LittleEndian.writeInt(window.length, buf, 0);
+                return Arrays.copyOf(buf, len);
+            }
+        } finally {
+            FlaterPool.DEFLATERS.release(def, Deflater.BEST_SPEED, true);
+        }
+        LittleEndian.writeInt(window.length | 0x80000000, buf, 0);
+        System.arraycopy(window, 0, buf, 4, window.length);
+        return buf;
+    }
+
+    private static byte[] unpack(final byte[] packed) throws ZipException {
+        final int header = LittleEndian.readInt(packed, 0);
+        if (0 > header)
+            return Arrays.copyOfRange(packed, 4, packed.length);
+        final byte[] window = new byte[header];
+        final Inflater inf = FlaterPool.INFLATERS.allocate(0, true);
+        try {
+            // Provide an extra dummy byte for the raw inflater.
+            inf.setInput(Arrays.copyOfRange(packed, 4, packed.length + 1));
+            int len = 0;
+            while (len < window.length) {
+                final int n = inf.inflate(window, len, window.length - len);
+                if (0 == n)
+                    throw new ZipException("Corrupted inflate index!");
+                len += n;
+            }
+            return window;
+        } catch (final DataFormatException ex) {
+            throw (ZipException) new ZipException(ex.toString()).initCause(ex);
+        } finally {
+            FlaterPool.INFLATERS.release(inf, 0, true);
+        }
+    }
+}
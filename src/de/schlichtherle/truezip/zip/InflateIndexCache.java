@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache for the {@link InflateIndex}es of the DEFLATED entries in a ZIP
+ * file.
+ * The indexes get evicted in least recently used order when their total heap
+ * footprint exceeds {@link #MAX_FOOTPRINT}.
+ * The most recently used index never gets evicted.
+ * <p>
+ * This class is thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class InflateIndexCache {
+
+    /** The maximum total heap footprint of the cached indexes. */
+    static final long MAX_FOOTPRINT = 32 * 1024 * 1024;
+
+    private final int span;
+
+    /** Maps the offsets of the entry data in the ZIP file to indexes. */
+    private final Map<Long, InflateIndex> indexes
+            = new LinkedHashMap<Long, InflateIndex>(16, 0.75f, true);
+
+    /**
+     * Constructs a new inflate index cache.
+     *
+     * @param span the minimum distance between checkpoints in the
+     *        uncompressed data.
+     */
+    InflateIndexCache(final int span) {
+        if (0 >= span)
+            throw new IllegalArgumentException();
+        this.span = span;
+    }
+
+    /**
+     * Returns the index for the entry data at the given offset in the ZIP
+     * file.
+     * If no index is cached, then a new empty index gets returned.
+     */
+    synchronized InflateIndex get(final long offset) {
+        final Long key = offset;
+        InflateIndex index = indexes.get(key);
+        if (null == index) {
+            indexes.put(key, index = new InflateIndex(span));
+            trim();
+        }
+        return index;
+    }
+
+    /** Evicts indexes until the total footprint is below the limit. */
+    synchronized void trim() {
+        long total = 0;
+        for (final InflateIndex index : indexes.values())
+            total += index.footprint();
+        for (final Iterator<InflateIndex> i = indexes.values().iterator();
+                MAX_FOOTPRINT < total && 1 < indexes.size(); ) {
+            total -= i.next().footprint();
+            i.remove();
+        }
+    }
+}
@@ -0,0 +1,355 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import java.io.IOException;
+import java.util.zip.ZipException;
+
+/**
+ * A pure Java decoder for raw DEFLATE data which decodes one block at a time.
+ * Unlike {@link java.util.zip.Inflater}, this decoder can report the bit
+ * position of the block boundaries and the last 32 KiB of uncompressed data,
+ * which is required for building an {@link InflateIndex}.
+ * The uncompressed data is not returned to the client.
+ * <p>
+ * The decoder reads the compressed data from the read only file which is
+ * provided with each call to {@link #block}, so it may get resumed with a
+ * different read only file for the same data.
+ * <p>
+ * This implementation is based on Mark Adler's <i>puff.c</i>, with a lookup
+ * table for short Huffman codes.
+ * <p>
+ * This class is <em>not</em> thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class InflateScanner {
+
+    /** The size of the sliding window of the DEFLATE format. */
+    static final int WINDOW_LEN = 32 * 1024;
+
+    private static final int MAX_BITS = 15;
+    private static final int MAX_LCODES = 286;
+    private static final int MAX_DCODES = 30;
+    private static final int FIX_LCODES = 288;
+    private static final int FAST_BITS = 9;
+
+    private static final short[] LBASE = {
+        3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+        35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258 };
+    private static final short[] LEXT = {
+        0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+        3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+    private static final short[] DBASE = {
+        1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+        257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145,
+        8193, 12289, 16385, 24577 };
+    private static final short[] DEXT = {
+        0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+        7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12, 13, 13 };
+    private static final short[] ORDER = {
+        16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+    private static final Huffman FIXED_LENCODE, FIXED_DISTCODE;
+    static {
+        final short[] lengths = new short[FIX_LCODES];
+        int symbol = 0;
+        for (; symbol < 144; symbol++) lengths[symbol] = 8;
+        for (; symbol < 256; symbol++) lengths[symbol] = 9;
+        for (; symbol < 280; symbol++) lengths[symbol] = 7;
+        for (; symbol < FIX_LCODES; symbol++) lengths[symbol] = 8;
+        try {
+            FIXED_LENCODE = new Huffman(lengths, 0, FIX_LCODES);
+            for (symbol = 0; symbol < MAX_DCODES; symbol++) lengths[symbol] = 5;
+            FIXED_DISTCODE = new Huffman(lengths, 0, MAX_DCODES);
+        } catch (final ZipException ex) {
+            throw new AssertionError(ex);
+        }
+    }
+
+    /** The circular window of the last uncompressed bytes. */
+    private final byte[] window = new byte[WINDOW_LEN];
+
+    /** The total number of uncompressed bytes. */
+    private long out;
+
+    /** The bit buffer. */
+    private long bitbuf;
+
+    /** The number of valid bits in the bit buffer. */
+    private int bitcnt;
+
+    /** The number of bytes which have been moved to the bit buffer. */
+    private long fetched;
+
+    /** The input buffer. */
+    private final byte[] buf = new byte[8 * 1024];
+    private int bufPos, bufLen;
+
+    /** The offset of the next byte to read into the input buffer. */
+    private long next;
+
+    /** Whether or not the last block has been decoded. */
+    private boolean last;
+
+    private ReadOnlyFile rof;
+
+    /** Returns the total number of uncompressed bytes decoded so far. */
+    long out() {
+        return out;
+    }
+
+    /** Returns the number of compressed bits decoded so far. */
+    long bits() {
+        return fetched * 8 - bitcnt;
+    }
+
+    /** Returns {@code true} if and only if the last block has been decoded. */
+    boolean done() {
+        return last;
+    }
+
+    /**
+     * Returns a copy of the last uncompressed bytes up to
+     * {@link #WINDOW_LEN}.
+     */
+    byte[] window() {
+        final int len = (int) Math.min(out, WINDOW_LEN);
+        final byte[] copy = new byte[len];
+        final int end = (int) (out % WINDOW_LEN);
+        if (len <= end) {
+            System.arraycopy(window, end - len, copy, 0, len);
+        } else {
+            final int head = len - end;
+            System.arraycopy(window, WINDOW_LEN - head, copy, 0, head);
+            System.arraycopy(window, 0, copy, head, end);
+        }
+        return copy;
+    }
+
+    /**
+     * Decodes the next block of the compressed data from the given read only
+     * file.
+     *
+     * @param  rof the read only file with the compressed data.
+     * @throws ZipException if the compressed data is invalid.
+     * @throws IOException on any other I/O error.
+     */
+    void block(final ReadOnlyFile rof) throws IOException {
+        assert !last;
+        this.rof = rof;
+        try {
+            last = 0 != bits(1);
+            switch (bits(2)) {
+                case 0: stored(); break;
+                case 1: codes(FIXED_LENCODE, FIXED_DISTCODE); break;
+                case 2: dynamic(); break;
+                default: throw new ZipException("Invalid DEFLATE block type!");
+            }
+        } finally {
+            this.rof = null;
+        }
+    }
+
+    private void stored() throws IOException {
+        // Discard the remaining bits of the current byte.
+        final int skip = bitcnt & 7;
+        bitbuf >>>= skip;
+        bitcnt -= skip;
+        final int len = bits(16);
+        if ((~bits(16) & 0xffff) != len)
+            throw new ZipException("Invalid DEFLATE stored block length!");
+        for (int i = len; 0 < i; i--)
+            put(bits(8));
+    }
+
+    private void dynamic() throws IOException {
+        final int nlen = bits(5) + 257;
+        final int ndist = bits(5) + 1;
+        final int ncode = bits(4) + 4;
+        if (MAX_LCODES < nlen || MAX_DCODES < ndist)
+            throw new ZipException("Invalid DEFLATE code lengths count!");
+        final short[] lengths = new short[MAX_LCODES + MAX_DCODES];
+        int index = 0;
+        for (; index < ncode; index++)
+            lengths[ORDER[index]] = (short) bits(3);
+        for (; index < 19; index++)
+            lengths[ORDER[index]] = 0;
+        final Huffman lencode = new Huffman(lengths, 0, 19);
+        for (index = 0; index < nlen + ndist; ) {
+            int symbol = decode(lencode);
+            if (symbol < 16) {
+                lengths[index++] = (short) symbol;
+            } else {
+                short len = 0;
+                if (16 == symbol) {
+                    if (0 == index)
+                        throw new ZipException("Invalid DEFLATE code length repeat!");
+                    len = lengths[index - 1];
+                    symbol = 3 + bits(2);
+                } else if (17 == symbol) {
+                    symbol = 3 + bits(3);
+                } else {
+                    symbol = 11 + bits(7);
+                }
+                if (nlen + ndist < index + symbol)
+                    throw new ZipException("Invalid DEFLATE code length repeat!");
+                while (0 < symbol--)
+                    lengths[index++] = len;
+            }
+        }
+        if (0 == lengths[256])
+            throw new ZipException("Missing DEFLATE end of block code!");
+        codes(  new Huffman(lengths, 0, nlen),
+                new Huffman(lengths, nlen, ndist));
+    }
+
+    private void codes(final Huffman lencode, final Huffman distcode)
+    throws IOException {
+        final byte[] window = this.window;
+        for (;;) {
+            int symbol = decode(lencode);
+            if (symbol < 256) {
+                put(symbol);
+            } else if (256 == symbol) {
+                return;
+            } else {
+                symbol -= 257;
+                if (29 <= symbol)
+                    throw new ZipException("Invalid DEFLATE length code!");
+                int len = LBASE[symbol] + bits(LEXT[symbol]);
+                symbol = decode(distcode);
+                if (30 <= symbol)
+                    throw new ZipException("Invalid DEFLATE distance code!");
+                final int dist = DBASE[symbol] + bits(DEXT[symbol]);
+                if (dist > out)
+                    throw new ZipException("Invalid DEFLATE distance too far back!");
+                long out = this.out;
+                for (; 0 < len; len--, out++)
+                    window[(int) (out % WINDOW_LEN)]
+                            = window[(int) ((out - dist) % WINDOW_LEN)];
+                this.out = out;
+            }
+        }
+    }
+
+    private void put(final int b) {
+        window[(int) (out++ % WINDOW_LEN)] = (byte) b;
+    }
+
+    private int decode(final Huffman h) throws IOException {
+        peek(FAST_BITS);
+        final int entry = h.fast[(int) bitbuf & ((1 << FAST_BITS) - 1)];
+        final int len = entry & 0xf;
+        if (0 != entry && len <= bitcnt) {
+            bitbuf >>>= len;
+            bitcnt -= len;
+            return entry >>> 4;
+        }
+        // Slow path for long codes, see puff.c.
+        int code = 0, first = 0, index = 0;
+        for (int l = 1; l <= MAX_BITS; l++) {
+            code |= bits(1);
+            final int count = h.count[l];
+            if (code - count < first)
+                return h.symbol[index + (code - first)];
+            index += count;
+            first += count;
+            first <<= 1;
+            code <<= 1;
+        }
+        throw new ZipException("Invalid DEFLATE Huffman code!");
+    }
+
+    /**
+     * Fills the bit buffer with at least {@code n} bits unless the end of the
+     * compressed data has been reached.
+     */
+    private void peek(final int n) throws IOException {
+        while (bitcnt < n) {
+            final int b = fetch();
+            if (0 > b)
+                return;
+            bitbuf |= (long) b << bitcnt;
+            bitcnt += 8;
+        }
+    }
+
+    private int bits(final int n) throws IOException {
+        while (bitcnt < n) {
+            final int b = fetch();
+            if (0 > b)
+                throw new ZipException("Unexpected end of DEFLATE data!");
+            bitbuf |= (long) b << bitcnt;
+            bitcnt += 8;
+        }
+        final int val = (int) (bitbuf & ((1L << n) - 1));
+        bitbuf >>>= n;
+        bitcnt -= n;
+        return val;
+    }
+
+    private int fetch() throws IOException {
+        if (bufPos == bufLen) {
+            rof.seek(next);
+            final int read = rof.read(buf, 0, buf.length);
+            if (0 >= read)
+                return -1;
+            next += read;
+            bufPos = 0;
+            bufLen = read;
+        }
+        fetched++;
+        return buf[bufPos++] & 0xff;
+    }
+
+    /** A canonical Huffman code, see puff.c. */
+    private static final class Huffman {
+        final short[] count = new short[MAX_BITS + 1];
+        final short[] symbol;
+
+        /**
+         * The lookup table for codes of up to {@link #FAST_BITS} bits,
+         * indexed by the bit reversed code.
+         * Each entry is the symbol shifted left by four bits plus the code
+         * length or zero if the code is longer.
+         */
+        final int[] fast = new int[1 << FAST_BITS];
+
+        Huffman(final short[] lengths, final int off, final int n)
+        throws ZipException {
+            symbol = new short[n];
+            for (int i = 0; i < n; i++)
+                count[lengths[off + i]]++;
+            if (count[0] == n)
+                return; // complete, but decode() will fail
+            int left = 1;
+            for (int len = 1; len <= MAX_BITS; len++) {
+                left <<= 1;
+                left -= count[len];
+                if (0 > left)
+                    throw new ZipException("Invalid DEFLATE Huffman code lengths!");
+            }
+            final short[] offs = new short[MAX_BITS + 1];
+            for (int len = 1; len < MAX_BITS; len++)
+                offs[len + 1] = (short) (offs[len] + count[len]);
+            for (int i = 0; i < n; i++)
+                if (0 != lengths[off + i])
+                    symbol[offs[lengths[off + i]]++] = (short) i;
+            int code = 0, index = 0;
+            for (int len = 1; len <= FAST_BITS; len++) {
+                for (int i = 0; i < count[len]; i++, code++) {
+                    final int entry = symbol[index + i] << 4 | len;
+                    final int rev = Integer.reverse(code) >>> (32 - len);
+                    for (int j = rev; j < 1 << FAST_BITS; j += 1 << len)
+                        fast[j] = entry;
+                }
+                index += count[len];
+                code <<= 1;
+            }
+        }
+    } // Huffman
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import de.schlichtherle.truezip.rof.AbstractReadOnlyFile;
+import de.schlichtherle.truezip.rof.ReadOnlyFile;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A read only file which provides random access to the uncompressed data of
+ * a DEFLATED ZIP entry by means of an {@link InflateIndex}.
+ * <p>
+ * Sequential reads and seeks ahead simply continue inflating without
+ * consulting the {@link InflateScanner}.
+ * When seeking backwards, or ahead to an indexed checkpoint, a new
+ * {@link Inflater} gets resumed from the last checkpoint of the index before
+ * the file pointer:
+ * The window of the checkpoint gets set as the dictionary.
+ * As a replacement for zlib's {@code inflatePrime()} function, the bits of
+ * the first byte of compressed data which precede the checkpoint get replaced
+ * with a primer of empty DEFLATE blocks of the same length modulo eight.
+ * This keeps the byte alignment of the compressed data intact, which is
+ * required for STORED blocks.
+ * Whenever such a random access needs uncompressed data beyond the end of
+ * the index, the index gets extended first.
+ * <p>
+ * Note that the CRC-32 value of the uncompressed data does not get checked.
+ * <p>
+ * This class is <em>not</em> thread-safe.
+ *
+ * @see    RawZipFile#getReadOnlyFile(String)
+ * @author Christian Schlichtherle
+ */
+final class InflaterReadOnlyFile extends AbstractReadOnlyFile {
+
+    private static final int BUF_LEN = 8 * 1024;
+
+    /**
+     * The primers for each bit shift.
+     * The last byte of each primer is incomplete: Its upper bits need to get
+     * filled with the first byte of compressed data.
+     */
+    private static final byte[][] PRIMERS = new byte[8][];
+    static {
+        for (int shift = 1; shift < 8; shift++) {
+            final Primer primer = new Primer();
+            int empty = shift / 2;
+            if (0 != (shift & 1)) {
+                // An empty dynamic block with a length of 95 bits.
+                primer.bits(2 << 1, 3);
+                primer.bits(0, 5);  // HLIT
+                primer.bits(0, 5);  // HDIST
+                primer.bits(15, 4); // HCLEN
+                // Code length code lengths in the order 16, 17, 18, 0, 8, 7,
+                // 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15.
+                primer.bits(0, 3);
+                primer.bits(0, 3);
+                primer.bits(1, 3);
+                primer.bits(2, 3);
+                for (int i = 0; i < 13; i++)
+                    primer.bits(0, 3);
+                primer.bits(2, 3);
+                primer.bits(0, 3);
+                // 256 literals with length 0, code 256 with length 1 and a
+                // distance code with length 0.
+                primer.bits(0, 1);
+                primer.bits(138 - 11, 7);
+                primer.bits(0, 1);
+                primer.bits(118 - 11, 7);
+                primer.bits(3, 2);
+                primer.bits(1, 2);
+                primer.bits(0, 1);  // end of block
+                empty = (shift + 1) / 2 % 4;
+            }
+            // Empty fixed blocks with a length of 10 bits each.
+            for (int i = 0; i < empty; i++) {
+                primer.bits(1 << 1, 3);
+                primer.bits(0, 7);  // end of block
+            }
+            assert shift == primer.length % 8;
+            PRIMERS[shift] = primer.toByteArray();
+        }
+    }
+
+    /** The read only file with the compressed data. */
+    private final ReadOnlyFile rof;
+
+    /** The length of the uncompressed data. */
+    private final long length;
+
+    private final InflateIndex index;
+
+    /** The cache of the index or {@code null}. */
+    private final InflateIndexCache cache;
+
+    /** The input buffer, with room for the primer. */
+    private final byte[] in = new byte[BUF_LEN + 16];
+
+    /** The current inflater or {@code null}. */
+    private Inflater inf;
+
+    /** The offset of the next byte of uncompressed data of the inflater. */
+    private long infOut;
+
+    /** The offset of the next byte of compressed data for the inflater. */
+    private long src;
+
+    /**
+     * The bit shift of the compressed data for the inflater or zero if the
+     * primer has been provided.
+     */
+    private int shift;
+
+    /** Whether or not the dummy byte has been provided to the inflater. */
+    private boolean dummy;
+
+    /** The virtual file pointer. */
+    private long pos;
+
+    private boolean closed;
+
+    /**
+     * Constructs a new inflater read only file.
+     *
+     * @param rof the read only file with the compressed data.
+     *        This gets closed when this read only file gets closed.
+     * @param length the length of the uncompressed data.
+     * @param index the index of the compressed data.
+     * @param cache the cache of the index or {@code null}.
+     */
+    InflaterReadOnlyFile(
+            final ReadOnlyFile rof,
+            final long length,
+            final InflateIndex index,
+            final InflateIndexCache cache) {
+        if (null == rof || null == index)
+            throw new NullPointerException();
+        if (0 > length)
+            throw new IllegalArgumentException();
+        this.rof = rof;
+        this.length = length;
+        this.index = index;
+        this.cache = cache;
+    }
+
+    private void assertOpen() throws IOException {
+        if (closed)
+            throw new IOException("File is closed!");
+    }
+
+    @Override
+    public long length() throws IOException {
+        assertOpen();
+        return length;
+    }
+
+    @Override
+    public long getFilePointer() throws IOException {
+        assertOpen();
+        return pos;
+    }
+
+    @Override
+    public void seek(final long pos) throws IOException {
+        assertOpen();
+        if (pos < 0)
+            throw new IOException("File pointer must not be negative!");
+        final long length = this.length;
+        if (pos > length)
+            throw new IOException("File pointer (" + pos
+                    + ") is larger than file length (" + length + ")!");
+        this.pos = pos;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] buf = new byte[1];
+        return 1 == read(buf, 0, 1) ? buf[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(final byte[] buf, final int off, int len)
+    throws IOException {
+        // Check no-op first for compatibility with RandomAccessFile.
+        if (0 >= len)
+            return 0;
+        assertOpen();
+        if (0 > (off | len | buf.length - off - len))
+	    throw new IndexOutOfBoundsException();
+        final long pos = this.pos;
+        final long available = length - pos;
+        if (0 >= available)
+            return -1;
+        if (len > available)
+            len = (int) available;
+        position(pos);
+        int total = 0;
+        do {
+            total += inflate(buf, off + total, len - total);
+        } while (total < len);
+        this.pos = pos + total;
+        return total;
+    }
+
+    /**
+     * Positions the inflater at the given offset in the uncompressed data.
+     * The index only gets extended if the inflater can't simply continue, so
+     * that sequential reads don't pay for scanning the compressed data.
+     */
+    private void position(final long pos) throws IOException {
+        if ((null == inf || pos < infOut) && index.extend(rof, pos)
+                && null != cache)
+            cache.trim();
+        final int point = index.point(pos);
+        if (null == inf || pos < infOut || infOut < index.out(point))
+            resume(point);
+        final byte[] skip = new byte[BUF_LEN];
+        for (long n; 0 < (n = pos - infOut); )
+            inflate(skip, 0, (int) Math.min(n, BUF_LEN));
+    }
+
+    /** Resumes inflating from the given checkpoint of the index. */
+    private void resume(final int point) throws IOException {
+        final long bits = index.bits(point);
+        final byte[] window = index.window(point);
+        if (null == inf)
+            inf = FlaterPool.INFLATERS.allocate(0, true);
+        else
+            inf.reset();
+        if (null != window)
+            inf.setDictionary(window);
+        infOut = index.out(point);
+        src = bits >>> 3;
+        shift = (int) (bits & 7);
+        dummy = false;
+    }
+
+    private int inflate(final byte[] buf, final int off, final int len)
+    throws IOException {
+        final Inflater inf = this.inf;
+        try {
+            int n;
+            while (0 == (n = inf.inflate(buf, off, len))) {
+                if (inf.finished() || inf.needsDictionary())
+                    throw new ZipException("Unexpected end of DEFLATE data!");
+                if (inf.needsInput())
+                    fill();
+            }
+            infOut += n;
+            return n;
+        } catch (final DataFormatException ex) {
+            throw (ZipException) new ZipException(ex.toString()).initCause(ex);
+        }
+    }
+
+    /**
+     * Provides the inflater with the next chunk of compressed data, preceded
+     * by the primer for {@link #shift} bits if required.
+     */
+    private void fill() throws IOException {
+        final byte[] in = this.in;
+        final int shift = this.shift;
+        final byte[] primer = PRIMERS[shift];
+        final int off = null == primer ? 0 : primer.length - 1;
+        rof.seek(src);
+        int got = 0;
+        for (int read; got < BUF_LEN
+                && 0 < (read = rof.read(in, off + got, BUF_LEN - got)); )
+            got += read;
+        if (0 == got) {
+            if (dummy || null != primer)
+                throw new ZipException("Unexpected end of DEFLATE data!");
+            // Provide an extra dummy byte for the raw inflater.
+            dummy = true;
+            in[0] = 0;
+            inf.setInput(in, 0, 1);
+            return;
+        }
+        if (null != primer) {
+            final int first = in[off] & (0xff << shift);
+            System.arraycopy(primer, 0, in, 0, off);
+            in[off] = (byte) (first | primer[off]);
+            this.shift = 0;
+        }
+        inf.setInput(in, 0, off + got);
+        src += got;
+    }
+
+    /** Assembles a primer bit by bit. */
+    private static final class Primer {
+        final byte[] buf = new byte[16];
+        int length;
+
+        /** Appends the given number of bits, least significant bit first. */
+        void bits(final int value, final int count) {
+            for (int i = 0; i < count; i++, length++)
+                buf[length >> 3] |= (value >>> i & 1) << (length & 7);
+        }
+
+        byte[] toByteArray() {
+            final byte[] b = new byte[(length + 7) >> 3];
+            System.arraycopy(buf, 0, b, 0, b.length);
+            return b;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        if (null != inf)
+            FlaterPool.INFLATERS.release(inf, 0, true);
+        rof.close();
+    }
+}
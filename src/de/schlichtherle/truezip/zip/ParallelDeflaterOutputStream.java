@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * An output stream which compresses its data to a raw DEFLATE stream by
+ * means of multiple threads, like pigz.
+ * <p>
+ * The data gets split into chunks of {@link #CHUNK_SIZE} bytes.
+ * Each chunk gets compressed by a pooled thread, using the last 32 KiB of the
+ * preceding data as the preset dictionary.
+ * Each chunk but the last gets terminated with a sync flush, so the
+ * compressed chunks can get simply concatenated to a valid DEFLATE stream.
+ * The CRC-32 values of the chunks get combined, too.
+ * <p>
+ * The sync flush mode is not available on JDK 6, so this class requires
+ * JDK 7 or later: Use {@link #isAvailable()} to check this.
+ * <p>
+ * This class is <em>not</em> thread-safe.
+ *
+ * @author Christian Schlichtherle
+ */
+final class ParallelDeflaterOutputStream extends OutputStream {
+
+    /** The size of the chunks of uncompressed data. */
+    static final int CHUNK_SIZE = 128 * 1024;
+
+    /** The size of the preset dictionaries. */
+    private static final int DICT_SIZE = 32 * 1024;
+
+    /** The value of the constant {@code Deflater.SYNC_FLUSH} in JDK 7. */
+    private static final int SYNC_FLUSH = 2;
+
+    /** The method {@code Deflater.deflate(byte[], int, int, int)}. */
+    private static final Method deflate;
+    static {
+        Method method;
+        try {
+            method = Deflater.class.getMethod("deflate",
+                    byte[].class, int.class, int.class, int.class);
+        } catch (final NoSuchMethodException ex) {
+            method = null;
+        }
+        deflate = method;
+    }
+
+    private final OutputStream out;
+    private final int level;
+    private final int threads;
+    private final Deque<Future<Chunk>> pending;
+
+    private final byte[] single = new byte[1];
+    private byte[] buf = new byte[CHUNK_SIZE];
+    private int count;
+
+    /** The dictionary for the next chunk or {@code null}. */
+    private byte[] dict;
+
+    private long read;
+    private long crc;
+    private boolean finished;
+
+    /**
+     * Constructs a new parallel deflater output stream.
+     *
+     * @param out the output stream to write the raw DEFLATE stream to.
+     *        This does not get closed by this stream.
+     * @param level the compression level.
+     * @param threads the maximum number of threads for compressing chunks.
+     */
+    ParallelDeflaterOutputStream(
+            final OutputStream out,
+            final int level,
+            final int threads) {
+        if (null == out)
+            throw new NullPointerException();
+        if (0 >= threads)
+            throw new IllegalArgumentException();
+        assert isAvailable();
+        this.out = out;
+        this.level = level;
+        this.threads = threads;
+        this.pending = new ArrayDeque<Future<Chunk>>(threads + 1);
+    }
+
+    /**
+     * Returns {@code true} if and only if this class can get used on the
+     * current JVM.
+     */
+    static boolean isAvailable() {
+        return null != deflate;
+    }
+
+    /** Returns the number of uncompressed bytes written so far. */
+    long getBytesRead() {
+        return read;
+    }
+
+    /** Returns the CRC-32 value of the uncompressed data written so far. */
+    long getCrc() {
+        return crc;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(final byte[] b, int off, int len) throws IOException {
+        if (finished)
+            throw new IOException("Stream has already been finished!");
+        while (0 < len) {
+            final int n = Math.min(len, CHUNK_SIZE - count);
+            System.arraycopy(b, off, buf, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (CHUNK_SIZE == count)
+                submit(false);
+        }
+    }
+
+    /**
+     * Compresses all remaining data and writes the end of the DEFLATE
+     * stream without closing the decorated output stream.
+     */
+    void finish() throws IOException {
+        if (finished)
+            return;
+        submit(true);
+        finished = true;
+        while (!pending.isEmpty())
+            write(pending.remove());
+        out.flush();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /** Submits the buffered chunk for compression. */
+    private void submit(final boolean last) throws IOException {
+        final byte[] buf = this.buf;
+        final int count = this.count;
+        final Deque<Future<Chunk>> pending = this.pending;
+        pending.add(CompressionThreads.submit(
+                new Chunk(buf, count, dict, level, last)));
+        if (!last) {
+            dict = dictionary(dict, buf, count);
+            this.buf = new byte[CHUNK_SIZE];
+            this.count = 0;
+        }
+        for (Future<Chunk> result;
+                null != (result = pending.peek())
+                    && (threads < pending.size() || result.isDone()); )
+            write(pending.remove());
+    }
+
+    /** Writes the given compressed chunk and updates the CRC-32 value. */
+    private void write(final Future<Chunk> result) throws IOException {
+        final Chunk chunk = CompressionThreads.get(result);
+        out.write(chunk.out, 0, chunk.outLength);
+        crc = combine(crc, chunk.crc, chunk.length);
+        read += chunk.length;
+    }
+
+    /**
+     * Returns the last {@link #DICT_SIZE} bytes of the given dictionary
+     * followed by the given data.
+     */
+    private static byte[] dictionary(
+            final byte[] dict,
+            final byte[] data,
+            final int length) {
+        if (DICT_SIZE <= length)
+            return Arrays.copyOfRange(data, length - DICT_SIZE, length);
+        final int keep = null == dict
+                ? 0
+                : Math.min(dict.length, DICT_SIZE - length);
+        final byte[] result = new byte[keep + length];
+        if (0 < keep)
+            System.arraycopy(dict, dict.length - keep, result, 0, keep);
+        System.arraycopy(data, 0, result, keep, length);
+        return result;
+    }
+
+    /**
+     * Returns the CRC-32 value of the concatenation of two sequences of data,
+     * given their CRC-32 values and the length of the second sequence.
+     * This is an adaptation of zlib's {@code crc32_combine()} function.
+     */
+    static long combine(long crc1, final long crc2, long len2) {
+        if (0 >= len2)
+            return crc1;
+        final long[] even = new long[32];
+        final long[] odd = new long[32];
+        odd[0] = 0xedb88320L; // CRC-32 polynomial
+        for (int n = 1, row = 1; n < 32; n++, row <<= 1)
+            odd[n] = row;
+        square(even, odd); // two zero bits
+        square(odd, even); // four zero bits
+        do {
+            // Apply zeros operator for this bit of len2.
+            square(even, odd);
+            if (0 != (len2 & 1))
+                crc1 = times(even, crc1);
+            len2 >>>= 1;
+            if (0 == len2)
+                break;
+            square(odd, even);
+            if (0 != (len2 & 1))
+                crc1 = times(odd, crc1);
+            len2 >>>= 1;
+        } while (0 != len2);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(final long[] mat, long vec) {
+        long sum = 0;
+        for (int i = 0; 0 != vec; i++, vec >>>= 1)
+            if (0 != (vec & 1))
+                sum ^= mat[i];
+        return sum;
+    }
+
+    private static void square(final long[] square, final long[] mat) {
+        for (int n = 0; n < 32; n++)
+            square[n] = times(mat, mat[n]);
+    }
+
+    /** A chunk of data which gets compressed by a pooled thread. */
+    private static final class Chunk implements Callable<Chunk> {
+        final byte[] in;
+        final int length;
+        final byte[] dict;
+        final int level;
+        final boolean last;
+        byte[] out;
+        int outLength;
+        long crc;
+
+        Chunk(  final byte[] in,
+                final int length,
+                final byte[] dict,
+                final int level,
+                final boolean last) {
+            this.in = in;
+            this.length = length;
+            this.dict = dict;
+            this.level = level;
+            this.last = last;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            final CRC32 crc = new CRC32();
+            crc.update(in, 0, length);
+            this.crc = crc.getValue();
+            final Deflater def = FlaterPool.DEFLATERS.allocate(level, true);
+            try {
+                if (null != dict)
+                    def.setDictionary(dict);
+                def.setInput(in, 0, length);
+                byte[] out = new byte[length / 2 + 64];
+                int off = 0;
+                if (last) {
+                    def.finish();
+                    while (!def.finished()) {
+                        if (off == out.length)
+                            out = Arrays.copyOf(out, out.length << 1);
+                        off += def.deflate(out, off, out.length - off);
+                    }
+                } else {
+                    // Repeat while the output buffer is full.
+                    while (true) {
+                        if (off == out.length)
+                            out = Arrays.copyOf(out, out.length << 1);
+                        final int space = out.length - off;
+                        final int n = syncFlush(def, out, off, space);
+                        off += n;
+                        if (n < space)
+                            break;
+                    }
+                }
+                this.out = out;
+                this.outLength = off;
+            } finally {
+                FlaterPool.DEFLATERS.release(def, level, true);
+            }
+            return this;
+        }
+
+        private static int syncFlush(
+                final Deflater def,
+                final byte[] b,
+                final int off,
+                final int len) {
+            try {
+                return (Integer) deflate.invoke(def, b, off, len, SYNC_FLUSH);
+            } catch (final IllegalAccessException ex) {
+                throw new AssertionError(ex);
+            } catch (final InvocationTargetException ex) {
+                final Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw new AssertionError(cause);
+            }
+        }
+    } // Chunk
+}
@@ -5,7 +5,10 @@
 package de.schlichtherle.truezip.zip;
 
 import de.schlichtherle.truezip.rof.BufferedReadOnlyFile;
+import de.schlichtherle.truezip.rof.ByteBufferReadOnlyFile;
+import de.schlichtherle.truezip.rof.ChannelReadOnlyFile;
 import de.schlichtherle.truezip.rof.IntervalReadOnlyFile;
+import de.schlichtherle.truezip.rof.MappedReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFile;
 import de.schlichtherle.truezip.rof.ReadOnlyFileInputStream;
 import static de.schlichtherle.truezip.util.HashMaps.initialCapacity;
@@ -18,18 +21,24 @@ import static de.schlichtherle.truezip.zip.WinZipAesUtils.overhead;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import static de.schlichtherle.truezip.zip.ZipParametersUtils.parameters;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.zip.CRC32;
 import java.util.zip.CheckedInputStream;
 import java.util.zip.Inflater;
 import java.util.zip.ZipException;
 import libtruezip.compress.bzip2.BZip2CompressorInputStream;
+import libtruezip.compress.bzip2.ParallelBZip2CompressorInputStream;
 
 /**
  * Provides unsafe (raw) access to a ZIP file using unsynchronized methods and
@@ -67,6 +76,20 @@ implements Iterable<E>, Closeable {
             /* Compressed Size                 */ 4 +
             /* Uncompressed Size               */ 4;
 
+    /**
+     * The number of candidate offsets for the End Of Central Directory Record
+     * which get checked per block read when scanning the tail of the file.
+     */
+    private static final int EOCDR_SCAN_BLOCK_LEN = 64 * 1024;
+
+    /**
+     * The minimum compressed size of BZIP2 entries which get decoded by
+     * multiple threads.
+     */
+    private static final long MIN_PARALLEL_BZIP2_SIZE = 1024 * 1024;
+
+    private static final Logger logger = Logger.getLogger(RawZipFile.class.getName());
+
     /**
      * The default character set used for entry names and comments in ZIP files.
      * This is {@code "UTF-8"} for compatibility with Sun's JDK implementation.
@@ -102,7 +125,43 @@ implements Iterable<E>, Closeable {
     private PositionMapper mapper = new PositionMapper();
 
     /** The number of open resources for reading the entries in this ZIP file. */
-    private int open;
+    private final AtomicInteger open = new AtomicInteger();
+
+    /**
+     * Whether or not each resource for reading the entries in this ZIP file
+     * gets its own file pointer.
+     * This is {@code true} if and only if the data source is a
+     * {@link ChannelReadOnlyFile} or a {@link MappedReadOnlyFile}.
+     */
+    private boolean positional;
+
+    /**
+     * Whether or not the central directory gets stored in a packed form.
+     *
+     * @see ZipIndexParameters#getPackedIndex()
+     */
+    private boolean packed;
+
+    /**
+     * The CRC-32 value of the (ZIP64) End Of Central Directory Record.
+     * This identifies the central directory for a persistent index.
+     */
+    private long checksum;
+
+    /**
+     * The cache for the indexes of DEFLATED entries or {@code null} if
+     * random access to DEFLATED entries is not supported.
+     *
+     * @see ZipInflateIndexParameters#getInflateIndexSpan()
+     */
+    private InflateIndexCache inflateIndexes;
+
+    /**
+     * The maximum number of threads for decompressing an entry.
+     *
+     * @see ZipDecompressionParameters#getDecompressionThreads()
+     */
+    private int decompressionThreads = 1;
 
     /**
      * Reads the given {@code zip} file in order to provide random access
@@ -131,15 +190,35 @@ implements Iterable<E>, Closeable {
         final ReadOnlyFile rof = source.allocate();
         try {
             this.rof = rof;
+            this.positional = rof instanceof ChannelReadOnlyFile
+                    || rof instanceof MappedReadOnlyFile;
+            this.packed = param instanceof ZipIndexParameters
+                    && ((ZipIndexParameters) param).getPackedIndex();
+            if (param instanceof ZipInflateIndexParameters) {
+                final int span = ((ZipInflateIndexParameters) param)
+                        .getInflateIndexSpan();
+                if (0 < span)
+                    this.inflateIndexes = new InflateIndexCache(span);
+            }
+            if (param instanceof ZipDecompressionParameters)
+                this.decompressionThreads = Math.max(1,
+                        ((ZipDecompressionParameters) param)
+                            .getDecompressionThreads());
             this.length = rof.length();
             this.param = param;
             this.charset = param.getCharset();
-            final ReadOnlyFile
-                    brof = new SafeBufferedReadOnlyFile(rof, this.length);
+            final ReadOnlyFile brof = buffer(rof, this.length);
             if (!param.getPreambled())
-                checkZipFileSignature(brof);
-            final int numEntries = findCentralDirectory(brof, param.getPostambled());
-            mountCentralDirectory(brof, numEntries);
+                checkZipFileSignature(rof);
+            final int numEntries = findCentralDirectory(
+                    rof, brof, param.getPostambled());
+            final CentralDirectoryIndexFile file = indexFile(param);
+            if (null == file || !readCentralDirectory(file, numEntries)) {
+                final CentralDirectoryIndex<E> index
+                        = mountCentralDirectory(brof, numEntries, null != file);
+                if (null != file)
+                    writeCentralDirectory(file, index);
+            }
             if (this.preamble + this.postamble >= this.length) {
                 assert 0 == numEntries;
                 if (param.getPreambled()) // otherwise already checked
@@ -173,9 +252,14 @@ implements Iterable<E>, Closeable {
     }
 
     /**
-     * Positions the file pointer at the first Central File Header.
+     * Positions the file pointer of {@code brof} at the first Central File
+     * Header.
      * Performs some means to check that this is really a ZIP file.
      * <p>
+     * The tail of the file gets scanned backwards for the End Of Central
+     * Directory Record in blocks of up to {@link #EOCDR_SCAN_BLOCK_LEN} bytes
+     * which get read from the unbuffered {@code rof}.
+     * <p>
      * As a side effect, the following fields will get initialized:
      * <ul>
      * <li>{@link #preamble}
@@ -194,142 +278,44 @@ implements Iterable<E>, Closeable {
      */
     private int findCentralDirectory(
             final ReadOnlyFile rof,
+            final ReadOnlyFile brof,
             final boolean postambled)
     throws IOException {
-        final byte[] sig = new byte[4];
+        final long started = System.nanoTime();
         final long max = this.length - EOCDR_MIN_LEN;
         final long min = !postambled && max >= 0xffff ? max - 0xffff : 0;
-        for (long eocdrOff = max; eocdrOff >= min; eocdrOff--) {
-            rof.seek(eocdrOff);
-            rof.readFully(sig);
-            if (EOCDR_SIG != readUInt(sig, 0))
-                continue;
-
-            // Process End Of Central Directory Record.
-            long diskNo;        // number of this disk
-            long cdDiskNo;      // number of the disk with the start of the central directory
-            long cdEntriesDisk; // total number of entries in the central directory on this disk
-            long cdEntries;     // total number of entries in the central directory
-            long cdSize;        // size of the central directory
-            long cdOffset;      // offset of start of central directory with respect to the starting disk number
-            int commentLen;     // .ZIP file comment length
-            final byte[] eocdr = new byte[EOCDR_MIN_LEN - sig.length];
-            rof.readFully(eocdr);
-            int off = 0;
-            diskNo = readUShort(eocdr, off);
-            off += 2;
-            cdDiskNo = readUShort(eocdr, off);
-            off += 2;
-            cdEntriesDisk = readUShort(eocdr, off);
-            off += 2;
-            cdEntries = readUShort(eocdr, off);
-            off += 2;
-            if (0 != diskNo || 0 != cdDiskNo || cdEntriesDisk != cdEntries)
-                throw new ZipException(
-                        "ZIP file spanning/splitting is not supported!");
-            cdSize = readUInt(eocdr, off);
-            off += 4;
-            cdOffset = readUInt(eocdr, off);
-            off += 4;
-            commentLen = readUShort(eocdr, off);
-            //off += 2;
-            if (0 < commentLen) {
-                final byte[] comment = new byte[commentLen];
-                rof.readFully(comment);
-                this.comment = comment;
-            }
-            this.preamble = eocdrOff;
-            this.postamble = this.length - rof.getFilePointer();
-
-            // Check for ZIP64 End Of Central Directory Locator.
-            final long eocdlOff = eocdrOff - ZIP64_EOCDL_LEN;
-            if (0 > eocdlOff) {
-                // Seek and check first CFH, probably using an offset mapper.
-                long offset = eocdrOff - cdSize;
-                rof.seek(offset);
-                offset -= cdOffset;
-                if (0 != offset)
-                    this.mapper = new OffsetPositionMapper(offset);
-                return (int) cdEntries;
-            }
-            rof.seek(eocdlOff);
-            final byte[] zip64eocdl = new byte[ZIP64_EOCDL_LEN];
-            rof.readFully(zip64eocdl);
-            if (ZIP64_EOCDL_SIG != readUInt(zip64eocdl, 0)) {
-                // dito
-                long offset = eocdrOff - cdSize;
-                rof.seek(offset);
-                offset -= cdOffset;
-                if (0 != offset)
-                    this.mapper = new OffsetPositionMapper(offset);
-                return (int) cdEntries;
+        final byte[] block = new byte[(int) Math.max(0, Math.min(
+                EOCDR_SCAN_BLOCK_LEN + EOCDR_MIN_LEN - 1,
+                max - min + EOCDR_MIN_LEN))];
+        long scanned = 0;
+        // Read the tail of the file in blocks which overlap by
+        // EOCDR_MIN_LEN - 1 bytes so that each block contains the complete
+        // fixed size part of any End Of Central Directory Record which starts
+        // in it.
+        // Read each block with a single call to the unbuffered read only
+        // file.
+        // Note that this must happen before the buffered read only file gets
+        // used because it relies on the position of the file pointer in the
+        // unbuffered read only file for sequential reads.
+        for (long hi = max; hi >= min; ) {
+            final long lo = Math.max(min, hi - EOCDR_SCAN_BLOCK_LEN + 1);
+            final int len = (int) (hi - lo) + EOCDR_MIN_LEN;
+            rof.seek(lo);
+            rof.readFully(block, 0, len);
+            scanned += len;
+            for (int i = (int) (hi - lo); i >= 0; i--) {
+                if (0x50 != block[i] || EOCDR_SIG != readUInt(block, i))
+                    continue;
+                final long eocdrOff = lo + i;
+                try {
+                    return mountEndOfCentralDirectory(brof, block, i, eocdrOff);
+                } finally {
+                    logScan(scanned, started);
+                }
             }
-            final long zip64eocdrDisk;      // number of the disk with the start of the zip64 end of central directory record
-            final long zip64eocdrOff;       // relative offset of the zip64 end of central directory record
-            final long totalDisks;          // total number of disks
-            off = 4; // reuse
-            zip64eocdrDisk = readUInt(zip64eocdl, off);
-            off += 4;
-            zip64eocdrOff = readLong(zip64eocdl, off);
-            off += 8;
-            totalDisks = readUInt(zip64eocdl, off);
-            //off += 4;
-            if (0 != zip64eocdrDisk || 1 != totalDisks)
-                throw new ZipException(
-                        "ZIP file spanning/splitting is not supported!");
-
-            // Read Zip64 End Of Central Directory Record.
-            final byte[] zip64eocdr = new byte[ZIP64_EOCDR_MIN_LEN];
-            rof.seek(zip64eocdrOff);
-            rof.readFully(zip64eocdr);
-            off = 0; // reuse
-            // zip64 end of central dir
-            // signature                       4 bytes  (0x06064b50)
-            if (ZIP64_EOCDR_SIG != readUInt(zip64eocdr, off))
-                throw new ZipException(
-                        "Expected ZIP64 End Of Central Directory Record!");
-            off += 4;
-            // size of zip64 end of central
-            // directory record                8 bytes
-            off += 8;
-            // version made by                 2 bytes
-            off += 2;
-            // version needed to extract       2 bytes
-            off += 2;
-            // number of this disk             4 bytes
-            diskNo = readUInt(zip64eocdr, off);
-            off += 4;
-            // number of the disk with the
-            // start of the central directory  4 bytes
-            cdDiskNo = readUInt(zip64eocdr, off);
-            off += 4;
-            // total number of entries in the
-            // central directory on this disk  8 bytes
-            cdEntriesDisk = readLong(zip64eocdr, off);
-            off += 8;
-            // total number of entries in the
-            // central directory               8 bytes
-            cdEntries = readLong(zip64eocdr, off);
-            off += 8;
-            if (0 != diskNo || 0 != cdDiskNo || cdEntriesDisk != cdEntries)
-                throw new ZipException(
-                        "ZIP file spanning/splitting is not supported!");
-            if (cdEntries < 0 || Integer.MAX_VALUE < cdEntries)
-                throw new ZipException(
-                        "Total Number Of Entries In The Central Directory out of range!");
-            // size of the central directory   8 bytes
-            //cdSize = readLong(zip64eocdr, off);
-            off += 8;
-            // offset of start of central
-            // directory with respect to
-            // the starting disk number        8 bytes
-            cdOffset = readLong(zip64eocdr, off);
-            //off += 8;
-            // zip64 extensible data sector    (variable size)
-            rof.seek(cdOffset);
-            this.preamble = zip64eocdrOff;
-            return (int) cdEntries;
+            hi = lo - 1;
         }
+        logScan(scanned, started);
 
         // Start recovering file entries from min.
         this.preamble = min;
@@ -337,9 +323,170 @@ implements Iterable<E>, Closeable {
         return 0;
     }
 
+    private static void logScan(final long scanned, final long started) {
+        if (logger.isLoggable(Level.FINE))
+            logger.log(Level.FINE, "Scanned {0} bytes in {1} ms for the End Of Central Directory Record.",
+                    new Object[] {
+                        scanned,
+                        (System.nanoTime() - started) / 1000000,
+                    });
+    }
+
+    /**
+     * Processes the End Of Central Directory Record at the given offset
+     * {@code eocdrOff} in the file and positions the file pointer at the
+     * first Central File Header.
+     * The given {@code block} holds the file data around the record, where
+     * the record's signature starts at the index {@code i}.
+     */
+    private int mountEndOfCentralDirectory(
+            final ReadOnlyFile rof,
+            final byte[] block,
+            final int i,
+            final long eocdrOff)
+    throws IOException {
+        final CRC32 crc = new CRC32();
+        crc.update(block, i, EOCDR_MIN_LEN);
+        this.checksum = crc.getValue();
+
+        // Process End Of Central Directory Record.
+        long diskNo;        // number of this disk
+        long cdDiskNo;      // number of the disk with the start of the central directory
+        long cdEntriesDisk; // total number of entries in the central directory on this disk
+        long cdEntries;     // total number of entries in the central directory
+        long cdSize;        // size of the central directory
+        long cdOffset;      // offset of start of central directory with respect to the starting disk number
+        int commentLen;     // .ZIP file comment length
+        final byte[] eocdr = block;
+        int off = i + 4;
+        diskNo = readUShort(eocdr, off);
+        off += 2;
+        cdDiskNo = readUShort(eocdr, off);
+        off += 2;
+        cdEntriesDisk = readUShort(eocdr, off);
+        off += 2;
+        cdEntries = readUShort(eocdr, off);
+        off += 2;
+        if (0 != diskNo || 0 != cdDiskNo || cdEntriesDisk != cdEntries)
+            throw new ZipException(
+                    "ZIP file spanning/splitting is not supported!");
+        cdSize = readUInt(eocdr, off);
+        off += 4;
+        cdOffset = readUInt(eocdr, off);
+        off += 4;
+        commentLen = readUShort(eocdr, off);
+        //off += 2;
+        rof.seek(eocdrOff + EOCDR_MIN_LEN);
+        if (0 < commentLen) {
+            final byte[] comment = new byte[commentLen];
+            rof.readFully(comment);
+            this.comment = comment;
+        }
+        this.preamble = eocdrOff;
+        this.postamble = this.length - rof.getFilePointer();
+
+        // Check for ZIP64 End Of Central Directory Locator.
+        final long eocdlOff = eocdrOff - ZIP64_EOCDL_LEN;
+        if (0 > eocdlOff) {
+            // Seek and check first CFH, probably using an offset mapper.
+            long offset = eocdrOff - cdSize;
+            rof.seek(offset);
+            offset -= cdOffset;
+            if (0 != offset)
+                this.mapper = new OffsetPositionMapper(offset);
+            return (int) cdEntries;
+        }
+        final byte[] zip64eocdl = new byte[ZIP64_EOCDL_LEN];
+        if (ZIP64_EOCDL_LEN <= i) {
+            System.arraycopy(block, i - ZIP64_EOCDL_LEN,
+                    zip64eocdl, 0, ZIP64_EOCDL_LEN);
+        } else {
+            rof.seek(eocdlOff);
+            rof.readFully(zip64eocdl);
+        }
+        if (ZIP64_EOCDL_SIG != readUInt(zip64eocdl, 0)) {
+            // dito
+            long offset = eocdrOff - cdSize;
+            rof.seek(offset);
+            offset -= cdOffset;
+            if (0 != offset)
+                this.mapper = new OffsetPositionMapper(offset);
+            return (int) cdEntries;
+        }
+        final long zip64eocdrDisk;      // number of the disk with the start of the zip64 end of central directory record
+        final long zip64eocdrOff;       // relative offset of the zip64 end of central directory record
+        final long totalDisks;          // total number of disks
+        off = 4; // reuse
+        zip64eocdrDisk = readUInt(zip64eocdl, off);
+        off += 4;
+        zip64eocdrOff = readLong(zip64eocdl, off);
+        off += 8;
+        totalDisks = readUInt(zip64eocdl, off);
+        //off += 4;
+        if (0 != zip64eocdrDisk || 1 != totalDisks)
+            throw new ZipException(
+                    "ZIP file spanning/splitting is not supported!");
+
+        // Read Zip64 End Of Central Directory Record.
+        final byte[] zip64eocdr = new byte[ZIP64_EOCDR_MIN_LEN];
+        rof.seek(zip64eocdrOff);
+        rof.readFully(zip64eocdr);
+        off = 0; // reuse
+        // zip64 end of central dir
+        // signature                       4 bytes  (0x06064b50)
+        if (ZIP64_EOCDR_SIG != readUInt(zip64eocdr, off))
+            throw new ZipException(
+                    "Expected ZIP64 End Of Central Directory Record!");
+        crc.update(zip64eocdr);
+        this.checksum = crc.getValue();
+        off += 4;
+        // size of zip64 end of central
+        // directory record                8 bytes
+        off += 8;
+        // version made by                 2 bytes
+        off += 2;
+        // version needed to extract       2 bytes
+        off += 2;
+        // number of this disk             4 bytes
+        diskNo = readUInt(zip64eocdr, off);
+        off += 4;
+        // number of the disk with the
+        // start of the central directory  4 bytes
+        cdDiskNo = readUInt(zip64eocdr, off);
+        off += 4;
+        // total number of entries in the
+        // central directory on this disk  8 bytes
+        cdEntriesDisk = readLong(zip64eocdr, off);
+        off += 8;
+        // total number of entries in the
+        // central directory               8 bytes
+        cdEntries = readLong(zip64eocdr, off);
+        off += 8;
+        if (0 != diskNo || 0 != cdDiskNo || cdEntriesDisk != cdEntries)
+            throw new ZipException(
+                    "ZIP file spanning/splitting is not supported!");
+        if (cdEntries < 0 || Integer.MAX_VALUE < cdEntries)
+            throw new ZipException(
+                    "Total Number Of Entries In The Central Directory out of range!");
+        // size of the central directory   8 bytes
+        //cdSize = readLong(zip64eocdr, off);
+        off += 8;
+        // offset of start of central
+        // directory with respect to
+        // the starting disk number        8 bytes
+        cdOffset = readLong(zip64eocdr, off);
+        //off += 8;
+        // zip64 extensible data sector    (variable size)
+        rof.seek(cdOffset);
+        this.preamble = zip64eocdrOff;
+        return (int) cdEntries;
+    }
+
     /**
      * Reads the central directory from the given read only file file and
      * populates the internal tables with ZipEntry instances.
+     * If the central directory gets stored in a packed form, then the
+     * ZipEntry instances get created on demand instead.
      * <p>
      * The ZipEntrys will know all data that can be obtained from
      * the central directory alone, but not the data that requires the
@@ -358,13 +505,27 @@ implements Iterable<E>, Closeable {
      *
      * @throws ZipException If the file is not compatible to the ZIP File
      *         Format Specification.
+     * @param  indexed whether or not to build a packed index even if the
+     *         entries don't get stored in a packed form.
+     * @return The packed index of the central directory or {@code null} if
+     *         no packed index has been built.
      * @throws IOException On any other I/O related issue.
      */
-    private void mountCentralDirectory(final ReadOnlyFile rof, int numEntries)
+    private CentralDirectoryIndex<E> mountCentralDirectory(
+            final ReadOnlyFile rof,
+            int numEntries,
+            final boolean indexed)
     throws IOException {
-        final Map<String, E> entries = new LinkedHashMap<String, E>(
-                Math.max(initialCapacity(numEntries), 16));
-        final byte[] cfh = new byte[CFH_MIN_LEN];
+        final Map<String, E> entries;
+        final CentralDirectoryIndex<E> index;
+        if (packed) {
+            entries = index = newIndex(numEntries);
+        } else {
+            index = indexed ? newIndex(numEntries) : null;
+            entries = new LinkedHashMap<String, E>(
+                    Math.max(initialCapacity(numEntries), 16));
+        }
+        byte[] cfh = new byte[CFH_MIN_LEN];
         for (; ; numEntries--) {
             rof.readFully(cfh, 0, 4);
             // central file header signature   4 bytes  (0x02014b50)
@@ -372,91 +533,41 @@ implements Iterable<E>, Closeable {
                 break;
             rof.readFully(cfh, 4, CFH_MIN_LEN - 4);
             final int gpbf = readUShort(cfh, 8);
-            final int nameLen = readUShort(cfh, 28);
-            final byte[] name = new byte[nameLen];
-            rof.readFully(name);
+            // file name length, extra field length and file comment length
+            final int len = CFH_MIN_LEN
+                    + readUShort(cfh, 28)
+                    + readUShort(cfh, 30)
+                    + readUShort(cfh, 32);
+            if (cfh.length < len) {
+                final byte[] buf = new byte[len];
+                System.arraycopy(cfh, 0, buf, 0, CFH_MIN_LEN);
+                cfh = buf;
+            }
+            rof.readFully(cfh, CFH_MIN_LEN, len - CFH_MIN_LEN);
             // See appendix D of PKWARE's ZIP File Format Specification.
             final boolean utf8 = 0 != (gpbf & GPBF_UTF8);
             if (utf8)
                 this.charset = UTF8;
-            final E entry = this.param.newEntry(decode(name));
-            try {
-                int off = 0;
-                // central file header signature   4 bytes  (0x02014b50)
-                off += 4;
-                // version made by                 2 bytes
-                entry.setRawPlatform(readUShort(cfh, off) >> 8);
-                off += 2;
-                // version needed to extract       2 bytes
-                off += 2;
-                // general purpose bit flag        2 bytes
-                entry.setGeneralPurposeBitFlags(gpbf);
-                off += 2; // General Purpose Bit Flags
-                // compression method              2 bytes
-                entry.setRawMethod(readUShort(cfh, off));
-                off += 2;
-                // last mod file time              2 bytes
-                // last mod file date              2 bytes
-                entry.setRawTime(readUInt(cfh, off));
-                off += 4;
-                // crc-32                          4 bytes
-                entry.setRawCrc(readUInt(cfh, off));
-                off += 4;
-                // compressed size                 4 bytes
-                entry.setRawCompressedSize(readUInt(cfh, off));
-                off += 4;
-                // uncompressed size               4 bytes
-                entry.setRawSize(readUInt(cfh, off));
-                off += 4;
-                // file name length                2 bytes
-                off += 2;
-                // extra field length              2 bytes
-                final int extraLen = readUShort(cfh, off);
-                off += 2;
-                // file comment length             2 bytes
-                final int commentLen = readUShort(cfh, off);
-                off += 2;
-                // disk number start               2 bytes
-                off += 2;
-                // internal file attributes        2 bytes
-                //entry.setEncodedInternalAttributes(readUShort(cfh, off));
-                off += 2;
-                // external file attributes        4 bytes
-                entry.setRawExternalAttributes(readUInt(cfh, off));
-                off += 4;
-                // relative offset of local header 4 bytes
-                long lfhOff = readUInt(cfh, off);
-                entry.setRawOffset(lfhOff); // must be unmapped!
-                //off += 4;
-                // extra field (variable size)
-                if (0 < extraLen) {
-                    final byte[] extra = new byte[extraLen];
-                    rof.readFully(extra);
-                    entry.setRawExtraFields(extra);
-                }
-                // file comment (variable size)
-                if (0 < commentLen) {
-                    final byte[] comment = new byte[commentLen];
-                    rof.readFully(comment);
-                    entry.setRawComment(decode(comment));
-                }
-                // Re-read virtual offset after ZIP64 Extended Information
-                // Extra Field may have been parsed, map it to the real
-                // offset and conditionally update the preamble size from it.
-                lfhOff = this.mapper.map(entry.getOffset());
-                if (lfhOff < this.preamble)
-                    this.preamble = lfhOff;
-            } catch (IllegalArgumentException cause) {
-                throw (ZipException) new ZipException(entry.getName()
-                        + " (invalid meta data)").initCause(cause);
-            }
+            final E entry = newEntry(cfh, 0, this.charset);
+
+            // Re-read virtual offset after ZIP64 Extended Information
+            // Extra Field may have been parsed, map it to the real
+            // offset and conditionally update the preamble size from it.
+            final long lfhOff = this.mapper.map(entry.getOffset());
+            if (lfhOff < this.preamble)
+                this.preamble = lfhOff;
 
             // Map the entry using the name that has been determined
             // by the ZipEntryFactory.
             // Note that this name may differ from what has been found
             // in the ZIP file!
-            entries.put(entry.getName(), entry);
+            if (null != index)
+                index.add(cfh, len, entry, UTF8.equals(this.charset));
+            if (index != entries)
+                entries.put(entry.getName(), entry);
         }
+        if (null != index)
+            index.trim();
 
         // Check if the number of entries found matches the number of entries
         // declared in the (ZIP64) End Of Central Directory header.
@@ -477,6 +588,185 @@ implements Iterable<E>, Closeable {
 
         // Commit map of entries.
         this.entries = entries;
+        return index;
+    }
+
+    /** Returns a new empty packed index of the central directory. */
+    private CentralDirectoryIndex<E> newIndex(final int numEntries) {
+        final Charset charset = this.charset;
+        return new CentralDirectoryIndex<E>(numEntries) {
+            @Override
+            E newEntry(byte[] pool, int off, boolean utf8) {
+                try {
+                    return RawZipFile.this.newEntry(pool, off,
+                            utf8 ? UTF8 : charset);
+                } catch (ZipException ex) {
+                    // The record has been parsed before.
+                    throw new AssertionError(ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the sidecar file for persisting the index of the central
+     * directory or {@code null} if the index should not get persisted.
+     */
+    private CentralDirectoryIndexFile indexFile(
+            final ZipFileParameters<E> param) {
+        if (!(param instanceof ZipIndexParameters))
+            return null;
+        final ZipIndexParameters ip = (ZipIndexParameters) param;
+        final File file = ip.getIndexFile();
+        return null == file
+                ? null
+                : new CentralDirectoryIndexFile(
+                    file, ip.getIndexKey(), this.length, this.checksum);
+    }
+
+    /**
+     * Reads the central directory from the given sidecar file instead of the
+     * ZIP file.
+     * <p>
+     * As a side effect, the following fields will get initialized:
+     * <ul>
+     * <li>{@link #entries}
+     * </ul>
+     * <p>
+     * The following fields may get updated:
+     * <ul>
+     * <li>{@link #preamble}
+     * <li>{@link #charset}
+     * </ul>
+     *
+     * @return {@code true} if and only if the central directory has been read
+     *         from the sidecar file.
+     */
+    private boolean readCentralDirectory(
+            final CentralDirectoryIndexFile file,
+            final int numEntries) {
+        final CentralDirectoryIndex<E> index = newIndex(numEntries);
+        final CentralDirectoryIndexFile.Header header;
+        try {
+            header = file.read(index, numEntries);
+        } catch (final IOException ex) {
+            logger.log(Level.FINE, "Cannot read index file.", ex);
+            return false;
+        }
+        if (null == header)
+            return false;
+        this.preamble = header.preamble;
+        if (header.utf8)
+            this.charset = UTF8;
+        if (packed) {
+            this.entries = index;
+        } else {
+            final Map<String, E> entries = new LinkedHashMap<String, E>(
+                    Math.max(initialCapacity(index.size()), 16));
+            for (final E entry : index.values())
+                entries.put(entry.getName(), entry);
+            this.entries = entries;
+        }
+        return true;
+    }
+
+    /** Writes the given index of the central directory to the sidecar file. */
+    private void writeCentralDirectory(
+            final CentralDirectoryIndexFile file,
+            final CentralDirectoryIndex<E> index) {
+        try {
+            file.write(index, new CentralDirectoryIndexFile.Header(
+                    this.preamble, UTF8.equals(this.charset)));
+        } catch (final IOException ex) {
+            logger.log(Level.WARNING, "Cannot write index file.", ex);
+        }
+    }
+
+    /**
+     * Returns a new ZIP entry for the Central File Header record at the given
+     * offset in the given buffer.
+     * The buffer must hold the entire record, including the file name, the
+     * extra field and the file comment.
+     *
+     * @param  cfh the buffer which holds the record.
+     * @param  start the offset of the record in the buffer.
+     * @param  charset the character set for decoding the file name and the
+     *         file comment.
+     * @return A new ZIP entry.
+     * @throws ZipException If the record holds invalid meta data.
+     */
+    private E newEntry(
+            final byte[] cfh,
+            final int start,
+            final Charset charset)
+    throws ZipException {
+        final int nameLen = readUShort(cfh, start + 28);
+        final E entry = this.param.newEntry(
+                new String(cfh, start + CFH_MIN_LEN, nameLen, charset));
+        try {
+            int off = start;
+            // central file header signature   4 bytes  (0x02014b50)
+            off += 4;
+            // version made by                 2 bytes
+            entry.setRawPlatform(readUShort(cfh, off) >> 8);
+            off += 2;
+            // version needed to extract       2 bytes
+            off += 2;
+            // general purpose bit flag        2 bytes
+            entry.setGeneralPurposeBitFlags(readUShort(cfh, off));
+            off += 2; // General Purpose Bit Flags
+            // compression method              2 bytes
+            entry.setRawMethod(readUShort(cfh, off));
+            off += 2;
+            // last mod file time              2 bytes
+            // last mod file date              2 bytes
+            entry.setRawTime(readUInt(cfh, off));
+            off += 4;
+            // crc-32                          4 bytes
+            entry.setRawCrc(readUInt(cfh, off));
+            off += 4;
+            // compressed size                 4 bytes
+            entry.setRawCompressedSize(readUInt(cfh, off));
+            off += 4;
+            // uncompressed size               4 bytes
+            entry.setRawSize(readUInt(cfh, off));
+            off += 4;
+            // file name length                2 bytes
+            off += 2;
+            // extra field length              2 bytes
+            final int extraLen = readUShort(cfh, off);
+            off += 2;
+            // file comment length             2 bytes
+            final int commentLen = readUShort(cfh, off);
+            off += 2;
+            // disk number start               2 bytes
+            off += 2;
+            // internal file attributes        2 bytes
+            //entry.setEncodedInternalAttributes(readUShort(cfh, off));
+            off += 2;
+            // external file attributes        4 bytes
+            entry.setRawExternalAttributes(readUInt(cfh, off));
+            off += 4;
+            // relative offset of local header 4 bytes
+            entry.setRawOffset(readUInt(cfh, off)); // must be unmapped!
+            off += 4;
+            // file name (variable size)
+            off += nameLen;
+            // extra field (variable size)
+            if (0 < extraLen) {
+                final byte[] extra = new byte[extraLen];
+                System.arraycopy(cfh, off, extra, 0, extraLen);
+                entry.setRawExtraFields(extra);
+            }
+            off += extraLen;
+            // file comment (variable size)
+            if (0 < commentLen)
+                entry.setRawComment(new String(cfh, off, commentLen, charset));
+        } catch (IllegalArgumentException cause) {
+            throw (ZipException) new ZipException(entry.getName()
+                    + " (invalid meta data)").initCause(cause);
+        }
+        return entry;
     }
 
     /**
@@ -507,7 +797,7 @@ implements Iterable<E>, Closeable {
      */
     public void recoverLostEntries() throws IOException {
         final long length = this.length;
-        final ReadOnlyFile rof = new SafeBufferedReadOnlyFile(rof(), length);
+        final ReadOnlyFile rof = buffer(rof(), length);
         while (0 < this.postamble) {
             long fp = length - postamble;
             rof.seek(fp);
@@ -739,7 +1029,7 @@ implements Iterable<E>, Closeable {
      * one or more entries.
      */
     public boolean busy() {
-        return 0 < open;
+        return 0 < open.get();
     }
 
     /**
@@ -969,23 +1259,14 @@ implements Iterable<E>, Closeable {
             Boolean check,
             final boolean process)
     throws IOException {
-        final ReadOnlyFile rof = rof();
+        final ReadOnlyFile rof = positionalRof();
         if (name == null)
             throw new NullPointerException();
         final ZipEntry entry = entries.get(name);
         if (entry == null)
             return null;
-        long fp = entry.getOffset();
-        assert UNKNOWN != fp;
-        fp = mapper.map(fp);
-        rof.seek(fp);
         final byte[] lfh = new byte[LFH_MIN_LEN];
-        rof.readFully(lfh);
-        if (LFH_SIG != readUInt(lfh, 0))
-            throw new ZipException(name + " (expected Local File Header)");
-        fp += LFH_MIN_LEN
-                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF) // file name length
-                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF + 2); // extra field length
+        final long fp = readLocalFileHeader(rof, entry, lfh);
         ReadOnlyFile erof;
         try {
             erof = new EntryReadOnlyFile(
@@ -1059,8 +1340,16 @@ implements Iterable<E>, Closeable {
                             bufSize);
                     break;
                 case BZIP2:
-                    in = new BZip2CompressorInputStream(
-                            new ReadOnlyFileInputStream(erof));
+                    if (1 < decompressionThreads
+                            && MIN_PARALLEL_BZIP2_SIZE
+                                <= entry.getCompressedSize())
+                        in = new ParallelBZip2CompressorInputStream(
+                                new ReadOnlyFileInputStream(erof),
+                                CompressionThreads.executor(),
+                                decompressionThreads);
+                    else
+                        in = new BZip2CompressorInputStream(
+                                new ReadOnlyFileInputStream(erof));
                     break;
                 default:
                     throw new ZipException(name
@@ -1077,6 +1366,113 @@ implements Iterable<E>, Closeable {
         }
     }
 
+    /**
+     * Returns a read only file for random access to the data of the entry
+     * with the given name.
+     * This is supported for STORED entries which are not encrypted.
+     * The returned read only file is a slice of the ZIP file, so no data gets
+     * copied or decompressed.
+     * If the ZIP file is a {@link MappedReadOnlyFile}, then the returned read
+     * only file is a {@link ByteBufferReadOnlyFile} with a view of the mapped
+     * entry data.
+     * <p>
+     * If the {@link ZipInflateIndexParameters} provide a positive span, then
+     * this is also supported for DEFLATED entries which are not encrypted and
+     * have a known size.
+     * In this case, seeking gets accelerated by a checkpoint index which gets
+     * built lazily and kept in a bounded cache.
+     * <p>
+     * Note that the CRC-32 value of the entry data does not get checked.
+     *
+     * @param  name the name of the entry.
+     * @return A read only file for random access to the entry data or
+     *         {@code null} if no entry with the given name exists.
+     * @throws ZipException if random access is not supported for the entry
+     *         or if this ZIP file is not compatible to the ZIP File Format
+     *         Specification.
+     * @throws IOException on any other I/O related issue.
+     */
+    protected ReadOnlyFile getReadOnlyFile(final String name)
+    throws IOException {
+        final ReadOnlyFile rof = positionalRof();
+        if (name == null)
+            throw new NullPointerException();
+        final ZipEntry entry = entries.get(name);
+        if (entry == null)
+            return null;
+        if (!isRandomAccessible(entry))
+            throw new ZipException(name
+                    + " (random access is not supported for this entry)");
+        final long fp = readLocalFileHeader(rof, entry, new byte[LFH_MIN_LEN]);
+        final long size = entry.getCompressedSize();
+        try {
+            if (DEFLATED == entry.getMethod())
+                return new InflaterReadOnlyFile(
+                        new EntryReadOnlyFile(fp, size),
+                        entry.getSize(),
+                        inflateIndexes.get(fp),
+                        inflateIndexes);
+            if (rof instanceof MappedReadOnlyFile && Integer.MAX_VALUE >= size) {
+                final ByteBuffer bb;
+                try {
+                    bb = ((MappedReadOnlyFile) rof).map(fp, (int) size);
+                } catch (final IOException ex) {
+                    // Most likely out of virtual address space.
+                    return new EntryReadOnlyFile(fp, size);
+                }
+                return new EntryByteBufferReadOnlyFile(bb);
+            }
+            return new EntryReadOnlyFile(fp, size);
+        } catch (IllegalArgumentException ex) {
+            throw (IOException) new ZipException(name +
+                    " (invalid meta data in Local File Header or Central Directory Record)"
+                    ).initCause(ex);
+        }
+    }
+
+    /**
+     * Returns {@code true} if and only if {@link #getReadOnlyFile} supports
+     * random access to the data of the given entry.
+     *
+     * @param  entry the entry.
+     * @return {@code true} if and only if {@link #getReadOnlyFile} supports
+     *         random access to the data of the given entry.
+     */
+    protected boolean isRandomAccessible(final ZipEntry entry) {
+        if (entry.isEncrypted())
+            return false;
+        switch (entry.getMethod()) {
+            case STORED:
+                return true;
+            case DEFLATED:
+                return null != inflateIndexes && UNKNOWN != entry.getSize();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads the Local File Header of the given entry into the given buffer
+     * and returns the offset of the entry data in the ZIP file.
+     */
+    private long readLocalFileHeader(
+            final ReadOnlyFile rof,
+            final ZipEntry entry,
+            final byte[] lfh)
+    throws IOException {
+        long fp = entry.getOffset();
+        assert UNKNOWN != fp;
+        fp = mapper.map(fp);
+        rof.seek(fp);
+        rof.readFully(lfh);
+        if (LFH_SIG != readUInt(lfh, 0))
+            throw new ZipException(entry.getName()
+                    + " (expected Local File Header)");
+        return fp + LFH_MIN_LEN
+                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF) // file name length
+                + readUShort(lfh, LFH_FILE_NAME_LENGTH_OFF + 2); // extra field length
+    }
+
     private static int getBufferSize(final ZipEntry entry) {
         long size = entry.getSize();
         if (MAX_FLATER_BUF_LENGTH < size)
@@ -1086,6 +1482,23 @@ implements Iterable<E>, Closeable {
         return (int) size;
     }
 
+    /**
+     * Returns a buffered read only file for parsing the meta data in the
+     * given read only file.
+     * A {@link MappedReadOnlyFile} or a {@link ByteBufferReadOnlyFile} is
+     * returned as is because buffering it would only add another copy of its
+     * data.
+     */
+    private static ReadOnlyFile buffer(
+            final ReadOnlyFile rof,
+            final long length)
+    throws IOException {
+        return rof instanceof MappedReadOnlyFile
+                || rof instanceof ByteBufferReadOnlyFile
+                ? rof
+                : new SafeBufferedReadOnlyFile(rof, length);
+    }
+
     /** Checks that this ZIP file is still open for reading its entries. */
     private ReadOnlyFile rof() throws ZipException {
         final ReadOnlyFile rof = this.rof;
@@ -1094,6 +1507,36 @@ implements Iterable<E>, Closeable {
         return rof;
     }
 
+    /**
+     * Checks that this ZIP file is still open for reading its entries and
+     * returns a read only file with its own file pointer if this ZIP file
+     * supports positional reads.
+     * Otherwise, the shared data source gets returned.
+     */
+    private ReadOnlyFile positionalRof() throws IOException {
+        final ReadOnlyFile rof = rof();
+        if (!positional)
+            return rof;
+        return rof instanceof ChannelReadOnlyFile
+                ? ((ChannelReadOnlyFile) rof).duplicate()
+                : ((MappedReadOnlyFile) rof).duplicate();
+    }
+
+    /**
+     * Returns {@code true} if and only if the entries of this ZIP file can
+     * get read concurrently because each entry stream gets its own file
+     * pointer.
+     * This is the case if and only if the data source provided to the
+     * constructor is a {@link ChannelReadOnlyFile} or a
+     * {@link MappedReadOnlyFile}.
+     *
+     * @return {@code true} if and only if the entries of this ZIP file can
+     *         get read concurrently.
+     */
+    protected final boolean isPositional() {
+        return positional;
+    }
+
     /**
      * Closes the file.
      * This closes any allocate input streams reading from this ZIP file.
@@ -1120,8 +1563,8 @@ implements Iterable<E>, Closeable {
 
         EntryReadOnlyFile(final long start, final long length)
         throws IOException {
-            super(rof(), start, length);
-            RawZipFile.this.open++;
+            super(positionalRof(), start, length);
+            RawZipFile.this.open.incrementAndGet();
         }
 
         @Override
@@ -1131,10 +1574,29 @@ implements Iterable<E>, Closeable {
             // Never close the raw ZIP file!
             //super.close();
             this.closed = true;
-            RawZipFile.this.open--;
+            RawZipFile.this.open.decrementAndGet();
         }
     } // EntryReadOnlyFile
 
+    private final class EntryByteBufferReadOnlyFile
+    extends ByteBufferReadOnlyFile {
+        private boolean closed;
+
+        EntryByteBufferReadOnlyFile(final ByteBuffer buffer) {
+            super(buffer);
+            RawZipFile.this.open.incrementAndGet();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.closed)
+                return;
+            super.close();
+            this.closed = true;
+            RawZipFile.this.open.decrementAndGet();
+        }
+    } // EntryByteBufferReadOnlyFile
+
     /**
      * A buffered read only file which is safe for use with a concurrently
      * growing file, e.g. when another thread is appending to it.
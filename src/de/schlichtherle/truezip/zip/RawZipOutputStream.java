@@ -15,10 +15,14 @@ import static de.schlichtherle.truezip.zip.WinZipAesEntryExtraField.VV_AE_2;
 import static de.schlichtherle.truezip.zip.WinZipAesUtils.overhead;
 import static de.schlichtherle.truezip.zip.ZipEntry.*;
 import static de.schlichtherle.truezip.zip.ZipParametersUtils.parameters;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.ZipException;
 import libtruezip.compress.bzip2.BZip2CompressorOutputStream;
@@ -38,6 +42,12 @@ public abstract class RawZipOutputStream<E extends ZipEntry>
 extends DecoratingOutputStream
 implements Iterable<E> {
 
+    /**
+     * The maximum size of the buffer for the contents of an entry which gets
+     * compressed concurrently.
+     */
+    private static final int MAX_PARALLEL_BUF_LENGTH = 1024 * 1024;
+
     private final LEDataOutputStream dos;
 
     /** The charset to use for entry names and comments. */
@@ -68,6 +78,15 @@ implements Iterable<E> {
 
     private OutputMethod processor;
 
+    /** The maximum number of threads for compressing entries. */
+    private final int threads;
+
+    /**
+     * The queue of entries which get compressed concurrently or
+     * {@code null} if all entries get compressed by the current thread.
+     */
+    private final Deque<Future<CompressedEntry>> pending;
+
     /**
      * Constructs a raw ZIP output stream which decorates the given output
      * stream and optionally apppends to the given raw ZIP file.
@@ -101,6 +120,13 @@ implements Iterable<E> {
         }
         setMethod0(param.getMethod());
         setLevel0(param.getLevel());
+        final int threads = param instanceof ZipCompressionParameters
+                ? ((ZipCompressionParameters) param).getCompressionThreads()
+                : 1;
+        this.threads = threads;
+        this.pending = 1 < threads
+                ? new ArrayDeque<Future<CompressedEntry>>(threads)
+                : null;
     }
 
     @SuppressWarnings("resource")
@@ -295,6 +321,8 @@ implements Iterable<E> {
     /**
      * Returns the total number of (compressed) bytes this stream has written
      * to the underlying stream.
+     * Note that this excludes any entries which are still getting compressed
+     * concurrently.
      */
     public long length() {
         return this.dos.size();
@@ -343,8 +371,13 @@ implements Iterable<E> {
     public void putNextEntry(final E entry, final boolean process)
     throws ZipException, IOException {
         closeEntry();
-        final OutputMethod method = newOutputMethod(entry, process);
+        OutputMethod method = newOutputMethod(entry, process);
         method.init(entry.clone()); // test!
+        if (null != this.pending && process && isParallel(entry)) {
+            method = new ParallelOutputMethod(method);
+        } else {
+            writePending();
+        }
         method.init(entry);
         this.delegate = method.start();
         this.processor = method;
@@ -354,6 +387,42 @@ implements Iterable<E> {
         this.entry = entry;
     }
 
+    /**
+     * Returns {@code true} if and only if the given entry, which has been
+     * initialized by its output method, can get compressed concurrently.
+     */
+    private static boolean isParallel(final ZipEntry entry) {
+        if (entry.isEncrypted() || WINZIP_AES == entry.getMethod())
+            return false;
+        final int method = entry.getMethod();
+        return DEFLATED == method || BZIP2 == method;
+    }
+
+    /**
+     * Writes the entries which have been compressed concurrently.
+     *
+     * @param all if {@code true}, then all pending entries get written.
+     *        Otherwise, only the pending entries which have already been
+     *        compressed or which exceed the maximum number of threads get
+     *        written.
+     */
+    private void writePending(final boolean all) throws IOException {
+        final Deque<Future<CompressedEntry>> pending = this.pending;
+        if (null == pending)
+            return;
+        for (Future<CompressedEntry> result;
+                null != (result = pending.peek()); ) {
+            if (!all && pending.size() <= this.threads && !result.isDone())
+                break;
+            pending.remove();
+            CompressionThreads.get(result).write();
+        }
+    }
+
+    private void writePending() throws IOException {
+        writePending(true);
+    }
+
     /**
      * Returns a new output method for the given entry.
      * Except the property &quot;method&quot;, this method must not modify the
@@ -395,9 +464,15 @@ implements Iterable<E> {
                     processor = new Crc32CheckingOutputMethod(processor);
                 break;
             case DEFLATED:
-                processor = new DeflaterOutputMethod(processor);
-                if (!skipCrc)
-                    processor = new Crc32UpdatingOutputMethod(processor);
+                if (1 < this.threads
+                        && ParallelDeflaterOutputStream.isAvailable()) {
+                    processor = new ParallelDeflaterOutputMethod(processor,
+                            !skipCrc);
+                } else {
+                    processor = new DeflaterOutputMethod(processor);
+                    if (!skipCrc)
+                        processor = new Crc32UpdatingOutputMethod(processor);
+                }
                 break;
             case BZIP2:
                 processor = new BZip2OutputMethod(processor);
@@ -494,6 +569,7 @@ implements Iterable<E> {
         if (this.finished)
             return;
         closeEntry();
+        writePending();
         final LEDataOutputStream dos = this.dos;
         this.cdOffset = dos.size();
         final Iterator<E> i = this.entries.values().iterator();
@@ -945,6 +1021,21 @@ implements Iterable<E> {
         }
     } // WinZipAesOutputMethod
 
+    /**
+     * Returns the BZIP2 block size for an entry with the given size.
+     * If the size is unknown, then the block size gets derived from the
+     * current compression level.
+     */
+    private int getBZip2BlockSize(final long size) {
+        if (UNKNOWN != size)
+            return BZip2CompressorOutputStream.chooseBlockSize(size);
+        final int level = getLevel();
+        if (BZip2CompressorOutputStream.MIN_BLOCKSIZE <= level
+                && level <= BZip2CompressorOutputStream.MAX_BLOCKSIZE)
+            return level;
+        return BZip2CompressorOutputStream.MAX_BLOCKSIZE;
+    }
+
     private final class BZip2OutputMethod extends DecoratingOutputMethod {
         BZip2CompressorOutputStream cout;
         LEDataOutputStream dout;
@@ -966,22 +1057,15 @@ implements Iterable<E> {
             assert null == this.cout;
             assert null == this.dout;
             OutputStream out = this.delegate.start();
-            final long size = this.entry.getSize();
-            final int blockSize = UNKNOWN != size
-                    ? BZip2CompressorOutputStream.chooseBlockSize(size)
-                    : getBZip2BlockSize();
-            out = this.cout = new BZip2CompressorOutputStream(out, blockSize);
+            final int blockSize = getBZip2BlockSize(this.entry.getSize());
+            final int threads = RawZipOutputStream.this.threads;
+            out = this.cout = 1 < threads
+                    ? new BZip2CompressorOutputStream(out, blockSize,
+                        CompressionThreads.executor(), threads)
+                    : new BZip2CompressorOutputStream(out, blockSize);
             return this.dout = new LEDataOutputStream(out);
         }
 
-        int getBZip2BlockSize() {
-            final int level = RawZipOutputStream.this.getLevel();
-            if (BZip2CompressorOutputStream.MIN_BLOCKSIZE <= level
-                    && level <= BZip2CompressorOutputStream.MAX_BLOCKSIZE)
-                return level;
-            return BZip2CompressorOutputStream.MAX_BLOCKSIZE;
-        }
-
         @Override
         public void finish()
         throws IOException {
@@ -1023,11 +1107,231 @@ implements Iterable<E> {
             final ZipEntry entry = this.entry;
             //entry.setRawCompressedSize(deflater.getBytesWritten());
             entry.setRawSize(deflater.getBytesRead());
-            deflater.end();
+            this.out.release();
             this.delegate.finish();
         }
     } // DeflaterOutputMethod
 
+    /**
+     * Compresses the contents of an entry in chunks by multiple threads.
+     * Unlike {@link DeflaterOutputMethod}, this output method also updates
+     * the CRC-32 value of the entry if requested, because the CRC-32 values
+     * of the chunks get computed concurrently, too.
+     */
+    private final class ParallelDeflaterOutputMethod
+    extends DecoratingOutputMethod {
+        final boolean updateCrc;
+        ParallelDeflaterOutputStream out;
+        ZipEntry entry;
+
+        ParallelDeflaterOutputMethod(
+                final OutputMethod processor,
+                final boolean updateCrc) {
+            super(processor);
+            this.updateCrc = updateCrc;
+        }
+
+        @Override
+        public void init(final ZipEntry entry) throws ZipException  {
+            entry.setCompressedSize(UNKNOWN);
+            this.delegate.init(entry);
+            this.entry = entry;
+        }
+
+        @Override
+        public OutputStream start() throws IOException {
+            assert null == this.out;
+            return this.out = new ParallelDeflaterOutputStream(
+                    this.delegate.start(),
+                    RawZipOutputStream.this.getLevel(),
+                    RawZipOutputStream.this.threads);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            final ParallelDeflaterOutputStream out = this.out;
+            out.finish();
+            final ZipEntry entry = this.entry;
+            entry.setRawSize(out.getBytesRead());
+            if (this.updateCrc)
+                entry.setRawCrc(out.getCrc());
+            this.delegate.finish();
+        }
+    } // ParallelDeflaterOutputMethod
+
+    /**
+     * Buffers the contents of an entry in order to compress it concurrently.
+     * If the buffer overflows, then the delegate output method gets used to
+     * compress the entry by the current thread instead.
+     */
+    private final class ParallelOutputMethod extends DecoratingOutputMethod {
+        ParallelBuffer buffer;
+        ZipEntry entry;
+        int level;
+        int blockSize;
+
+        ParallelOutputMethod(OutputMethod processor) {
+            super(processor);
+        }
+
+        @Override
+        public void init(final ZipEntry entry) throws ZipException {
+            this.delegate.init(entry);
+            this.entry = entry;
+        }
+
+        @Override
+        public OutputStream start() throws IOException {
+            assert null == this.buffer;
+            // Start changes.
+            RawZipOutputStream.this.finished = false;
+            this.level = RawZipOutputStream.this.getLevel();
+            if (BZIP2 == this.entry.getMethod())
+                this.blockSize = getBZip2BlockSize(this.entry.getSize());
+            return this.buffer = new ParallelBuffer();
+        }
+
+        @Override
+        public void finish() throws IOException {
+            final ParallelBuffer buffer = this.buffer;
+            if (null == buffer.spilled) {
+                RawZipOutputStream.this.pending.add(CompressionThreads.submit(
+                        new CompressedEntry(this.entry, this.level,
+                            this.blockSize, buffer.buf, buffer.count)));
+                writePending(false);
+            } else {
+                this.delegate.finish();
+            }
+        }
+
+        /**
+         * A buffer which spills its contents to the delegate output method
+         * when it would exceed {@link #MAX_PARALLEL_BUF_LENGTH}.
+         */
+        private final class ParallelBuffer extends OutputStream {
+            final byte[] single = new byte[1];
+            byte[] buf = new byte[MAX_FLATER_BUF_LENGTH];
+            int count;
+            OutputStream spilled;
+
+            @Override
+            public void write(int b) throws IOException {
+                single[0] = (byte) b;
+                write(single, 0, 1);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len)
+            throws IOException {
+                final OutputStream spilled = this.spilled;
+                if (null != spilled) {
+                    spilled.write(b, off, len);
+                    return;
+                }
+                final int count = this.count;
+                if (MAX_PARALLEL_BUF_LENGTH - count < len) {
+                    spill().write(b, off, len);
+                    return;
+                }
+                byte[] buf = this.buf;
+                if (buf.length - count < len)
+                    this.buf = buf = Arrays.copyOf(buf, Math.min(
+                            MAX_PARALLEL_BUF_LENGTH,
+                            Math.max(count + len, buf.length << 1)));
+                System.arraycopy(b, off, buf, count, len);
+                this.count = count + len;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                final OutputStream spilled = this.spilled;
+                if (null != spilled)
+                    spilled.flush();
+            }
+
+            /**
+             * Writes all pending entries, starts the delegate output method,
+             * writes the buffered contents to its output stream and returns
+             * it.
+             */
+            OutputStream spill() throws IOException {
+                writePending();
+                final OutputStream out = ParallelOutputMethod.this.delegate
+                        .start();
+                out.write(this.buf, 0, this.count);
+                this.buf = null;
+                return this.spilled = out;
+            }
+        } // ParallelBuffer
+    } // ParallelOutputMethod
+
+    /**
+     * The contents of an entry which get compressed by a pooled thread.
+     * When called, the contents get compressed and the CRC-32 value gets
+     * computed.
+     * Then the entry can get written as if its compressed contents were
+     * copied from another ZIP file.
+     */
+    private final class CompressedEntry implements Callable<CompressedEntry> {
+        final ZipEntry entry;
+        final int level;
+        final int blockSize;
+        byte[] data;
+        final int size;
+        long crc;
+
+        CompressedEntry(
+                final ZipEntry entry,
+                final int level,
+                final int blockSize,
+                final byte[] data,
+                final int size) {
+            this.entry = entry;
+            this.level = level;
+            this.blockSize = blockSize;
+            this.data = data;
+            this.size = size;
+        }
+
+        @Override
+        public CompressedEntry call() throws IOException {
+            final byte[] data = this.data;
+            final int size = this.size;
+            final CRC32 crc = new CRC32();
+            crc.update(data, 0, size);
+            this.crc = crc.getValue();
+            final ByteArrayOutputStream
+                    bos = new ByteArrayOutputStream(size / 2 + 64);
+            if (BZIP2 == this.entry.getMethod()) {
+                final BZip2CompressorOutputStream out
+                        = new BZip2CompressorOutputStream(bos, this.blockSize);
+                out.write(data, 0, size);
+                out.finish();
+            } else {
+                final ZipDeflaterOutputStream out = new ZipDeflaterOutputStream(
+                        bos, this.level, MAX_FLATER_BUF_LENGTH);
+                out.write(data, 0, size);
+                out.finish();
+                out.release();
+            }
+            this.data = bos.toByteArray();
+            return this;
+        }
+
+        /** Writes the compressed entry. */
+        void write() throws IOException {
+            final ZipEntry entry = this.entry;
+            final byte[] data = this.data;
+            entry.setRawCrc(this.crc);
+            entry.setRawSize(this.size);
+            entry.setRawCompressedSize(data.length);
+            final OutputMethod method = new RawOutputMethod(false);
+            method.init(entry);
+            method.start().write(data);
+            method.finish();
+        }
+    } // CompressedEntry
+
     private abstract class Crc32OutputMethod extends DecoratingOutputMethod {
         Crc32OutputStream out;
 
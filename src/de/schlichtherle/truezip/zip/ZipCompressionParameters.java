@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+/**
+ * Provides parameters for compressing entries in ZIP files.
+ * <p>
+ * If the {@link ZipOutputStreamParameters} for writing a ZIP file also
+ * implement this interface, then they get queried for the number of threads
+ * which may be used to compress the entries.
+ * <p>
+ * <b>Warning:</b> This interface is <em>not</em> intended for public use
+ * - its API may change at will without prior notification!
+ *
+ * @author Christian Schlichtherle
+ */
+public interface ZipCompressionParameters extends ZipParameters {
+
+    /**
+     * Returns the maximum number of threads which may be used to compress
+     * entries concurrently.
+     * <p>
+     * If this method returns a value greater than one, then the contents of
+     * DEFLATED or BZIP2 entries which do not get encrypted get buffered in
+     * memory when they get written to a {@link RawZipOutputStream}.
+     * The buffered contents get compressed by a pool of worker threads
+     * and the compressed entries get written to the ZIP file in the order
+     * they've been put.
+     * The number of buffered entries which have not yet been written is
+     * bounded by this number, too.
+     * An entry which exceeds the size of its buffer gets written when all
+     * preceding entries have been written.
+     * <p>
+     * Furthermore, if this method returns a value greater than one, then the
+     * contents of DEFLATED entries which get written directly get split into
+     * chunks which get compressed by the pool of worker threads, using the
+     * last 32 KiB of the preceding chunk as the preset dictionary.
+     * This requires JDK 7 or later.
+     * Likewise, the blocks of BZIP2 entries which get written directly get
+     * sorted and encoded by the pool of worker threads.
+     * <p>
+     * The pool of worker threads is shared by all ZIP files.
+     * Its size is bounded by the system property
+     * {@code de.schlichtherle.truezip.zip.compressionThreads}, which defaults
+     * to the number of available processors.
+     * <p>
+     * If this method returns one or less, then all entries get compressed
+     * by the current thread.
+     *
+     * @return The maximum number of threads which may be used to compress
+     *         entries concurrently.
+     */
+    int getCompressionThreads();
+}
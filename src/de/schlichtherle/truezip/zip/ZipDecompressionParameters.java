@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+/**
+ * Provides parameters for decompressing entries in ZIP files.
+ * <p>
+ * If the {@link ZipFileParameters} for reading a ZIP file also implement this
+ * interface, then they get queried for the number of threads which may be
+ * used to decompress the entries.
+ * <p>
+ * <b>Warning:</b> This interface is <em>not</em> intended for public use
+ * - its API may change at will without prior notification!
+ *
+ * @author Christian Schlichtherle
+ */
+public interface ZipDecompressionParameters extends ZipParameters {
+
+    /**
+     * Returns the maximum number of threads which may be used to decompress
+     * an entry concurrently.
+     * <p>
+     * If this method returns a value greater than one, then the blocks of
+     * BZIP2 entries with a compressed size of at least one MiB get decoded
+     * by a pool of worker threads when they get read by
+     * {@link RawZipFile#getInputStream(String)}.
+     * The number of decoded blocks which have not yet been read is bounded
+     * by this number, too.
+     * <p>
+     * If this method returns one or less, then all entries get decompressed
+     * by the current thread.
+     *
+     * @return The maximum number of threads which may be used to decompress
+     *         an entry concurrently.
+     */
+    int getDecompressionThreads();
+}
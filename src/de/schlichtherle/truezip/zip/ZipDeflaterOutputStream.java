@@ -7,47 +7,39 @@ package de.schlichtherle.truezip.zip;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.zip.Deflater;
-import static java.util.zip.Deflater.DEFAULT_COMPRESSION;
 import java.util.zip.DeflaterOutputStream;
 
 /**
  * A deflater output stream which uses a custom {@link Deflater} and provides
  * access to it.
+ * The deflater gets allocated from {@link FlaterPool#DEFLATERS} and must get
+ * released to it by calling {@link #release()} after this stream has been
+ * finished.
  *
  * @author  Christian Schlichtherle
  */
 final class ZipDeflaterOutputStream extends DeflaterOutputStream {
 
-    private static final DeflaterFactory factory = new Jdk6DeflaterFactory();
+    private final int level;
 
     ZipDeflaterOutputStream(OutputStream out, int level, int size) {
-        super(out, factory.newDeflater(), size);
-        def.setLevel(level);
+        super(out, FlaterPool.DEFLATERS.allocate(level, true), size);
+        this.level = level;
     }
 
     Deflater getDeflater() {
         return def;
     }
 
+    /** Releases the deflater to the pool. */
+    void release() {
+        FlaterPool.DEFLATERS.release(def, level, true);
+    }
+
     @Override
     public void close() throws IOException {
         assert false : "This method should never get called by the current implementation.";
         def.end();
         super.close();
     }
-
-    /** A factory for {@link Deflater} objects. */
-    private static class DeflaterFactory {
-        protected Deflater newDeflater() {
-            return new Deflater(DEFAULT_COMPRESSION, true);
-        }
-    }
-
-    /** A factory for {@link Jdk6Deflater} objects. */
-    private static final class Jdk6DeflaterFactory extends DeflaterFactory {
-        @Override
-        protected Deflater newDeflater() {
-            return new Jdk6Deflater(DEFAULT_COMPRESSION, true);
-        }
-    }
 }
\ No newline at end of file
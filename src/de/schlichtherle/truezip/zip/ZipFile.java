@@ -34,6 +34,9 @@ import java.util.zip.ZipException;
  * {@code java.util.zip.ZipEntry}.
  * <p>
  * This class is thread-safe.
+ * In order to read multiple entries concurrently, construct it with a
+ * {@link de.schlichtherle.truezip.rof.ChannelReadOnlyFile} or a
+ * {@link de.schlichtherle.truezip.rof.MappedReadOnlyFile}.
  *
  * @see     ZipOutputStream
  * @author  Christian Schlichtherle
@@ -223,7 +226,40 @@ public class ZipFile extends RawZipFile<ZipEntry> {
             boolean preambled,
             boolean postambled)
     throws IOException {
-        super(rof, new DefaultZipFileParameters(charset, preambled, postambled));
+        this(rof, charset, preambled, postambled, false);
+    }
+
+    /**
+     * Opens the given {@link ReadOnlyFile} for reading its entries.
+     *
+     * @param rof the random access read only file.
+     * @param charset the charset to use for decoding entry names and ZIP file
+     *        comment.
+     * @param preambled if this is {@code true}, then the ZIP file may have a
+     *        preamble.
+     *        See {@link #ZipFile(ReadOnlyFile, Charset, boolean, boolean)}.
+     * @param postambled if this is {@code true}, then the ZIP file may have a
+     *        postamble of arbitrary length.
+     *        See {@link #ZipFile(ReadOnlyFile, Charset, boolean, boolean)}.
+     * @param packed if this is {@code true}, then the central directory gets
+     *        stored in a packed form and the entries get created on demand.
+     *        This saves a lot of heap for ZIP files with a huge number of
+     *        entries.
+     *        See {@link ZipIndexParameters#getPackedIndex()}.
+     * @throws ZipException if {@code rof} is not compatible with the ZIP
+     *         File Format Specification.
+     * @throws IOException on any other I/O related issue.
+     * @see    #recoverLostEntries()
+     */
+    public ZipFile(
+            ReadOnlyFile rof,
+            Charset charset,
+            boolean preambled,
+            boolean postambled,
+            boolean packed)
+    throws IOException {
+        super(rof, new DefaultZipFileParameters(
+                charset, preambled, postambled, packed));
         this.name = rof.toString();
     }
 
@@ -345,13 +381,29 @@ public class ZipFile extends RawZipFile<ZipEntry> {
         this.cryptoParameters = cryptoParameters;
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * If this ZIP file has been constructed with a
+     * {@link de.schlichtherle.truezip.rof.ChannelReadOnlyFile} or a
+     * {@link de.schlichtherle.truezip.rof.MappedReadOnlyFile}, then the
+     * returned stream has its own file pointer, so that it's not
+     * synchronized on this ZIP file.
+     * Otherwise, all streams returned by this method share the file pointer
+     * of the underlying read only file and are hence synchronized on this
+     * ZIP file.
+     */
     @Override
     @SuppressWarnings({"deprecation", "resource"})
-    protected synchronized InputStream getInputStream(
+    protected InputStream getInputStream(
             String name, Boolean check, boolean process)
     throws IOException {
-        final InputStream in = super.getInputStream(name, check, process);
-        return in == null ? null : new de.schlichtherle.truezip.io.SynchronizedInputStream(in, this);
+        if (isPositional())
+            return super.getInputStream(name, check, process);
+        synchronized (this) {
+            final InputStream in = super.getInputStream(name, check, process);
+            return in == null ? null : new de.schlichtherle.truezip.io.SynchronizedInputStream(in, this);
+        }
     }
 
     @Override
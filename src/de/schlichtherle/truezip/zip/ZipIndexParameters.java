@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+import java.io.File;
+
+/**
+ * Provides parameters for indexing the central directory of ZIP files.
+ * <p>
+ * If the {@link ZipFileParameters} for reading a ZIP file also implement this
+ * interface, then they get queried for the layout of the index of the
+ * entries in the central directory.
+ * <p>
+ * <b>Warning:</b> This interface is <em>not</em> intended for public use
+ * - its API may change at will without prior notification!
+ *
+ * @author Christian Schlichtherle
+ */
+public interface ZipIndexParameters extends ZipParameters {
+
+    /**
+     * Returns the flag for a packed index of the central directory.
+     * <p>
+     * If this method returns {@code true}, then the records of the central
+     * directory get stored in a packed form in a shared byte array and the
+     * ZIP entries get created on demand whenever they get looked up or
+     * iterated.
+     * This reduces the heap consumption for ZIP files with a huge number of
+     * entries, but the identity of the returned ZIP entries is not stable.
+     * <p>
+     * If this method returns {@code false}, then a ZIP entry gets created for
+     * each record of the central directory when the ZIP file gets opened and
+     * the same entry gets returned whenever it gets looked up or iterated.
+     *
+     * @return The flag for a packed index of the central directory.
+     */
+    boolean getPackedIndex();
+
+    /**
+     * Returns the sidecar file for persisting the index of the central
+     * directory or {@code null} if the index should not get persisted.
+     * <p>
+     * If this method returns a file, then the index gets read from this file
+     * when the ZIP file gets opened, provided that it's valid for the
+     * {@link #getIndexKey() index key}, the length of the ZIP file and the
+     * CRC-32 value of its (ZIP64) End Of Central Directory Record.
+     * This saves reading and parsing the central directory when remounting
+     * ZIP files with a huge number of entries.
+     * Otherwise, the central directory gets parsed and the index gets written
+     * to this file.
+     * Any I/O error when reading or writing this file gets logged and
+     * ignored.
+     *
+     * @return The sidecar file for persisting the index of the central
+     *         directory or {@code null}.
+     */
+    File getIndexFile();
+
+    /**
+     * Returns a key which identifies the ZIP file, e.g. its path and last
+     * modification time.
+     * This method is only called if {@link #getIndexFile()} does not return
+     * {@code null}.
+     *
+     * @return A key which identifies the ZIP file.
+     */
+    String getIndexKey();
+}
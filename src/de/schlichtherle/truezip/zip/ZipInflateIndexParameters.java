@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2005-2013 Schlichtherle IT Services.
+ * All rights reserved. Use is subject to license terms.
+ */
+package de.schlichtherle.truezip.zip;
+
+/**
+ * Provides parameters for random access to DEFLATED entries in ZIP files.
+ * <p>
+ * If the {@link ZipFileParameters} for reading a ZIP file also implement this
+ * interface, then they get queried for the span of the checkpoint indexes
+ * which enable random access to DEFLATED entries.
+ * <p>
+ * <b>Warning:</b> This interface is <em>not</em> intended for public use
+ * - its API may change at will without prior notification!
+ *
+ * @author Christian Schlichtherle
+ */
+public interface ZipInflateIndexParameters extends ZipParameters {
+
+    /**
+     * Returns the minimum distance in bytes between the checkpoints in the
+     * uncompressed data of DEFLATED entries or zero if random access to
+     * DEFLATED entries is not supported.
+     * <p>
+     * If this method returns a positive value, then
+     * {@link RawZipFile#getReadOnlyFile(String)} supports DEFLATED entries,
+     * too.
+     * A checkpoint index gets built lazily for each DEFLATED entry which gets
+     * randomly accessed.
+     * Each checkpoint holds the preceding 32 KiB of uncompressed data in a
+     * compressed form, so a smaller span speeds up seeking at the cost of a
+     * larger index.
+     * The indexes are kept in a bounded cache.
+     *
+     * @return The minimum distance in bytes between the checkpoints in the
+     *         uncompressed data of DEFLATED entries or zero.
+     */
+    int getInflateIndexSpan();
+}
@@ -11,15 +11,17 @@ import java.util.zip.InflaterInputStream;
 /**
  * An inflater input stream which uses a custom {@link Inflater} and provides
  * access to it.
+ * The inflater gets allocated from {@link FlaterPool#INFLATERS} and released
+ * to it when this stream gets closed.
  *
  * @author  Christian Schlichtherle
  */
 final class ZipInflaterInputStream extends InflaterInputStream {
 
-    private static final InflaterFactory factory = new Jdk6InflaterFactory();
+    private boolean closed;
 
     ZipInflaterInputStream(DummyByteInputStream in, int size) {
-        super(in, factory.newInflater(), size);
+        super(in, FlaterPool.INFLATERS.allocate(0, true), size);
     }
 
     Inflater getInflater() {
@@ -28,22 +30,13 @@ final class ZipInflaterInputStream extends InflaterInputStream {
 
     @Override
     public void close() throws IOException {
-        super.close();
-        inf.end();
-    }
-
-    /** A factory for {@link Inflater} objects. */
-    private static class InflaterFactory {
-        protected Inflater newInflater() {
-            return new Inflater(true);
-        }
-    }
-
-    /** A factory for {@link Jdk6Inflater} objects. */
-    private static final class Jdk6InflaterFactory extends InflaterFactory {
-        @Override
-        protected Inflater newInflater() {
-            return new Jdk6Inflater(true);
+        if (closed)
+            return;
+        closed = true;
+        try {
+            super.close();
+        } finally {
+            FlaterPool.INFLATERS.release(inf, 0, true);
         }
     }
 }
\ No newline at end of file
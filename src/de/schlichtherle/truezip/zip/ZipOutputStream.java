@@ -80,6 +80,19 @@ public class ZipOutputStream extends RawZipOutputStream<ZipEntry> {
         super(out, null, new DefaultZipOutputStreamParameters(charset));
     }
 
+    /**
+     * Constructs a ZIP output stream which decorates the given output stream
+     * using the given parameters.
+     * If the parameters implement {@link ZipCompressionParameters}, then
+     * entries may get compressed concurrently.
+     *
+     * @param  out The output stream to write the ZIP file to.
+     * @param  param the parameters for writing the ZIP file.
+     */
+    public ZipOutputStream(OutputStream out, ZipOutputStreamParameters param) {
+        super(out, null, param);
+    }
+
     /**
      * Constructs a ZIP output stream which decorates the given output stream
      * and appends to the given ZIP file.
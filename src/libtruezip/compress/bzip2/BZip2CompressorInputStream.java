@@ -26,6 +26,7 @@ package libtruezip.compress.bzip2;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import libtruezip.compress.CompressorInputStream;
 
@@ -64,6 +65,14 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
     private InputStream in;
     private final boolean decompressConcatenated;
 
+    /**
+     * The number of bits which get peeked in order to decode a Huffman
+     * symbol by a single table lookup.
+     * Symbols with longer codes get decoded bit by bit.
+     */
+    private static final int LOOKUP_BITS = 10;
+    private static final int LOOKUP_MASK = (1 << LOOKUP_BITS) - 1;
+
     private static final int EOF = 0;
     private static final int START_BLOCK_STATE = 1;
     private static final int RAND_PART_A_STATE = 2;
@@ -171,10 +180,10 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
         int b;
         while (destOffs < hi && ((b = read0()) >= 0)) {
             dest[destOffs++] = (byte) b;
-            count(1);
         }
 
         int c = (destOffs == offs) ? -1 : (destOffs - offs);
+        count(c);
         return c;
     }
 
@@ -564,10 +573,43 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
             }
             hbCreateDecodeTables(limit[t], base[t], perm[t], len[t], minLen,
                                  maxLen, alphaSize);
+            hbCreateLookupTable(dataShadow.lookup[t], len[t], minLen, maxLen,
+                                alphaSize);
             minLens[t] = minLen;
         }
     }
 
+    /**
+     * Fills the given lookup table so that the entry at the index of the next
+     * {@link #LOOKUP_BITS} bits is {@code (length << 16) | symbol} if the
+     * code of the symbol is a prefix of these bits or -1 if these bits are
+     * a prefix of a longer code.
+     * The codes are assigned in the same canonical order as by
+     * hbCreateDecodeTables().
+     */
+    private static void hbCreateLookupTable(final int[] lookup,
+                                            final char[] length,
+                                            final int minLen, final int maxLen,
+                                            final int alphaSize) {
+        Arrays.fill(lookup, -1);
+        for (int i = minLen, code = 0; i <= maxLen && i <= LOOKUP_BITS; i++) {
+            final int shift = LOOKUP_BITS - i;
+            for (int j = 0; j < alphaSize; j++) {
+                if (length[j] == i) {
+                    final int from = code << shift;
+                    final int to = (code + 1) << shift;
+                    if (to > lookup.length) {
+                        // Over-subscribed code: Leave it to the slow path.
+                        return;
+                    }
+                    Arrays.fill(lookup, from, to, (i << 16) | j);
+                    code++;
+                }
+            }
+            code <<= 1;
+        }
+    }
+
     private void getAndMoveToFrontDecode() throws IOException {
         this.origPtr = bsR(24);
         recvDecodingTables();
@@ -578,20 +620,23 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
         final int[] unzftab = dataShadow.unzftab;
         final byte[] selector = dataShadow.selector;
         final byte[] seqToUnseq = dataShadow.seqToUnseq;
-        final char[] yy = dataShadow.getAndMoveToFrontDecode_yy;
+        final byte[] yy = dataShadow.getAndMoveToFrontDecode_yy;
         final int[] minLens = dataShadow.minLens;
         final int[][] limit = dataShadow.limit;
         final int[][] base = dataShadow.base;
         final int[][] perm = dataShadow.perm;
+        final int[][] lookup = dataShadow.lookup;
         final int limitLast = this.blockSize100k * 100000;
 
         /*
          * Setting up the unzftab entries here is not strictly necessary, but it
          * does save having to do it later in a separate pass, and so saves a
          * block's worth of cache misses.
+         * The MTF list holds the unsequenced bytes, so they do not need to get
+         * mapped for each symbol.
          */
         for (int i = 256; --i >= 0;) {
-            yy[i] = (char) i;
+            yy[i] = seqToUnseq[i];
             unzftab[i] = 0;
         }
 
@@ -606,6 +651,7 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
         int[] base_zt = base[zt];
         int[] limit_zt = limit[zt];
         int[] perm_zt = perm[zt];
+        int[] lookup_zt = lookup[zt];
         int minLens_zt = minLens[zt];
 
         while (nextSym != eob) {
@@ -621,17 +667,45 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
                         break;
                     }
 
+                    /*
+                     * Cap the run length while it is accumulated, so that a
+                     * corrupt stream cannot make it overflow.
+                     */
+                    if (s >= limitLast) {
+                        throw new IOException("block overrun");
+                    }
+
                     if (groupPos == 0) {
                         groupPos = G_SIZE - 1;
                         zt = selector[++groupNo] & 0xff;
                         base_zt = base[zt];
                         limit_zt = limit[zt];
                         perm_zt = perm[zt];
+                        lookup_zt = lookup[zt];
                         minLens_zt = minLens[zt];
                     } else {
                         groupPos--;
                     }
 
+                    // Inlined the next symbol decoding - see below.
+                    while (bsLiveShadow < LOOKUP_BITS) {
+                        final int thech = inShadow.read();
+                        if (thech < 0) {
+                            break;
+                        }
+                        bsBuffShadow = (bsBuffShadow << 8) | thech;
+                        bsLiveShadow += 8;
+                    }
+                    final int entry = bsLiveShadow >= LOOKUP_BITS
+                        ? lookup_zt[(bsBuffShadow >> (bsLiveShadow - LOOKUP_BITS))
+                                    & LOOKUP_MASK]
+                        : -1;
+                    if (entry >= 0) {
+                        bsLiveShadow -= entry >>> 16;
+                        nextSym = entry & 0xffff;
+                        continue;
+                    }
+
                     int zn = minLens_zt;
 
                     // Inlined:
@@ -670,24 +744,22 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
                     nextSym = perm_zt[zvec - base_zt[zn]];
                 }
 
-                final byte ch = seqToUnseq[yy[0]];
-                unzftab[ch & 0xff] += s + 1;
-
-                while (s-- >= 0) {
-                    ll8[++lastShadow] = ch;
-                }
-
-                if (lastShadow >= limitLast) {
+                if (lastShadow + s + 1 >= limitLast) {
                     throw new IOException("block overrun");
                 }
+
+                final byte ch = yy[0];
+                unzftab[ch & 0xff] += s + 1;
+                Arrays.fill(ll8, lastShadow + 1, lastShadow + s + 2, ch);
+                lastShadow += s + 1;
             } else {
                 if (++lastShadow >= limitLast) {
                     throw new IOException("block overrun");
                 }
 
-                final char tmp = yy[nextSym - 1];
-                unzftab[seqToUnseq[tmp] & 0xff]++;
-                ll8[lastShadow] = seqToUnseq[tmp];
+                final byte tmp = yy[nextSym - 1];
+                unzftab[tmp & 0xff]++;
+                ll8[lastShadow] = tmp;
 
                 /*
                  * This loop is hammered during decompression, hence avoid
@@ -710,11 +782,38 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
                     base_zt = base[zt];
                     limit_zt = limit[zt];
                     perm_zt = perm[zt];
+                    lookup_zt = lookup[zt];
                     minLens_zt = minLens[zt];
                 } else {
                     groupPos--;
                 }
 
+                /*
+                 * Peek LOOKUP_BITS bits in order to decode the next symbol by
+                 * a single table lookup.
+                 * This never reads beyond the end of a valid stream because
+                 * each block is followed by at least 80 bits.
+                 * If the peeked bits are a prefix of a longer code or the
+                 * stream is truncated, then fall back to decoding bit by bit.
+                 */
+                while (bsLiveShadow < LOOKUP_BITS) {
+                    final int thech = inShadow.read();
+                    if (thech < 0) {
+                        break;
+                    }
+                    bsBuffShadow = (bsBuffShadow << 8) | thech;
+                    bsLiveShadow += 8;
+                }
+                final int entry = bsLiveShadow >= LOOKUP_BITS
+                    ? lookup_zt[(bsBuffShadow >> (bsLiveShadow - LOOKUP_BITS))
+                                & LOOKUP_MASK]
+                    : -1;
+                if (entry >= 0) {
+                    bsLiveShadow -= entry >>> 16;
+                    nextSym = entry & 0xffff;
+                    continue;
+                }
+
                 int zn = minLens_zt;
 
                 // Inlined:
@@ -806,15 +905,24 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
             cftab[i] = c;
         }
 
-        for (int i = 0, lastShadow = this.last; i <= lastShadow; i++) {
-            tt[cftab[ll8[i] & 0xff]++] = i;
+        /*
+         * Each entry of tt holds the byte at its index in its low 8 bits and
+         * the index of the next byte in its high 24 bits, so the inverse BWT
+         * takes only one random access per byte.
+         */
+        final int lastShadow = this.last;
+        for (int i = 0; i <= lastShadow; i++) {
+            tt[i] = ll8[i] & 0xff;
+        }
+        for (int i = 0; i <= lastShadow; i++) {
+            tt[cftab[ll8[i] & 0xff]++] |= i << 8;
         }
 
-        if ((this.origPtr < 0) || (this.origPtr >= tt.length)) {
+        if ((this.origPtr < 0) || (this.origPtr > lastShadow)) {
             throw new IOException("stream corrupted");
         }
 
-        this.su_tPos = tt[this.origPtr];
+        this.su_tPos = tt[this.origPtr] >>> 8;
         this.su_count = 0;
         this.su_i2 = 0;
         this.su_ch2 = 256; /* not a char and not EOF */
@@ -830,8 +938,9 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
     private int setupRandPartA() throws IOException {
         if (this.su_i2 <= this.last) {
             this.su_chPrev = this.su_ch2;
-            int su_ch2Shadow = this.data.ll8[this.su_tPos] & 0xff;
-            this.su_tPos = this.data.tt[this.su_tPos];
+            final int tPos = this.data.tt[this.su_tPos];
+            int su_ch2Shadow = tPos & 0xff;
+            this.su_tPos = tPos >>> 8;
             if (this.su_rNToGo == 0) {
                 this.su_rNToGo = Rand.rNums(this.su_rTPos) - 1;
                 if (++this.su_rTPos == 512) {
@@ -855,9 +964,10 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
     private int setupNoRandPartA() throws IOException {
         if (this.su_i2 <= this.last) {
             this.su_chPrev = this.su_ch2;
-            int su_ch2Shadow = this.data.ll8[this.su_tPos] & 0xff;
+            final int tPos = this.data.tt[this.su_tPos];
+            final int su_ch2Shadow = tPos & 0xff;
             this.su_ch2 = su_ch2Shadow;
-            this.su_tPos = this.data.tt[this.su_tPos];
+            this.su_tPos = tPos >>> 8;
             this.su_i2++;
             this.currentState = NO_RAND_PART_B_STATE;
             this.crc.updateCRC(su_ch2Shadow);
@@ -876,8 +986,9 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
             this.su_count = 1;
             return setupRandPartA();
         } else if (++this.su_count >= 4) {
-            this.su_z = (char) (this.data.ll8[this.su_tPos] & 0xff);
-            this.su_tPos = this.data.tt[this.su_tPos];
+            final int tPos = this.data.tt[this.su_tPos];
+            this.su_z = (char) (tPos & 0xff);
+            this.su_tPos = tPos >>> 8;
             if (this.su_rNToGo == 0) {
                 this.su_rNToGo = Rand.rNums(this.su_rTPos) - 1;
                 if (++this.su_rTPos == 512) {
@@ -916,8 +1027,9 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
             this.su_count = 1;
             return setupNoRandPartA();
         } else if (++this.su_count >= 4) {
-            this.su_z = (char) (this.data.ll8[this.su_tPos] & 0xff);
-            this.su_tPos = this.data.tt[this.su_tPos];
+            final int tPos = this.data.tt[this.su_tPos];
+            this.su_z = (char) (tPos & 0xff);
+            this.su_tPos = tPos >>> 8;
             this.su_j2 = 0;
             return setupNoRandPartC();
         } else {
@@ -958,20 +1070,21 @@ public class BZip2CompressorInputStream extends CompressorInputStream implements
         final int[][] base = new int[N_GROUPS][MAX_ALPHA_SIZE]; // 6192 byte
         final int[][] perm = new int[N_GROUPS][MAX_ALPHA_SIZE]; // 6192 byte
         final int[] minLens = new int[N_GROUPS]; // 24 byte
+        final int[][] lookup = new int[N_GROUPS][1 << LOOKUP_BITS]; // 24576 byte
 
         final int[] cftab = new int[257]; // 1028 byte
-        final char[] getAndMoveToFrontDecode_yy = new char[256]; // 512 byte
+        final byte[] getAndMoveToFrontDecode_yy = new byte[256]; // 256 byte
         final char[][] temp_charArray2d = new char[N_GROUPS][MAX_ALPHA_SIZE]; // 3096
         // byte
         final byte[] recvDecodingTables_pos = new byte[N_GROUPS]; // 6 byte
         // ---------------
-        // 60798 byte
+        // 85118 byte
 
         int[] tt; // 3600000 byte
         byte[] ll8; // 900000 byte
 
         // ---------------
-        // 4560782 byte
+        // 4585102 byte
         // ===============
 
         Data(int blockSize100k) {
@@ -18,8 +18,15 @@
  */
 package libtruezip.compress.bzip2;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import libtruezip.compress.CompressorOutputStream;
 
@@ -114,6 +121,14 @@ import libtruezip.compress.CompressorOutputStream;
  * </p>
  *
  * <p>
+ * If an executor service is provided, then the blocks get sorted and
+ * Huffman coded concurrently by its threads.
+ * The run-length encoding and the computation of the CRCs still happens on
+ * the writing thread, and the encoded blocks get written in order.
+ * This multiplies the memory usage by the number of threads plus one.
+ * </p>
+ *
+ * <p>
  * Instances of this class are not threadsafe.
  * </p>
  *
@@ -323,6 +338,30 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
 
     private OutputStream out;
 
+    /**
+     * The executor service for encoding blocks concurrently or
+     * {@code null}.
+     */
+    private final ExecutorService executor;
+
+    /** The maximum number of blocks which get encoded concurrently. */
+    private final int threads;
+
+    /**
+     * Whether or not the blocks get sorted by a
+     * {@link SuffixArrayBlockSort}.
+     */
+    private final boolean suffixArraySort;
+
+    /** The blocks which are getting encoded concurrently. */
+    private Deque<Future<BlockEncoder>> pending;
+
+    /** The encoders which are not in use. */
+    private Deque<BlockEncoder> idle;
+
+    /** The encoder for the current block. */
+    private BlockEncoder encoder;
+
     /**
      * Chooses a blocksize based on the given length of the data to compress.
      *
@@ -375,6 +414,84 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
      * @see #MAX_BLOCKSIZE
      */
     public BZip2CompressorOutputStream(final OutputStream out, final int blockSize) throws IOException {
+        this(out, blockSize, null, 1);
+    }
+
+    /**
+     * Constructs a new {@code BZip2CompressorOutputStream} with specified
+     * blocksize which encodes up to the given number of blocks concurrently
+     * by the given executor service.
+     *
+     * @param out
+     *            the destination stream.
+     * @param blockSize
+     *            the blockSize as 100k units.
+     * @param executor
+     *            the executor service for encoding blocks or {@code null}
+     *            if the blocks should get encoded by the writing thread.
+     * @param threads
+     *            the maximum number of blocks which get encoded
+     *            concurrently.
+     *
+     * @throws IOException
+     *             if an I/O error occurs in the specified stream.
+     * @throws IllegalArgumentException
+     *             if <code>(blockSize &lt; 1) || (blockSize &gt; 9)</code>
+     *             or <code>threads &lt; 1</code>.
+     * @throws NullPointerException
+     *             if <code>out == null</code>.
+     */
+    public BZip2CompressorOutputStream(final OutputStream out,
+                                       final int blockSize,
+                                       final ExecutorService executor,
+                                       final int threads)
+        throws IOException {
+        this(out, blockSize, executor, threads, false);
+    }
+
+    /**
+     * Constructs a new {@code BZip2CompressorOutputStream} with specified
+     * blocksize which encodes up to the given number of blocks concurrently
+     * by the given executor service and optionally sorts the blocks by means
+     * of a suffix array.
+     *
+     * <p>Sorting by means of a suffix array takes linear time even on highly
+     * repetitive data, where the default sorting algorithm degrades badly,
+     * but it is usually slower on other data and requires about 16 bytes
+     * of additional memory per byte of the block size.  The compressed
+     * output is identical.</p>
+     *
+     * @param out
+     *            the destination stream.
+     * @param blockSize
+     *            the blockSize as 100k units.
+     * @param executor
+     *            the executor service for encoding blocks or {@code null}
+     *            if the blocks should get encoded by the writing thread.
+     * @param threads
+     *            the maximum number of blocks which get encoded
+     *            concurrently.
+     * @param suffixArraySort
+     *            whether or not the blocks should get sorted by means of a
+     *            suffix array.
+     *
+     * @throws IOException
+     *             if an I/O error occurs in the specified stream.
+     * @throws IllegalArgumentException
+     *             if <code>(blockSize &lt; 1) || (blockSize &gt; 9)</code>
+     *             or <code>threads &lt; 1</code>.
+     * @throws NullPointerException
+     *             if <code>out == null</code>.
+     */
+    public BZip2CompressorOutputStream(final OutputStream out,
+                                       final int blockSize,
+                                       final ExecutorService executor,
+                                       final int threads,
+                                       final boolean suffixArraySort)
+        throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads(" + threads + ") < 1");
+        }
         if (blockSize < 1) {
             throw new IllegalArgumentException("blockSize(" + blockSize + ") < 1");
         }
@@ -384,12 +501,37 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
 
         this.blockSize100k = blockSize;
         this.out = out;
+        this.executor = threads > 1 ? executor : null;
+        this.threads = threads;
+        this.suffixArraySort = suffixArraySort;
 
         /* 20 is just a paranoia constant */
         this.allowableBlockSize = (this.blockSize100k * BZip2Constants.BASEBLOCKSIZE) - 20;
         init();
     }
 
+    /**
+     * Constructs a new {@code BZip2CompressorOutputStream} which encodes
+     * single blocks for another stream.
+     * It has no destination stream and writes no stream header.
+     */
+    private BZip2CompressorOutputStream(final int blockSize,
+                                        final boolean suffixArraySort) {
+        this.blockSize100k = blockSize;
+        this.executor = null;
+        this.threads = 1;
+        this.suffixArraySort = suffixArraySort;
+        this.allowableBlockSize = (this.blockSize100k * BZip2Constants.BASEBLOCKSIZE) - 20;
+        this.data = new Data(blockSize);
+        this.blockSorter = newBlockSort(this.data);
+    }
+
+    private BlockSort newBlockSort(final Data data) {
+        return this.suffixArraySort
+            ? new SuffixArrayBlockSort(data)
+            : new BlockSort(data);
+    }
+
     @Override
     public void write(final int b) throws IOException {
         if (this.out != null) {
@@ -484,11 +626,19 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
                 }
                 this.currentChar = -1;
                 endBlock();
+                if (this.executor != null) {
+                    while (!this.pending.isEmpty()) {
+                        writeBlock(this.pending.remove());
+                    }
+                }
                 endCompression();
             } finally {
                 this.out = null;
                 this.data = null;
                 this.blockSorter = null;
+                this.pending = null;
+                this.idle = null;
+                this.encoder = null;
             }
         }
     }
@@ -520,8 +670,15 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
         bsPutUByte('B');
         bsPutUByte('Z');
 
-        this.data = new Data(this.blockSize100k);
-        this.blockSorter = new BlockSort(this.data);
+        if (this.executor != null) {
+            this.pending = new ArrayDeque<Future<BlockEncoder>>(this.threads);
+            this.idle = new ArrayDeque<BlockEncoder>(this.threads);
+            this.encoder = new BlockEncoder(this.blockSize100k, this.suffixArraySort);
+            this.data = this.encoder.stream.data;
+        } else {
+            this.data = new Data(this.blockSize100k);
+            this.blockSorter = newBlockSort(this.data);
+        }
 
         // huffmanised magic bytes
         bsPutUByte('h');
@@ -554,6 +711,18 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
             return;
         }
 
+        if (this.executor != null) {
+            submitBlock();
+            return;
+        }
+
+        encodeBlock();
+    }
+
+    /**
+     * Sorts and encodes the current block.
+     */
+    private void encodeBlock() throws IOException {
         /* sort the block and establish posn of original string */
         blockSort();
 
@@ -585,6 +754,131 @@ public class BZip2CompressorOutputStream extends CompressorOutputStream
         moveToFrontCodeAndSend();
     }
 
+    /**
+     * Submits the current block to the executor service and switches to the
+     * data of an idle encoder for the next block.
+     * Writes encoded blocks as required to keep the number of pending blocks
+     * below the number of threads.
+     */
+    private void submitBlock() throws IOException {
+        final BlockEncoder encoder = this.encoder;
+        encoder.stream.last = this.last;
+        encoder.stream.blockCRC = this.blockCRC;
+        final Deque<Future<BlockEncoder>> pending = this.pending;
+        pending.add(this.executor.submit(encoder));
+        for (Future<BlockEncoder> result;
+             (result = pending.peek()) != null
+                 && (pending.size() >= this.threads || result.isDone());) {
+            writeBlock(pending.remove());
+        }
+        BlockEncoder next = this.idle.poll();
+        if (next == null) {
+            next = new BlockEncoder(this.blockSize100k, this.suffixArraySort);
+        }
+        this.encoder = next;
+        this.data = next.stream.data;
+    }
+
+    /**
+     * Waits for the given encoded block, appends its bits to this stream and
+     * returns its encoder to the idle encoders.
+     */
+    private void writeBlock(final Future<BlockEncoder> result)
+        throws IOException {
+        final BlockEncoder encoder = get(result);
+        final BlockBuffer buffer = encoder.buffer;
+        final byte[] buf = buffer.buf();
+        for (int i = 0, n = buffer.size(); i < n; i++) {
+            bsW(8, buf[i] & 0xff);
+        }
+        final BZip2CompressorOutputStream stream = encoder.stream;
+        if (stream.bsLive > 0) {
+            bsW(stream.bsLive, stream.bsBuff >>> (32 - stream.bsLive));
+        }
+        this.idle.add(encoder);
+    }
+
+    /**
+     * Uninterruptibly waits for the given encoded block and returns its
+     * encoder.
+     */
+    private static BlockEncoder get(final Future<BlockEncoder> result)
+        throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (final InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt(); // restore
+            }
+        }
+    }
+
+    /**
+     * Encodes single blocks by means of a private
+     * {@code BZip2CompressorOutputStream} into a buffer.
+     * The bits which do not fill a whole byte remain in the bit buffer of
+     * the stream.
+     */
+    private static final class BlockEncoder implements Callable<BlockEncoder> {
+        final BZip2CompressorOutputStream stream;
+        final BlockBuffer buffer = new BlockBuffer();
+
+        BlockEncoder(final int blockSize100k, final boolean suffixArraySort) {
+            this.stream = new BZip2CompressorOutputStream(blockSize100k,
+                                                          suffixArraySort);
+        }
+
+        @Override
+        public BlockEncoder call() throws IOException {
+            final BZip2CompressorOutputStream stream = this.stream;
+            this.buffer.reset();
+            stream.bsBuff = 0;
+            stream.bsLive = 0;
+            stream.out = this.buffer;
+            try {
+                stream.encodeBlock();
+                while (stream.bsLive >= 8) {
+                    this.buffer.write(stream.bsBuff >> 24);
+                    stream.bsBuff <<= 8;
+                    stream.bsLive -= 8;
+                }
+            } finally {
+                stream.out = null;
+            }
+            return this;
+        }
+    }
+
+    /** A byte array output stream which provides access to its buffer. */
+    private static final class BlockBuffer extends ByteArrayOutputStream {
+        BlockBuffer() {
+            super(64 * 1024);
+        }
+
+        byte[] buf() {
+            return this.buf;
+        }
+    }
+
     private void endCompression() throws IOException {
         /*
          * Now another magic 48-bit number, 0x177245385090, to indicate the end
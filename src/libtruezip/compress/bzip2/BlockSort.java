@@ -147,6 +147,25 @@ class BlockSort {
     }
 
     void blockSort(final BZip2CompressorOutputStream.Data data, final int last) {
+        sort(data, last);
+
+        final int[] fmap = data.fmap;
+        data.origPtr = -1;
+        for (int i = 0; i <= last; i++) {
+            if (fmap[i] == 0) {
+                data.origPtr = i;
+                break;
+            }
+        }
+
+        // assert (data.origPtr != -1) : data.origPtr;
+    }
+
+    /**
+     * Sorts the rotations of the block into data.fmap and sets
+     * data.block[0] to the last byte of the block.
+     */
+    void sort(final BZip2CompressorOutputStream.Data data, final int last) {
         this.workLimit = WORK_FACTOR * last;
         this.workDone = 0;
         this.firstAttempt = true;
@@ -160,17 +179,6 @@ class BlockSort {
                 fallbackSort(data, last);
             }
         }
-
-        final int[] fmap = data.fmap;
-        data.origPtr = -1;
-        for (int i = 0; i <= last; i++) {
-            if (fmap[i] == 0) {
-                data.origPtr = i;
-                break;
-            }
-        }
-
-        // assert (data.origPtr != -1) : data.origPtr;
     }
 
     /**
@@ -0,0 +1,530 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package libtruezip.compress.bzip2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import libtruezip.compress.CompressorInputStream;
+
+/**
+ * An input stream that decompresses from the BZip2 format by decoding up to
+ * a given number of blocks concurrently.
+ * <p>
+ * The reading thread scans the compressed stream for the 48-bit block magic
+ * {@code 0x314159265359} and the end of stream magic {@code 0x177245385090}
+ * at any bit position and splits it into blocks.
+ * Each block gets decoded by a private {@link BZip2CompressorInputStream}
+ * on a thread of the given executor service.
+ * The decoded blocks get returned in order and their CRCs get combined and
+ * checked against the combined CRC of the stream.
+ * <p>
+ * The block magic may occur within the compressed data of a block by
+ * chance.
+ * If a block cannot get decoded, then it gets joined with the next block and
+ * decoded again by the reading thread.
+ * <p>
+ * Unlike {@link BZip2CompressorInputStream}, this stream does not support
+ * concatenated streams and may read beyond the end of the compressed stream.
+ *
+ * @NotThreadSafe
+ */
+public class ParallelBZip2CompressorInputStream extends CompressorInputStream
+    implements BZip2Constants {
+
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long EOS_MAGIC = 0x177245385090L;
+
+    private InputStream in;
+    private final ExecutorService executor;
+    private final int threads;
+
+    private final byte[] inBuf = new byte[64 * 1024];
+    private int inPos, inLen;
+
+    private int blockSize100k;
+
+    /** The last 64 bits read from the compressed stream. */
+    private long window;
+
+    /** The bits of the current block after its magic. */
+    private BitBuffer current = new BitBuffer();
+
+    /** Whether or not the end of stream magic has been read. */
+    private boolean eos;
+
+    /** Whether or not all blocks have been returned. */
+    private boolean eof;
+
+    private int storedCombinedCRC, computedCombinedCRC;
+
+    /** The blocks which are getting decoded concurrently. */
+    private final Deque<BlockDecoder> pending;
+
+    /** The decoded data of the current block. */
+    private byte[] buf;
+    private int pos, len;
+
+    /**
+     * Constructs a new ParallelBZip2CompressorInputStream which decompresses
+     * bytes read from the specified stream by means of the given executor
+     * service.
+     *
+     * @param in the InputStream from which this object should be created
+     * @param executor the executor service for decoding blocks
+     * @param threads the maximum number of blocks which get decoded
+     *                concurrently
+     *
+     * @throws IOException
+     *             if the stream content is malformed or an I/O error occurs.
+     * @throws IllegalArgumentException
+     *             if <code>threads &lt; 1</code>.
+     * @throws NullPointerException
+     *             if {@code in == null} or {@code executor == null}
+     */
+    public ParallelBZip2CompressorInputStream(final InputStream in,
+                                              final ExecutorService executor,
+                                              final int threads)
+        throws IOException {
+        if (in == null || executor == null) {
+            throw new NullPointerException();
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads(" + threads + ") < 1");
+        }
+        this.in = in;
+        this.executor = executor;
+        this.threads = threads;
+        this.pending = new ArrayDeque<BlockDecoder>(threads);
+        init();
+    }
+
+    private void init() throws IOException {
+        if (readByte() != 'B' || readByte() != 'Z' || readByte() != 'h') {
+            throw new IOException("Stream is not in the BZip2 format");
+        }
+        final int blockSize = readByte();
+        if ((blockSize < '1') || (blockSize > '9')) {
+            throw new IOException("BZip2 block size is invalid");
+        }
+        this.blockSize100k = blockSize - '0';
+
+        long magic = 0;
+        for (int i = 0; i < 6; i++) {
+            magic = (magic << 8) | readByte();
+        }
+        this.window = magic;
+        if (magic == EOS_MAGIC) {
+            this.eos = true;
+            this.storedCombinedCRC = readInt();
+        } else if (magic != BLOCK_MAGIC) {
+            throw new IOException("bad block header");
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (this.inPos >= this.inLen) {
+            int n;
+            do {
+                n = this.in.read(this.inBuf, 0, this.inBuf.length);
+            } while (n == 0);
+            if (n < 0) {
+                throw new IOException("unexpected end of stream");
+            }
+            this.inPos = 0;
+            this.inLen = n;
+        }
+        return this.inBuf[this.inPos++] & 0xff;
+    }
+
+    private int readInt() throws IOException {
+        return (((((readByte() << 8) | readByte()) << 8) | readByte()) << 8)
+            | readByte();
+    }
+
+    /**
+     * Returns the maximum number of bits of a compressed block.
+     * This is a generous bound for detecting corrupted streams.
+     */
+    private long maxBlockBits() {
+        return 16L * this.blockSize100k * BASEBLOCKSIZE;
+    }
+
+    /**
+     * Scans the compressed stream for the next magic and returns the bits of
+     * the block before it or {@code null} if the end of the stream has been
+     * reached.
+     */
+    private BitBuffer nextBlock() throws IOException {
+        if (this.eos) {
+            return null;
+        }
+        final long maxBits = maxBlockBits();
+        final BitBuffer block = this.current;
+        long window = this.window;
+        while (true) {
+            final int b = readByte();
+            window = (window << 8) | b;
+            block.write(b, 8);
+            for (int k = 7; k >= 0; k--) {
+                final long magic = (window >>> k) & MAGIC_MASK;
+                if ((magic == BLOCK_MAGIC || magic == EOS_MAGIC)
+                    && block.length >= 48 + k) {
+                    block.length -= 48 + k;
+                    final BitBuffer next = new BitBuffer();
+                    next.write(b & ((1 << k) - 1), k);
+                    if (magic == EOS_MAGIC) {
+                        this.eos = true;
+                        while (next.length < 32) {
+                            next.write(readByte(), 8);
+                        }
+                        this.storedCombinedCRC = next.readInt(0);
+                    }
+                    this.current = next;
+                    this.window = window;
+                    return block;
+                }
+            }
+            if (block.length > maxBits) {
+                throw new IOException("block overrun");
+            }
+        }
+    }
+
+    /**
+     * Submits blocks for decoding until the pipeline is full and returns the
+     * next decoded block or {@code null} if the end of the stream has been
+     * reached.
+     */
+    private BlockDecoder nextDecoded() throws IOException {
+        final Deque<BlockDecoder> pending = this.pending;
+        while (pending.size() < this.threads) {
+            final BitBuffer bits = nextBlock();
+            if (bits == null) {
+                break;
+            }
+            final BlockDecoder decoder
+                = new BlockDecoder(bits, this.blockSize100k);
+            decoder.result = this.executor.submit(decoder);
+            pending.add(decoder);
+        }
+        final BlockDecoder decoder = pending.poll();
+        if (decoder == null) {
+            return null;
+        }
+        try {
+            return get(decoder.result);
+        } catch (final IOException ex) {
+            return join(decoder.bits, ex);
+        }
+    }
+
+    /**
+     * Joins the bits of a block which could not get decoded with the block
+     * magic and the bits of the following blocks until the result can get
+     * decoded.
+     * This recovers from a block magic which has occured within the
+     * compressed data of a block by chance.
+     *
+     * @throws IOException the given exception if the joined bits cannot get
+     *         decoded either.
+     */
+    private BlockDecoder join(BitBuffer bits, final IOException ex)
+        throws IOException {
+        final long maxBits = maxBlockBits();
+        while (true) {
+            final BlockDecoder following = this.pending.poll();
+            final BitBuffer next;
+            if (following != null) {
+                following.result.cancel(false);
+                next = following.bits;
+            } else {
+                next = nextBlock();
+            }
+            if (next == null || bits.length + 48 + next.length > maxBits) {
+                throw ex;
+            }
+            final BitBuffer joined = new BitBuffer();
+            joined.write(bits);
+            for (int i = 40; i >= 0; i -= 8) {
+                joined.write((int) (BLOCK_MAGIC >>> i) & 0xff, 8);
+            }
+            joined.write(next);
+            try {
+                return new BlockDecoder(joined, this.blockSize100k).call();
+            } catch (final IOException retry) {
+                bits = joined;
+            }
+        }
+    }
+
+    /**
+     * Switches to the next decoded block and updates the combined CRC.
+     * Returns {@code false} if the end of the stream has been reached.
+     */
+    private boolean fill() throws IOException {
+        if (this.in == null) {
+            throw new IOException("stream closed");
+        }
+        while (this.pos >= this.len) {
+            if (this.eof) {
+                return false;
+            }
+            final BlockDecoder decoder = nextDecoded();
+            if (decoder == null) {
+                this.eof = true;
+                this.buf = null;
+                this.pos = this.len = 0;
+                if (this.storedCombinedCRC != this.computedCombinedCRC) {
+                    throw new IOException("BZip2 CRC error");
+                }
+                return false;
+            }
+            this.computedCombinedCRC = (this.computedCombinedCRC << 1)
+                | (this.computedCombinedCRC >>> 31);
+            this.computedCombinedCRC ^= decoder.blockCRC;
+            this.buf = decoder.buf;
+            this.pos = 0;
+            this.len = decoder.length;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        count(1);
+        return this.buf[this.pos++] & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] dest, final int offs, final int len)
+        throws IOException {
+        if (offs < 0) {
+            throw new IndexOutOfBoundsException("offs(" + offs + ") < 0.");
+        }
+        if (len < 0) {
+            throw new IndexOutOfBoundsException("len(" + len + ") < 0.");
+        }
+        if (offs + len > dest.length) {
+            throw new IndexOutOfBoundsException("offs(" + offs + ") + len("
+                                                + len + ") > dest.length(" + dest.length + ").");
+        }
+        if (len == 0) {
+            if (this.in == null) {
+                throw new IOException("stream closed");
+            }
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int n = Math.min(len, this.len - this.pos);
+        System.arraycopy(this.buf, this.pos, dest, offs, n);
+        this.pos += n;
+        count(n);
+        return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.in == null ? 0 : this.len - this.pos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        final InputStream inShadow = this.in;
+        if (inShadow != null) {
+            try {
+                for (BlockDecoder decoder; (decoder = this.pending.poll()) != null;) {
+                    decoder.result.cancel(false);
+                }
+                if (inShadow != System.in) {
+                    inShadow.close();
+                }
+            } finally {
+                this.buf = null;
+                this.current = null;
+                this.in = null;
+            }
+        }
+    }
+
+    /**
+     * Uninterruptibly waits for the given decoded block and returns its
+     * decoder.
+     */
+    private static BlockDecoder get(final Future<BlockDecoder> result)
+        throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (final InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } catch (final ExecutionException ex) {
+            final Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError(cause);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt(); // restore
+            }
+        }
+    }
+
+    /**
+     * Decodes a single block by means of a private
+     * {@link BZip2CompressorInputStream} which reads a synthetic stream
+     * consisting of the stream header, the block and the stream trailer.
+     * This checks the block CRC.
+     */
+    private static final class BlockDecoder implements Callable<BlockDecoder> {
+        final BitBuffer bits;
+        final int blockSize100k;
+        Future<BlockDecoder> result;
+        byte[] buf;
+        int length;
+        int blockCRC;
+
+        BlockDecoder(final BitBuffer bits, final int blockSize100k) {
+            this.bits = bits;
+            this.blockSize100k = blockSize100k;
+        }
+
+        @Override
+        public BlockDecoder call() throws IOException {
+            final BitBuffer bits = this.bits;
+            if (bits.length < 32) {
+                throw new IOException("bad block header");
+            }
+            final int blockCRC = bits.readInt(0);
+            final BitBuffer stream = new BitBuffer();
+            stream.write('B', 8);
+            stream.write('Z', 8);
+            stream.write('h', 8);
+            stream.write('0' + this.blockSize100k, 8);
+            for (int i = 40; i >= 0; i -= 8) {
+                stream.write((int) (BLOCK_MAGIC >>> i) & 0xff, 8);
+            }
+            stream.write(bits);
+            for (int i = 40; i >= 0; i -= 8) {
+                stream.write((int) (EOS_MAGIC >>> i) & 0xff, 8);
+            }
+            for (int i = 24; i >= 0; i -= 8) {
+                stream.write((blockCRC >>> i) & 0xff, 8);
+            }
+            final BZip2CompressorInputStream in = new BZip2CompressorInputStream(
+                new ByteArrayInputStream(stream.buf, 0,
+                                         (int) ((stream.length + 7) >>> 3)));
+            byte[] buf = new byte[this.blockSize100k * BASEBLOCKSIZE];
+            int n = 0;
+            for (int r; (r = in.read(buf, n, buf.length - n)) >= 0;) {
+                n += r;
+                if (n == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length << 1);
+                }
+            }
+            this.buf = buf;
+            this.length = n;
+            this.blockCRC = blockCRC;
+            return this;
+        }
+    }
+
+    /** A growable array of bits in big endian order. */
+    private static final class BitBuffer {
+        byte[] buf = new byte[64 * 1024];
+        long length;
+
+        /** Appends the {@code n} low order bits of the given value. */
+        void write(final int value, final int n) {
+            if (n == 0) {
+                return;
+            }
+            final int off = (int) (this.length >>> 3);
+            final int shift = (int) this.length & 7;
+            if (off + 2 > this.buf.length) {
+                this.buf = Arrays.copyOf(this.buf, this.buf.length << 1);
+            }
+            final int b = (value << (8 - n)) & 0xff;
+            this.buf[off] = (byte) ((this.buf[off] & (0xff00 >>> shift))
+                                    | (b >>> shift));
+            if (shift + n > 8) {
+                this.buf[off + 1] = (byte) (b << (8 - shift));
+            }
+            this.length += n;
+        }
+
+        /** Appends all bits of the given buffer. */
+        void write(final BitBuffer bits) {
+            final int bytes = (int) (bits.length >>> 3);
+            if ((this.length & 7) == 0) {
+                final int off = (int) (this.length >>> 3);
+                final int size = off + bytes + 2;
+                if (size > this.buf.length) {
+                    this.buf = Arrays.copyOf(this.buf,
+                                             Math.max(size, this.buf.length << 1));
+                }
+                System.arraycopy(bits.buf, 0, this.buf, off, bytes);
+                this.length += (long) bytes << 3;
+            } else {
+                for (int i = 0; i < bytes; i++) {
+                    write(bits.buf[i] & 0xff, 8);
+                }
+            }
+            final int rest = (int) bits.length & 7;
+            if (rest > 0) {
+                write((bits.buf[bytes] & 0xff) >>> (8 - rest), rest);
+            }
+        }
+
+        /** Returns the 32 bits at the given bit offset. */
+        int readInt(final long bitOffset) {
+            int value = 0;
+            for (long i = bitOffset, end = bitOffset + 32; i < end; i++) {
+                value = (value << 1)
+                    | ((this.buf[(int) (i >>> 3)] >>> (7 - (int) (i & 7))) & 1);
+            }
+            return value;
+        }
+    }
+}
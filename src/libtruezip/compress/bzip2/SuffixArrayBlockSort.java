@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package libtruezip.compress.bzip2;
+
+import java.util.Arrays;
+
+/**
+ * A {@link BlockSort} which sorts the rotations of a block by means of a
+ * suffix array which gets constructed in linear time by the SA-IS algorithm.
+ *
+ * <p>Unlike the main sort, the running time of this algorithm does not
+ * depend on the length of the common prefixes of the rotations, so it
+ * does not degrade on highly repetitive blocks.  On the other hand, it
+ * is usually slower than the main sort on ordinary blocks.</p>
+ *
+ * <p>The rotations of the block are the prefixes of the suffixes of the
+ * block concatenated with itself, so the suffix array of this
+ * concatenation yields the order of the rotations.  This order is unique
+ * unless the block is periodic, i.e. some rotations are equal.  In this
+ * case the order of the equal rotations and hence the original pointer
+ * depends on the sorting algorithm, so periodic blocks get sorted by
+ * {@link BlockSort} in order to produce identical output.</p>
+ *
+ * <p>For more information see:</p>
+ * <ul>
+ *   <li>Nong, G., Zhang, S. and Chan, W.H.: Two Efficient Algorithms for
+ *   Linear Time Suffix Array Construction</li>
+ * </ul>
+ *
+ * @NotThreadSafe
+ */
+class SuffixArrayBlockSort extends BlockSort {
+
+    /** The size of the alphabet of the doubled block, including the sentinel. */
+    private static final int ALPHABET_SIZE = 257;
+
+    /** The doubled block followed by a sentinel. */
+    private int[] text;
+
+    /** The suffix array of the text. */
+    private int[] sa;
+
+    SuffixArrayBlockSort(final BZip2CompressorOutputStream.Data data) {
+        super(data);
+    }
+
+    @Override
+    void sort(final BZip2CompressorOutputStream.Data data, final int last) {
+        final int n = last + 1;
+        final int length = 2 * n + 1;
+        if (this.text == null || this.text.length < length) {
+            this.text = new int[length];
+            this.sa = new int[length];
+        }
+        final byte[] block = data.block;
+        final int[] text = this.text;
+        final int[] sa = this.sa;
+
+        if (isPeriodic(block, n, sa)) {
+            super.sort(data, last);
+            return;
+        }
+
+        // The block starts at offset 1.
+        for (int i = 0; i < n; i++) {
+            text[i] = text[i + n] = (block[i + 1] & 0xff) + 1;
+        }
+        text[2 * n] = 0;
+
+        sais(text, sa, length, ALPHABET_SIZE);
+
+        final int[] fmap = data.fmap;
+        for (int i = 0, j = 0; j < n; i++) {
+            final int p = sa[i];
+            if (p < n) {
+                fmap[j++] = p;
+            }
+        }
+        block[0] = block[n];
+    }
+
+    /**
+     * Returns true if and only if the block is a repetition of one of its
+     * proper prefixes.
+     * This computes the failure function of the Knuth-Morris-Pratt algorithm
+     * into the given temporary array.
+     */
+    private static boolean isPeriodic(final byte[] block, final int n,
+                                      final int[] fail) {
+        // The block starts at offset 1.
+        fail[0] = -1;
+        for (int i = 1, k = -1; i <= n; i++) {
+            final byte c = block[i];
+            while (k >= 0 && block[k + 1] != c) {
+                k = fail[k];
+            }
+            fail[i] = ++k;
+        }
+        final int period = n - fail[n];
+        return period < n && n % period == 0;
+    }
+
+    /**
+     * Constructs the suffix array of the given text into the given array.
+     * The last character of the text must be a unique sentinel zero.
+     *
+     * @param s the text.
+     * @param sa the suffix array.
+     * @param n the length of the text.
+     * @param k the size of the alphabet of the text.
+     */
+    private static void sais(final int[] s, final int[] sa, final int n,
+                             final int k) {
+        // Classify the suffixes: true for S-type, false for L-type.
+        final boolean[] t = new boolean[n];
+        t[n - 1] = true;
+        for (int i = n - 2; i >= 0; i--) {
+            t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+        }
+
+        // Stage 1: Sort the LMS substrings.
+        final int[] bkt = new int[k];
+        buckets(s, bkt, n, k, true);
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = 1; i < n; i++) {
+            if (isLms(t, i)) {
+                sa[--bkt[s[i]]] = i;
+            }
+        }
+        induceL(t, sa, s, bkt, n, k);
+        induceS(t, sa, s, bkt, n, k);
+
+        // Compact the sorted LMS substrings into the first n1 items of sa.
+        int n1 = 0;
+        for (int i = 0; i < n; i++) {
+            if (isLms(t, sa[i])) {
+                sa[n1++] = sa[i];
+            }
+        }
+
+        // Name the LMS substrings.
+        Arrays.fill(sa, n1, n, -1);
+        int name = 0;
+        for (int i = 0, prev = -1; i < n1; i++) {
+            final int pos = sa[i];
+            boolean diff = false;
+            for (int d = 0; d < n; d++) {
+                if (prev == -1 || s[pos + d] != s[prev + d]
+                    || t[pos + d] != t[prev + d]) {
+                    diff = true;
+                    break;
+                } else if (d > 0 && (isLms(t, pos + d) || isLms(t, prev + d))) {
+                    break;
+                }
+            }
+            if (diff) {
+                name++;
+                prev = pos;
+            }
+            sa[n1 + (pos >> 1)] = name - 1;
+        }
+        for (int i = n - 1, j = n - 1; i >= n1; i--) {
+            if (sa[i] >= 0) {
+                sa[j--] = sa[i];
+            }
+        }
+
+        // Stage 2: Sort the reduced string, recursing if the names are not
+        // yet unique.
+        final int[] s1 = Arrays.copyOfRange(sa, n - n1, n);
+        final int[] sa1 = new int[n1];
+        if (name < n1) {
+            sais(s1, sa1, n1, name);
+        } else {
+            for (int i = 0; i < n1; i++) {
+                sa1[s1[i]] = i;
+            }
+        }
+
+        // Stage 3: Induce the suffix array from the sorted LMS suffixes.
+        buckets(s, bkt, n, k, true);
+        for (int i = 1, j = 0; i < n; i++) {
+            if (isLms(t, i)) {
+                s1[j++] = i;
+            }
+        }
+        Arrays.fill(sa, 0, n, -1);
+        for (int i = n1 - 1; i >= 0; i--) {
+            final int j = s1[sa1[i]];
+            sa[--bkt[s[j]]] = j;
+        }
+        induceL(t, sa, s, bkt, n, k);
+        induceS(t, sa, s, bkt, n, k);
+    }
+
+    private static boolean isLms(final boolean[] t, final int i) {
+        return i > 0 && t[i] && !t[i - 1];
+    }
+
+    /**
+     * Computes the start or end of each character bucket in the suffix
+     * array.
+     */
+    private static void buckets(final int[] s, final int[] bkt, final int n,
+                                final int k, final boolean end) {
+        Arrays.fill(bkt, 0, k, 0);
+        for (int i = 0; i < n; i++) {
+            bkt[s[i]]++;
+        }
+        for (int i = 0, sum = 0; i < k; i++) {
+            sum += bkt[i];
+            bkt[i] = end ? sum : sum - bkt[i];
+        }
+    }
+
+    /** Induces the order of the L-type suffixes. */
+    private static void induceL(final boolean[] t, final int[] sa,
+                                final int[] s, final int[] bkt, final int n,
+                                final int k) {
+        buckets(s, bkt, n, k, false);
+        for (int i = 0; i < n; i++) {
+            final int j = sa[i] - 1;
+            if (j >= 0 && !t[j]) {
+                sa[bkt[s[j]]++] = j;
+            }
+        }
+    }
+
+    /** Induces the order of the S-type suffixes. */
+    private static void induceS(final boolean[] t, final int[] sa,
+                                final int[] s, final int[] bkt, final int n,
+                                final int k) {
+        buckets(s, bkt, n, k, true);
+        for (int i = n - 1; i >= 0; i--) {
+            final int j = sa[i] - 1;
+            if (j >= 0 && t[j]) {
+                sa[--bkt[s[j]]] = j;
+            }
+        }
+    }
+}